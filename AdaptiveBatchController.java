@@ -0,0 +1,145 @@
+package nhs.genetics.cardiff;
+
+import java.lang.management.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class sizing import transactions from heap occupancy, garbage collection and commit latency
+ * <p>
+ * Batches shrink by half when the live heap after collection, the share of time spent collecting or the commit
+ * latency pass their targets, and grow by a quarter while all three are comfortably below them. A batch is also
+ * committed early when the heap becomes tight, and producers wait for queued work to drain before adding more, so
+ * imports flush rather than run out of memory. The live heap only reflects old generation collections, so it lags
+ * promotion during long runs of young collections.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class AdaptiveBatchController {
+    private static final Logger log = Logger.getLogger(AdaptiveBatchController.class.getName());
+
+    private static final double tightLiveHeapFraction = 0.8, tightUsedHeapFraction = 0.95, targetLiveHeapFraction = 0.6;
+    private static final double maxGcTimeFraction = 0.1;
+    private static final long targetCommitMillis = 2000;
+    private static final int heapCheckInterval = 100; //records between heap checks within a batch
+    private static final long pollMillis = 50;
+
+    private final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    private final List<MemoryPoolMXBean> memoryPoolMXBeans = ManagementFactory.getMemoryPoolMXBeans();
+    private final List<GarbageCollectorMXBean> garbageCollectorMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    private final int minBatchSize, maxBatchSize;
+    private volatile int batchSize;
+    private long lastGcMillis, lastSampleNanos;
+
+    public AdaptiveBatchController(int batchSize, int minBatchSize, int maxBatchSize){
+        this.batchSize = batchSize;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.lastGcMillis = getGcMillis();
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    /**
+     * @return true when a batch of this many records should be committed now
+     */
+    public boolean shouldCommit(int recordsInBatch){
+        return shouldCommit(recordsInBatch, isHeapCheck(recordsInBatch) && isHeapTight());
+    }
+
+    //full batches are committed, and partial ones past the minimum at a heap check on a tight heap
+    boolean shouldCommit(int recordsInBatch, boolean heapTight){
+        return recordsInBatch >= batchSize || (isHeapCheck(recordsInBatch) && heapTight);
+    }
+
+    /**
+     * Adjusts the batch size after a commit
+     */
+    public synchronized void committed(int records, long commitNanos){
+        long nanos = System.nanoTime(), gcMillis = getGcMillis();
+        double gcTimeFraction = nanos > lastSampleNanos ? (gcMillis - lastGcMillis) * 1e6 / (nanos - lastSampleNanos) : 0;
+
+        lastGcMillis = gcMillis;
+        lastSampleNanos = nanos;
+
+        committed(records, commitNanos / 1000000, getLiveHeapFraction(), gcTimeFraction);
+    }
+
+    synchronized void committed(int records, long commitMillis, double liveHeapFraction, double gcTimeFraction){
+        int previousBatchSize = batchSize;
+
+        if (liveHeapFraction > tightLiveHeapFraction || gcTimeFraction > maxGcTimeFraction || commitMillis > targetCommitMillis){
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+        } else if (records >= batchSize && liveHeapFraction < targetLiveHeapFraction && commitMillis < targetCommitMillis / 2){
+            batchSize = Math.min(maxBatchSize, batchSize + batchSize / 4);
+        }
+
+        if (batchSize != previousBatchSize){
+            log.log(Level.FINE, "Batch size " + previousBatchSize + " -> " + batchSize + " (live heap " + Math.round(liveHeapFraction * 100) + "%, GC " + Math.round(gcTimeFraction * 100) + "%, commit " + commitMillis + "ms)");
+        }
+    }
+
+    public boolean isHeapTight(){
+        MemoryUsage heap = memoryMXBean.getHeapMemoryUsage();
+        return isHeapTight(getLiveHeapFraction(), (double) heap.getUsed() / getMaxHeap(heap));
+    }
+
+    static boolean isHeapTight(double liveHeapFraction, double usedHeapFraction){
+        return liveHeapFraction > tightLiveHeapFraction || usedHeapFraction > tightUsedHeapFraction;
+    }
+
+    /**
+     * Blocks a producer while the heap is tight and its consumer still has queued work
+     */
+    public void awaitHeadroom(Collection<?> pending) throws InterruptedException {
+        while (isHeapTight() && !pending.isEmpty()){
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private boolean isHeapCheck(int recordsInBatch){
+        return recordsInBatch >= minBatchSize && recordsInBatch % heapCheckInterval == 0;
+    }
+
+    //heap in use after the last collection of each pool, current use before the first. A pool's collection usage
+    //only changes when that pool is collected, so the old generation figure stays at its last old or mixed collection
+    //through a run of young collections and misses what they promote; isHeapTight also checks the used fraction to
+    //bound that, and the next old collection corrects the estimate
+    private double getLiveHeapFraction(){
+        MemoryUsage heap = memoryMXBean.getHeapMemoryUsage();
+        long used = 0;
+        boolean collected = false;
+
+        for (MemoryPoolMXBean memoryPoolMXBean : memoryPoolMXBeans){
+            if (memoryPoolMXBean.getType() != MemoryType.HEAP || memoryPoolMXBean.getCollectionUsage() == null) continue;
+
+            MemoryUsage collectionUsage = memoryPoolMXBean.getCollectionUsage();
+            if (collectionUsage.getCommitted() > 0) collected = true;
+            used += collectionUsage.getUsed();
+        }
+
+        return (double) (collected ? used : heap.getUsed()) / getMaxHeap(heap);
+    }
+
+    private static long getMaxHeap(MemoryUsage heap){
+        return heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+    }
+
+    private long getGcMillis(){
+        long gcMillis = 0;
+
+        for (GarbageCollectorMXBean garbageCollectorMXBean : garbageCollectorMXBeans){
+            if (garbageCollectorMXBean.getCollectionTime() > 0) gcMillis += garbageCollectorMXBean.getCollectionTime();
+        }
+
+        return gcMillis;
+    }
+
+}
@@ -0,0 +1,257 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A compiled plan mapping annotation VCF INFO fields to variant node properties
+ * <p>
+ * Mappings are read once from a vcfanno style TOML file with parallel arrays per block:
+ * <pre>
+ * [[mapping]]
+ * fields=["exac.AC_AFR"]        INFO field (numerator for ratio)
+ * denominators=["exac.AN_AFR"]  INFO field used as the denominator, ratio only
+ * ops=["ratio"]                 self, max or ratio
+ * names=["exacAFRAf"]           variant node property
+ * min_an=120                    ratio is only calculated when the denominator exceeds this
+ * </pre>
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class AnnotationFieldMapping {
+    private static final Logger log = Logger.getLogger(AnnotationFieldMapping.class.getName());
+
+    public enum Operation {
+        SELF, MAX, RATIO
+    }
+
+    private static class FieldExtractor {
+        private final String field;
+        private final String denominator;
+        private final Operation operation;
+        private final String name;
+        private final int minimumAlleles;
+
+        private FieldExtractor(String field, String denominator, Operation operation, String name, int minimumAlleles){
+            this.field = field;
+            this.denominator = denominator;
+            this.operation = operation;
+            this.name = name;
+            this.minimumAlleles = minimumAlleles;
+        }
+    }
+
+    private final FieldExtractor[] extractors;
+
+    private AnnotationFieldMapping(List<FieldExtractor> extractors){
+        this.extractors = extractors.toArray(new FieldExtractor[extractors.size()]);
+    }
+
+    /**
+     * @return mapping for the 1000 genomes, ExAC and conservation fields added by import.sh
+     */
+    public static AnnotationFieldMapping getDefaultMapping(){
+        ArrayList<FieldExtractor> extractors = new ArrayList<>();
+
+        for (VariantDatabase.kGPhase3Population population : VariantDatabase.kGPhase3Population.values()){
+            extractors.add(new FieldExtractor("kGPhase3." + population + "_AF", null, Operation.SELF, "kGPhase3" + population + "Af", 0));
+        }
+        for (VariantDatabase.exacPopulation population : VariantDatabase.exacPopulation.values()){
+            extractors.add(new FieldExtractor("exac.AC_" + population, "exac.AN_" + population, Operation.RATIO, "exac" + population + "Af", 120));
+        }
+
+        extractors.add(new FieldExtractor("GERP", null, Operation.SELF, "gerp", 0));
+        extractors.add(new FieldExtractor("phastCons", null, Operation.SELF, "phastCons", 0));
+        extractors.add(new FieldExtractor("phyloP", null, Operation.SELF, "phyloP", 0));
+
+        return new AnnotationFieldMapping(extractors);
+    }
+
+    public static AnnotationFieldMapping fromToml(File tomlFile) throws IOException {
+        log.log(Level.INFO, "Reading annotation field mapping from " + tomlFile + " ...");
+
+        ArrayList<FieldExtractor> extractors = new ArrayList<>();
+        ArrayList<HashMap<String, List<String>>> blocks = new ArrayList<>();
+        HashMap<String, List<String>> block = null;
+        StringBuilder pending = new StringBuilder();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(tomlFile))){
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                line = stripComment(line).trim();
+                if (line.isEmpty()) continue;
+
+                //other tables, e.g. vcfanno annotation blocks, are ignored
+                if (line.startsWith("[") && pending.length() == 0){
+                    block = new HashMap<>();
+                    if (line.equals("[[mapping]]")) blocks.add(block);
+                    continue;
+                }
+
+                //arrays may span several lines
+                pending.append(line);
+                if (pending.indexOf("[") != -1 && pending.indexOf("]") == -1) continue;
+
+                String[] keyValue = pending.toString().split("=", 2);
+                pending.setLength(0);
+
+                if (block == null || keyValue.length != 2){
+                    throw new InvalidPropertiesFormatException("Malformed annotation field mapping: " + line);
+                }
+
+                block.put(keyValue[0].trim(), parseTomlValue(keyValue[1].trim()));
+            }
+        }
+
+        for (HashMap<String, List<String>> fields : blocks){
+
+            List<String> sources = fields.get("fields");
+            List<String> operations = fields.get("ops");
+            List<String> names = fields.get("names");
+            List<String> denominators = fields.get("denominators");
+            int minimumAlleles = fields.containsKey("min_an") ? parseMinimumAlleles(fields.get("min_an")) : 0;
+
+            if (names == null){
+                throw new InvalidPropertiesFormatException("Annotation field mapping block has no names: " + fields.keySet());
+            }
+            if (sources == null || operations == null || sources.size() != names.size() || operations.size() != names.size()){
+                throw new InvalidPropertiesFormatException("Annotation field mapping requires equal length fields, ops and names: " + names);
+            }
+
+            for (int n = 0; n < names.size(); ++n){
+                Operation operation = parseOperation(operations.get(n), names.get(n));
+
+                if (operation == Operation.RATIO && (denominators == null || denominators.size() != names.size())){
+                    throw new InvalidPropertiesFormatException("Ratio mapping requires a denominator for " + names.get(n));
+                }
+
+                extractors.add(new FieldExtractor(sources.get(n), operation == Operation.RATIO ? denominators.get(n) : null, operation, names.get(n), minimumAlleles));
+            }
+        }
+
+        log.log(Level.INFO, "Mapped " + extractors.size() + " annotation fields");
+
+        return new AnnotationFieldMapping(extractors);
+    }
+
+    /**
+     * Runs the plan against one record; each INFO field is looked up and parsed once
+     */
+    public HashMap<String, Object> extract(VariantContext variantContext){
+        HashMap<String, Object> properties = new HashMap<>();
+        Map<String, Object> attributes = variantContext.getAttributes();
+
+        for (FieldExtractor extractor : extractors){
+            Float value = parseValue(attributes.get(extractor.field), extractor.operation == Operation.MAX);
+            if (value == null) continue;
+
+            if (extractor.operation == Operation.RATIO){
+                Float denominator = parseValue(attributes.get(extractor.denominator), true);
+                if (denominator == null || denominator <= extractor.minimumAlleles) continue;
+                value /= denominator;
+            }
+
+            properties.put(extractor.name, value);
+        }
+
+        return properties;
+    }
+
+    /**
+     * @return variant node properties in plan order
+     */
+    public String[] getNames(){
+        String[] names = new String[extractors.length];
+
+        for (int n = 0; n < extractors.length; ++n){
+            names[n] = extractors[n].name;
+        }
+
+        return names;
+    }
+
+    private static Operation parseOperation(String operation, String name) throws InvalidPropertiesFormatException {
+        try {
+            return Operation.valueOf(operation.toUpperCase());
+        } catch (IllegalArgumentException e){
+            throw new InvalidPropertiesFormatException("Unknown ops value for " + name + ": " + operation);
+        }
+    }
+
+    private static int parseMinimumAlleles(List<String> values) throws InvalidPropertiesFormatException {
+        try {
+            if (values.size() != 1) throw new NumberFormatException();
+            return Integer.parseInt(values.get(0));
+        } catch (NumberFormatException e){
+            throw new InvalidPropertiesFormatException("Malformed min_an value: " + values);
+        }
+    }
+
+    private static Float parseValue(Object attribute, boolean max){
+        if (attribute == null) return null;
+
+        //multi-valued INFO fields are returned as lists
+        if (attribute instanceof List){
+            Float value = null;
+
+            for (Object element : (List<?>) attribute){
+                Float parsed = parseValue(element, false);
+                if (parsed == null) continue;
+                if (value == null || (max && parsed > value)) value = parsed;
+                if (!max) break;
+            }
+
+            return value;
+        }
+
+        String string = attribute.toString();
+        if (string.isEmpty() || string.equals(".")) return null;
+
+        return Float.parseFloat(string);
+    }
+
+    private static List<String> parseTomlValue(String value){
+        ArrayList<String> values = new ArrayList<>();
+
+        if (value.startsWith("[")){
+            for (String element : value.substring(1, value.lastIndexOf(']')).split(",")){
+                element = element.trim();
+                if (!element.isEmpty()) values.add(unquote(element));
+            }
+        } else {
+            values.add(unquote(value));
+        }
+
+        return values;
+    }
+
+    //removes a # comment outside quoted strings
+    private static String stripComment(String line){
+        boolean quoted = false;
+
+        for (int n = 0; n < line.length(); ++n){
+            char c = line.charAt(n);
+
+            if (c == '"'){
+                quoted = !quoted;
+            } else if (c == '#' && !quoted){
+                return line.substring(0, n);
+            }
+        }
+
+        return line;
+    }
+
+    private static String unquote(String value){
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) return value.substring(1, value.length() - 1);
+        return value;
+    }
+
+}
@@ -0,0 +1,224 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+import java.util.*;
+
+/**
+ * An immutable set of graph writes for one annotation VCF record
+ * <p>
+ * Built on parser threads from the CSQ, dbSNP and mapped INFO fields so the single writer only resolves nodes and
+ * sets properties. Domains are kept as identifiers because compact storage assigns their codes on the writer.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class AnnotationWriteCommand {
+
+    private final String variantId;
+    private final int contigIndex;
+    private final int position;
+    private final int bin;
+    private final String dbSnpId;
+    private final List<TranscriptAnnotation> transcriptAnnotations;
+    private final Map<String, Object> annotationFields;
+
+    public static class TranscriptAnnotation {
+        private final String symbolId;
+        private final String featureId;
+        private final Map<String, Object> featureProperties;
+        private final boolean canonical;
+        private final Map<String, Object> annotationProperties;
+        private final Map<String, Collection<String>> domains;
+        private final List<String> consequenceRelationships;
+        private final String biotypeRelationship;
+
+        private TranscriptAnnotation(VEPAnnotationv82 annotation){
+            HashMap<String, Object> featureProperties = new HashMap<>();
+            HashMap<String, Object> annotationProperties = new HashMap<>();
+            LinkedHashMap<String, Collection<String>> domains = new LinkedHashMap<>();
+            ArrayList<String> consequenceRelationships = new ArrayList<>();
+
+            this.symbolId = annotation.getSymbol() != null && !annotation.getSymbol().equals("") ? annotation.getSymbol() : null;
+            this.featureId = annotation.getFeature() != null && !annotation.getFeature().equals("") ? annotation.getFeature() : null;
+
+            //feature
+            if (featureId != null) {
+                featureProperties.put("featureId", featureId);
+                if (annotation.getFeatureType() != null) featureProperties.put("featureType", annotation.getFeatureType());
+                if (annotation.getCcds() != null) featureProperties.put("ccdsId", annotation.getCcds());
+                if (annotation.getStrand() == 1) {
+                    featureProperties.put("strand", true);
+                } else if (annotation.getStrand() == -1) {
+                    featureProperties.put("strand", false);
+                }
+                if (annotation.getExon() != null) featureProperties.put("totalExons", Short.parseShort(annotation.getExon().split("/")[1]));
+            }
+
+            //annotation
+            if (annotation.getHgvsc() != null) annotationProperties.put("hgvsc", annotation.getHgvsc());
+            if (annotation.getHgvsp() != null) annotationProperties.put("hgvsp", annotation.getHgvsp());
+            if (annotation.getExon() != null) annotationProperties.put("exon", annotation.getExon().split("/")[0]); //must remain as string, can be given as range i.e. 1-2
+            if (annotation.getIntron() != null) annotationProperties.put("intron", annotation.getIntron().split("/")[0]); //must remain as string, can be given as range i.e. 1-2
+            if (annotation.getSift() != null) annotationProperties.put("sift", annotation.getSift());
+            if (annotation.getPolyPhen() != null) annotationProperties.put("polyphen", annotation.getPolyPhen());
+            if (annotation.getCodons() != null) annotationProperties.put("codons", annotation.getCodons());
+
+            //protein domains
+            if (annotation.getDomains().containsKey("Pfam_domain")){
+                domains.put("pfamDomain", annotation.getDomains().get("Pfam_domain"));
+            }
+            if (annotation.getDomains().containsKey("hmmpanther")){
+                domains.put("hmmPanther", annotation.getDomains().get("hmmpanther"));
+            }
+            if (annotation.getDomains().containsKey("PROSITE_profiles") || annotation.getDomains().containsKey("PROSITE_patterns")){
+
+                //combine Prosite numbers
+                HashSet<String> temp = new HashSet<>();
+                if (annotation.getDomains().containsKey("PROSITE_profiles")) temp.addAll(annotation.getDomains().get("PROSITE_profiles"));
+                if (annotation.getDomains().containsKey("PROSITE_patterns")) temp.addAll(annotation.getDomains().get("PROSITE_patterns"));
+
+                domains.put("prosite", temp);
+            }
+            if (annotation.getDomains().containsKey("Superfamily_domains")){
+                domains.put("superfamilyDomains", annotation.getDomains().get("Superfamily_domains"));
+            }
+
+            //consequences, unknown when none given
+            for (String consequence : annotation.getConsequences()) {
+                consequenceRelationships.add("HAS_" + consequence.toUpperCase() + "_CONSEQUENCE");
+            }
+
+            this.canonical = annotation.isCanonical();
+            this.biotypeRelationship = symbolId != null && featureId != null ? "HAS_" + annotation.getBiotype().toUpperCase() + "_BIOTYPE" : null;
+            this.featureProperties = Collections.unmodifiableMap(featureProperties);
+            this.annotationProperties = Collections.unmodifiableMap(annotationProperties);
+            this.domains = Collections.unmodifiableMap(domains);
+            this.consequenceRelationships = Collections.unmodifiableList(consequenceRelationships);
+        }
+
+        public String getSymbolId() {
+            return symbolId;
+        }
+
+        public String getFeatureId() {
+            return featureId;
+        }
+
+        public Map<String, Object> getFeatureProperties() {
+            return featureProperties;
+        }
+
+        public boolean isCanonical() {
+            return canonical;
+        }
+
+        public Map<String, Object> getAnnotationProperties() {
+            return annotationProperties;
+        }
+
+        public Map<String, Collection<String>> getDomains() {
+            return domains;
+        }
+
+        public List<String> getConsequenceRelationships() {
+            return consequenceRelationships;
+        }
+
+        public String getBiotypeRelationship() {
+            return biotypeRelationship;
+        }
+    }
+
+    private AnnotationWriteCommand(VariantContext variantContext, AnnotationFieldMapping annotationFieldMapping){
+        ArrayList<TranscriptAnnotation> transcriptAnnotations = new ArrayList<>();
+
+        this.variantId = variantContext.getContig() + ":" +
+                variantContext.getStart() +
+                variantContext.getAlleles().get(0).getBaseString() + ">" +
+                variantContext.getAlleles().get(1).getBaseString();
+        this.contigIndex = VariantRegionIndex.getContigIndex(variantContext.getContig());
+        this.position = variantContext.getStart();
+        this.bin = VariantRegionIndex.getBin(variantContext.getStart(), variantContext.getEnd());
+        this.dbSnpId = variantContext.getID() != null && !variantContext.getID().equals("") && !variantContext.getID().equals(".") ? variantContext.getID() : null;
+
+        //split annotations and make unique
+        for (VEPAnnotationv82 annotation : getVepAnnotations(variantContext)){
+            transcriptAnnotations.add(new TranscriptAnnotation(annotation));
+        }
+
+        this.transcriptAnnotations = Collections.unmodifiableList(transcriptAnnotations);
+        this.annotationFields = Collections.unmodifiableMap(annotationFieldMapping.extract(variantContext)); //population frequencies and conservation scores
+    }
+
+    public static AnnotationWriteCommand parse(VariantContext variantContext, AnnotationFieldMapping annotationFieldMapping){
+        return new AnnotationWriteCommand(variantContext, annotationFieldMapping);
+    }
+
+    private static HashSet<VEPAnnotationv82> getVepAnnotations(VariantContext variantContext){
+        HashSet<VEPAnnotationv82> vepAnnotations = new HashSet<>();
+        Object csq = variantContext.getAttribute("CSQ");
+
+        if (csq == null) return vepAnnotations;
+
+        //one or multiple annotations
+        List<?> annotations = csq instanceof List ? (List<?>) csq : Collections.singletonList(csq);
+
+        for (Object annotation : annotations) {
+
+            VEPAnnotationv82 vepAnnotationv82 = new VEPAnnotationv82((String) annotation);
+            vepAnnotationv82.parseAnnotation();
+
+            if (!filterVepAnnotation(vepAnnotationv82)) {
+                vepAnnotations.add(vepAnnotationv82);
+            }
+
+        }
+
+        return vepAnnotations;
+    }
+
+    private static boolean filterVepAnnotation(VEPAnnotationv82 vepAnnotationv82) {
+
+        //check biotype
+        if (vepAnnotationv82.getBiotype() == null || !vepAnnotationv82.getBiotype().equals("protein_coding")) {
+            return true;
+        }
+
+        //check symbol source
+        if (vepAnnotationv82.getSymbolSource() == null || !vepAnnotationv82.getSymbolSource().equals("HGNC")) {
+            return true;
+        }
+
+        return false;
+    }
+
+    public String getVariantId() {
+        return variantId;
+    }
+
+    public int getContigIndex() {
+        return contigIndex;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getBin() {
+        return bin;
+    }
+
+    public String getDbSnpId() {
+        return dbSnpId;
+    }
+
+    public List<TranscriptAnnotation> getTranscriptAnnotations() {
+        return transcriptAnnotations;
+    }
+
+    public Map<String, Object> getAnnotationFields() {
+        return annotationFields;
+    }
+}
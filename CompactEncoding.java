@@ -0,0 +1,266 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for the optional compact property encoding of annotation data
+ * <p>
+ * Schema:
+ * <ul>
+ * <li>Variant.annotationScores float[]: one slot per field named in CompactLayout.annotationScoreFields, Float.NaN when absent.
+ * Fields are only ever appended to the layout so older arrays decode with missing trailing slots.</li>
+ * <li>Annotation.pfamDomainCodes, hmmPantherCodes, prositeCodes, superfamilyDomainsCodes int[]: codes of Domain nodes.</li>
+ * <li>Domain {domainId, code}: shared dictionary of protein domain identifiers.</li>
+ * </ul>
+ * The read helpers also accept the uncompressed properties so callers need not know which mode a store was written in.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class CompactEncoding {
+    private static final Logger log = Logger.getLogger(CompactEncoding.class.getName());
+
+    public static final String annotationScoresProperty = "annotationScores";
+    public static final String annotationScoreFieldsProperty = "annotationScoreFields";
+    public static final String domainCodesSuffix = "Codes";
+
+    private GraphDatabaseService graphDb;
+    private Node layoutNode;
+    private String[] annotationScoreFields;
+    private HashMap<String, Integer> annotationScoreSlots = new HashMap<>();
+    private HashMap<String, Integer> domainCodes = new HashMap<>();
+    private HashMap<Integer, String> domainIds = new HashMap<>();
+    private HashMap<String, Integer> pendingDomainCodes = new HashMap<>(); //created in the writer's open transaction
+    private int nextDomainCode = 0;
+
+    private CompactEncoding(GraphDatabaseService graphDb){
+        this.graphDb = graphDb;
+    }
+
+    /**
+     * Opens the stored layout for reading
+     */
+    public static CompactEncoding open(GraphDatabaseService graphDb){
+        CompactEncoding compactEncoding = new CompactEncoding(graphDb);
+        compactEncoding.loadLayout();
+        compactEncoding.loadDomains();
+        return compactEncoding;
+    }
+
+    /**
+     * Opens the stored layout for writing, appending any mapped fields it does not yet contain
+     */
+    public static CompactEncoding open(GraphDatabaseService graphDb, String[] fields) throws InvalidPropertiesFormatException {
+
+        //stores created before compact encoding have no Domain constraint
+        if (!Neo4j.hasIndex(graphDb, VariantDatabase.getDomainLabel(), "domainId")){
+            Neo4j.createConstraint(graphDb, VariantDatabase.getDomainLabel(), "domainId");
+        }
+
+        CompactEncoding compactEncoding = open(graphDb);
+        compactEncoding.extendLayout(fields);
+        return compactEncoding;
+    }
+
+    private void loadLayout(){
+        ArrayList<Node> layoutNodes = Neo4j.getNodes(graphDb, VariantDatabase.getCompactLayoutLabel(), "layoutId", 1);
+
+        if (layoutNodes.size() == 0){
+            annotationScoreFields = new String[0];
+            return;
+        }
+
+        layoutNode = layoutNodes.get(0);
+
+        try (Transaction tx = graphDb.beginTx()){
+            annotationScoreFields = (String[]) layoutNode.getProperty(annotationScoreFieldsProperty, new String[0]);
+            tx.success();
+        }
+
+        for (int n = 0; n < annotationScoreFields.length; ++n){
+            annotationScoreSlots.put(annotationScoreFields[n], n);
+        }
+    }
+
+    private void extendLayout(String[] fields) throws InvalidPropertiesFormatException {
+        ArrayList<String> layout = new ArrayList<>(Arrays.asList(annotationScoreFields));
+
+        for (String field : fields){
+            if (!annotationScoreSlots.containsKey(field)){
+                annotationScoreSlots.put(field, layout.size());
+                layout.add(field);
+            }
+        }
+
+        if (layout.size() == annotationScoreFields.length){
+            return;
+        }
+
+        annotationScoreFields = layout.toArray(new String[layout.size()]);
+        log.log(Level.INFO, "Compact annotation score layout: " + layout);
+
+        if (layoutNode == null){
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("layoutId", 1);
+            layoutNode = Neo4j.addNode(graphDb, VariantDatabase.getCompactLayoutLabel(), properties);
+        }
+
+        try (Transaction tx = graphDb.beginTx()){
+            layoutNode.setProperty(annotationScoreFieldsProperty, annotationScoreFields);
+            tx.success();
+        }
+    }
+
+    private void loadDomains(){
+        try (Transaction tx = graphDb.beginTx();
+             ResourceIterator<Node> domainNodes = graphDb.findNodes(VariantDatabase.getDomainLabel())){
+
+            while (domainNodes.hasNext()){
+                Node domainNode = domainNodes.next();
+                String domainId = (String) domainNode.getProperty("domainId");
+                int code = (int) domainNode.getProperty("code");
+
+                domainCodes.put(domainId, code);
+                domainIds.put(code, domainId);
+                if (code >= nextDomainCode) nextDomainCode = code + 1;
+            }
+
+            tx.success();
+        }
+    }
+
+    /**
+     * Merges extracted scores into the packed array, keeping values already stored
+     */
+    public void addAnnotationScores(Node variantNode, Map<String, Object> properties){
+
+        try (Transaction tx = graphDb.beginTx()){
+            float[] stored = (float[]) variantNode.getProperty(annotationScoresProperty, new float[0]);
+            float[] packed = Arrays.copyOf(stored, annotationScoreFields.length);
+
+            for (int n = stored.length; n < packed.length; ++n){
+                packed[n] = Float.NaN;
+            }
+
+            for (Map.Entry<String, Object> property : properties.entrySet()){
+                int slot = annotationScoreSlots.get(property.getKey());
+                if (Float.isNaN(packed[slot])) packed[slot] = (Float) property.getValue();
+            }
+
+            variantNode.setProperty(annotationScoresProperty, packed);
+            tx.success();
+        }
+
+    }
+
+    /**
+     * Codes for new domains stay pending until the caller reports whether its transaction committed
+     */
+    public int[] encodeDomains(Collection<String> domains){
+        int[] codes = new int[domains.size()];
+        int n = 0;
+
+        for (String domain : domains){
+            Integer code = domainCodes.get(domain);
+            if (code == null) code = pendingDomainCodes.get(domain);
+
+            if (code == null){
+                HashMap<String, Object> properties = new HashMap<>();
+                properties.put("domainId", domain);
+                properties.put("code", nextDomainCode);
+                Neo4j.addNode(graphDb, VariantDatabase.getDomainLabel(), properties);
+
+                code = nextDomainCode++;
+                pendingDomainCodes.put(domain, code);
+            }
+
+            codes[n++] = code;
+        }
+
+        return codes;
+    }
+
+    public void committed(){
+        for (Map.Entry<String, Integer> domainCode : pendingDomainCodes.entrySet()){
+            domainCodes.put(domainCode.getKey(), domainCode.getValue());
+            domainIds.put(domainCode.getValue(), domainCode.getKey());
+        }
+        pendingDomainCodes.clear();
+    }
+
+    //codes of rolled back domains are not reused
+    public void rolledBack(){
+        pendingDomainCodes.clear();
+    }
+
+    /**
+     * @return stored value for a mapped field from either encoding, or null
+     */
+    public Float getAnnotationScore(Node variantNode, String field){
+
+        try (Transaction tx = graphDb.beginTx()){
+            Float value = null;
+            Integer slot = annotationScoreSlots.get(field);
+
+            if (slot != null && variantNode.hasProperty(annotationScoresProperty)){
+                float[] packed = (float[]) variantNode.getProperty(annotationScoresProperty);
+                if (slot < packed.length && !Float.isNaN(packed[slot])) value = packed[slot];
+            } else if (variantNode.hasProperty(field)){
+                value = ((Number) variantNode.getProperty(field)).floatValue();
+            }
+
+            tx.success();
+            return value;
+        }
+
+    }
+
+    /**
+     * @return all stored annotation scores keyed by field, from either encoding
+     */
+    public HashMap<String, Float> getAnnotationScores(Node variantNode){
+        HashMap<String, Float> scores = new HashMap<>();
+
+        for (String field : annotationScoreFields){
+            Float value = getAnnotationScore(variantNode, field);
+            if (value != null) scores.put(field, value);
+        }
+
+        return scores;
+    }
+
+    /**
+     * @param property uncompressed property name, e.g. pfamDomain
+     * @return domain identifiers from either encoding, empty when absent
+     */
+    public String[] getDomains(Node annotationNode, String property){
+
+        try (Transaction tx = graphDb.beginTx()){
+            String[] domains = new String[0];
+
+            if (annotationNode.hasProperty(property + domainCodesSuffix)){
+                int[] codes = (int[]) annotationNode.getProperty(property + domainCodesSuffix);
+                domains = new String[codes.length];
+
+                for (int n = 0; n < codes.length; ++n){
+                    domains[n] = domainIds.get(codes[n]);
+                }
+            } else if (annotationNode.hasProperty(property)){
+                domains = (String[]) annotationNode.getProperty(property);
+            }
+
+            tx.success();
+            return domains;
+        }
+
+    }
+
+    public String[] getAnnotationScoreFields() {
+        return annotationScoreFields;
+    }
+}
@@ -0,0 +1,96 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.neo4j.graphdb.Label;
+
+import java.util.HashMap;
+
+/**
+ * A class mapping the contigs of the input VCFs to their contigIndex and variant labels
+ * <p>
+ * Built once from the header contig lines so new variants are created with all their labels in one write and
+ * contig names are not parsed per genotype. Names may carry a chr prefix; MT and M are the mitochondrial contig.
+ * Contigs missing from the header are added the first time they are seen.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ContigDictionary {
+
+    private static final int other = 0, snp = 1, indel = 2;
+
+    private HashMap<String, Contig> contigs = new HashMap<>();
+
+    private static class Contig {
+        private final int contigIndex;
+        private final Label[][] variantLabels = new Label[3][]; //by variant type
+
+        private Contig(String name){
+            this.contigIndex = VariantRegionIndex.getContigIndex(name);
+
+            Label contigLabel = getContigLabel(contigIndex);
+            variantLabels[other] = getLabels(contigLabel, null);
+            variantLabels[snp] = getLabels(contigLabel, VariantDatabase.getSnpLabel());
+            variantLabels[indel] = getLabels(contigLabel, VariantDatabase.getIndelLabel());
+        }
+
+        private static Label getContigLabel(int contigIndex){
+            if (contigIndex > 0 && contigIndex < 23) return VariantDatabase.getAutosomeLabel();
+            if (contigIndex == 23) return VariantDatabase.getxChromLabel();
+            if (contigIndex == 24) return VariantDatabase.getyChromLabel();
+            if (contigIndex == 25) return VariantDatabase.getMtChromLabel();
+            return null;
+        }
+
+        private static Label[] getLabels(Label contigLabel, Label typeLabel){
+            int length = 1 + (contigLabel == null ? 0 : 1) + (typeLabel == null ? 0 : 1);
+            Label[] labels = new Label[length];
+
+            labels[0] = VariantDatabase.getVariantLabel();
+            if (contigLabel != null) labels[1] = contigLabel;
+            if (typeLabel != null) labels[length - 1] = typeLabel;
+
+            return labels;
+        }
+    }
+
+    /**
+     * @param sequenceDictionary header contig lines, null if the header has none
+     */
+    public ContigDictionary(SAMSequenceDictionary sequenceDictionary){
+        if (sequenceDictionary == null) return;
+
+        for (SAMSequenceRecord sequenceRecord : sequenceDictionary.getSequences()){
+            contigs.put(sequenceRecord.getSequenceName(), new Contig(sequenceRecord.getSequenceName()));
+        }
+    }
+
+    public int getContigIndex(String contig){
+        return getContig(contig).contigIndex;
+    }
+
+    /**
+     * @return Variant, contig and Snp or Indel labels of a new variant node; callers must not modify the array
+     */
+    public Label[] getVariantLabels(GenomeVariant genomeVariant){
+        Contig contig = getContig(genomeVariant.getContig());
+
+        if (genomeVariant.isSnp()) return contig.variantLabels[snp];
+        if (genomeVariant.isIndel()) return contig.variantLabels[indel];
+        return contig.variantLabels[other];
+    }
+
+    private Contig getContig(String name){
+        Contig contig = contigs.get(name);
+
+        if (contig == null){
+            contig = new Contig(name);
+            contigs.put(name, contig);
+        }
+
+        return contig;
+    }
+
+}
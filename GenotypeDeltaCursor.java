@@ -0,0 +1,259 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for applying a re-called VCF to the genotypes already stored for one analysis
+ * <p>
+ * Stored genotypes are streamed in position order through the (contigIndex, bin) index, one window at a time, and
+ * merged with the incoming records: matching genotypes are left alone and changed quality or zygosity is updated in
+ * place. Stored genotypes the new calls no longer contain are collected by relationship id once the stream has passed
+ * their position, and deleted in bounded transactions when the import finishes together with the genotypes of contigs
+ * absent from the new VCF, so deletes never enlarge the writer's batches. Windows follow the b37 contig length with one
+ * further window beyond it, so memory is bounded by a window plus one id per vanished genotype. Replaying records
+ * already applied changes nothing, so an interrupted delta import is simply run again.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class GenotypeDeltaCursor {
+    private static final Logger log = Logger.getLogger(GenotypeDeltaCursor.class.getName());
+
+    private static final int deleteBatchSize = 5000;
+    private static final int windowSize = 1000000;
+    private static final int maxPosition = (1 << 29) - 1; //limit of the UCSC binning scheme
+
+    private GraphDatabaseService graphDb;
+    private Node runInfoNode;
+    private String contig;
+    private int contigIndex, contigLength, loadedTo;
+    private ArrayDeque<StoredGenotype> storedGenotypes = new ArrayDeque<>(); //loaded windows ordered by position
+    private LinkedHashMap<String, StoredGenotype> pendingGenotypes = new LinkedHashMap<>(); //read but not yet matched
+    private HashSet<String> visitedContigs = new HashSet<>();
+    private long[] vanishedRelationshipIds = new long[0]; //passed by the stream, deleted by finish
+    private int vanished = 0;
+    private long unchanged = 0, updated = 0, deleted = 0, added = 0;
+
+    private static class StoredGenotype {
+        private final Relationship relationship;
+        private final String variantId;
+        private final int position;
+
+        private StoredGenotype(Relationship relationship, String variantId, int position){
+            this.relationship = relationship;
+            this.variantId = variantId;
+            this.position = position;
+        }
+    }
+
+    public GenotypeDeltaCursor(GraphDatabaseService graphDb, Node runInfoNode){
+        this.graphDb = graphDb;
+        this.runInfoNode = runInfoNode;
+    }
+
+    /**
+     * Moves to the start of the next VCF record; stored genotypes before it can no longer be matched and are collected for deletion
+     */
+    public void advanceTo(String contig, int start){
+
+        if (!contig.equals(this.contig)){
+            collectRemaining();
+            startContig(contig);
+        }
+
+        Iterator<StoredGenotype> iterator = pendingGenotypes.values().iterator();
+
+        while (iterator.hasNext()){
+            StoredGenotype storedGenotype = iterator.next();
+            if (storedGenotype.position >= start) break;
+            collectGenotype(storedGenotype);
+            iterator.remove();
+        }
+
+        //a window at a time, so a long gap between records holds one window
+        while (true){
+            while (!storedGenotypes.isEmpty() && storedGenotypes.peekFirst().position < start){
+                collectGenotype(storedGenotypes.pollFirst());
+            }
+            if (loadedTo >= start - 1 || loadedTo >= maxPosition) break;
+            loadWindow();
+        }
+
+    }
+
+    /**
+     * @return true if the genotype was already stored, updating quality or zygosity where they differ; false if it must be added
+     */
+    public boolean applyGenotype(GenomeVariant genomeVariant, short genotypeQuality, RelationshipType relationshipType){
+
+        //minimal representation may start after the record
+        loadTo(genomeVariant.getPos());
+
+        while (!storedGenotypes.isEmpty() && storedGenotypes.peekFirst().position <= genomeVariant.getPos()){
+            StoredGenotype storedGenotype = storedGenotypes.pollFirst();
+            pendingGenotypes.put(storedGenotype.variantId, storedGenotype);
+        }
+
+        StoredGenotype storedGenotype = pendingGenotypes.remove(genomeVariant.toString());
+
+        if (storedGenotype == null){
+            added++;
+            return false;
+        }
+
+        Relationship relationship = storedGenotype.relationship;
+        Object quality = relationship.getProperty("quality", null);
+
+        if (!relationship.isType(relationshipType)){
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("quality", genotypeQuality);
+
+            Node variantNode = relationship.getEndNode();
+            relationship.delete();
+            Neo4j.createRelationship(graphDb, runInfoNode, variantNode, relationshipType, properties);
+            updated++;
+        } else if (quality == null || ((Number) quality).shortValue() != genotypeQuality){
+            relationship.setProperty("quality", genotypeQuality);
+            updated++;
+        } else {
+            unchanged++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Deletes stored genotypes left on the last contig and on contigs absent from the new VCF
+     */
+    public void finish(){
+        ArrayList<String> prefixes = new ArrayList<>();
+
+        collectRemaining();
+
+        for (String visitedContig : visitedContigs){
+            prefixes.add(visitedContig + ":");
+        }
+
+        //one pass over the analysis for absent contigs
+        try (Transaction tx = graphDb.beginTx()){
+
+            for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship(), VariantDatabase.getHasHomVariantRelationship())){
+                if (isOnContig((String) relationship.getEndNode().getProperty("variantId"), prefixes)) continue;
+                addVanished(relationship.getId());
+            }
+
+            tx.success();
+        }
+
+        //bounded transactions, separate from the writer's batches
+        for (int start = 0; start < vanished; start += deleteBatchSize){
+
+            try (Transaction tx = graphDb.beginTx()){
+                for (int n = start; n < Math.min(start + deleteBatchSize, vanished); ++n){
+                    graphDb.getRelationshipById(vanishedRelationshipIds[n]).delete();
+                }
+                tx.success();
+            }
+
+        }
+
+        deleted += vanished;
+        vanishedRelationshipIds = new long[0];
+        vanished = 0;
+
+        try (Transaction tx = graphDb.beginTx()){
+            log.log(Level.INFO, runInfoNode.getProperty("analysisId") + ": " + added + " genotypes added, " + updated + " updated, " + deleted + " deleted, " + unchanged + " unchanged");
+            tx.success();
+        }
+    }
+
+    private static boolean isOnContig(String variantId, List<String> prefixes){
+        for (String prefix : prefixes){
+            if (variantId.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private void startContig(String contig){
+        this.contig = contig;
+        this.contigIndex = VariantRegionIndex.getContigIndex(contig);
+        this.contigLength = VariantRegionIndex.getContigLength(contigIndex);
+        this.loadedTo = 0;
+
+        visitedContigs.add(contig);
+        storedGenotypes.clear();
+        pendingGenotypes.clear();
+    }
+
+    //reads windows until every stored genotype up to the position is loaded
+    private void loadTo(int position){
+        while (loadedTo < position && loadedTo < maxPosition){
+            loadWindow();
+        }
+    }
+
+    private void loadWindow(){
+        int start = loadedTo + 1;
+        int end = start <= contigLength ? Math.min(start + windowSize - 1, contigLength) : maxPosition; //beyond the b37 length in one window
+
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("runInfoId", runInfoNode.getId());
+        parameters.put("contigIndex", contigIndex);
+        parameters.put("bins", VariantRegionIndex.getOverlappingBins(start, end));
+        parameters.put("start", start);
+        parameters.put("end", end);
+        parameters.put("prefix", contig + ":");
+
+        loadedTo = end;
+
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(
+                     "MATCH (r:RunInfo) WHERE id(r) = {runInfoId} " +
+                     "UNWIND {bins} AS bin MATCH (v:Variant {contigIndex: {contigIndex}, bin: bin}) " +
+                     "WHERE v.position >= {start} AND v.position <= {end} AND v.variantId STARTS WITH {prefix} " +
+                     "MATCH (r)-[g:" + VariantDatabase.getHasHetVariantRelationship().name() + "|" + VariantDatabase.getHasHomVariantRelationship().name() + "]->(v) " +
+                     "RETURN g, v.variantId AS variantId, v.position AS position ORDER BY position, variantId", parameters)) {
+
+            while (result.hasNext()){
+                Map<String, Object> row = result.next();
+                storedGenotypes.add(new StoredGenotype((Relationship) row.get("g"), (String) row.get("variantId"), ((Number) row.get("position")).intValue()));
+            }
+
+            tx.success();
+        }
+    }
+
+    private void collectRemaining(){
+
+        for (StoredGenotype storedGenotype : pendingGenotypes.values()){
+            collectGenotype(storedGenotype);
+        }
+        pendingGenotypes.clear();
+
+        //rest of the contig, a window at a time
+        while (contig != null){
+            while (!storedGenotypes.isEmpty()){
+                collectGenotype(storedGenotypes.pollFirst());
+            }
+            if (loadedTo >= maxPosition) break;
+            loadWindow();
+        }
+    }
+
+    private void collectGenotype(StoredGenotype storedGenotype){
+        addVanished(storedGenotype.relationship.getId());
+    }
+
+    private void addVanished(long relationshipId){
+        if (vanished == vanishedRelationshipIds.length){
+            vanishedRelationshipIds = Arrays.copyOf(vanishedRelationshipIds, Math.max(1024, vanished * 2));
+        }
+        vanishedRelationshipIds[vanished++] = relationshipId;
+    }
+
+}
@@ -0,0 +1,297 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.variant.vcf.VCFCodec;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for exporting stored genotypes to a bgzipped, tabix indexed multi-sample VCF
+ * <p>
+ * Each contig is streamed in fixed windows through the (contigIndex, bin) index and written to its own BGZF part
+ * on a thread pool; parts are then concatenated in contig order and indexed. Memory use is bounded by one window
+ * per thread. Names sharing a contigIndex (chr1 and 1, or the unplaced, decoy and non-b37 contigs of contigIndex 0,
+ * which are exported last) are listed first and then windowed one name at a time, ordered by name, so each contig
+ * is contiguous and sorted. Windows stop at the last stored position of the contig. Requires variant positions to
+ * be indexed (-i) and exports one column per RunInfo analysisId. Genotypes of analyses imported with -k are merged
+ * in from the carriers packed in their GenotypeBlock nodes.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class GenotypeExporter {
+    private static final Logger log = Logger.getLogger(GenotypeExporter.class.getName());
+
+    private static final int windowSize = 1000000;
+    private static final int maxPosition = 1 << 29; //limit of the UCSC binning scheme
+    private static final int lastContigIndex = 25;
+
+    private GraphDatabaseService graphDb;
+    private ArrayList<String> analysisIds = new ArrayList<>();
+    private HashMap<String, Integer> columns = new HashMap<>();
+    private HashMap<Long, String> packedAnalysisIds = new HashMap<>(); //analysisId of each packed RunInfo node id
+
+    private static class ContigPart {
+        private final File file;
+        private ArrayList<String> contigs = new ArrayList<>();
+        private long records = 0;
+
+        private ContigPart(File file){
+            this.file = file;
+        }
+    }
+
+    public GenotypeExporter(GraphDatabaseService graphDb){
+        this.graphDb = graphDb;
+    }
+
+    public void export(File outputFile, int threads) throws IOException {
+        log.log(Level.INFO, "Exporting genotypes to " + outputFile + " using " + threads + " threads ...");
+
+        for (Map<String, Object> result : Neo4j.runCypherQuery(graphDb, "MATCH (r:RunInfo) RETURN r.analysisId AS analysisId ORDER BY analysisId")){
+            columns.put((String) result.get("analysisId"), analysisIds.size());
+            analysisIds.add((String) result.get("analysisId"));
+        }
+
+        //packed analyses only have relationships for reportable variants, the rest are read from their blocks
+        for (Map<String, Object> result : Neo4j.runCypherQuery(graphDb, "MATCH (r:RunInfo)-[:" + VariantDatabase.getHasGenotypeBlockRelationship().name() + "]->() RETURN DISTINCT id(r) AS runInfoNodeId, r.analysisId AS analysisId")){
+            packedAnalysisIds.put((Long) result.get("runInfoNodeId"), (String) result.get("analysisId"));
+        }
+        if (packedAnalysisIds.size() > 0) log.log(Level.INFO, packedAnalysisIds.size() + " analyses have packed genotypes");
+
+        //one part per contig, written in parallel
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<ContigPart>> futures = new ArrayList<>();
+
+        //contigs without a contigIndex follow the karyotypic contigs
+        ArrayList<Integer> contigIndexes = new ArrayList<>();
+        for (int contigIndex = 1; contigIndex <= lastContigIndex; ++contigIndex){
+            contigIndexes.add(contigIndex);
+        }
+        contigIndexes.add(0);
+
+        for (final int index : contigIndexes){
+            final File partFile = new File(outputFile.getPath() + ".part" + index);
+
+            futures.add(executorService.submit(new Callable<ContigPart>() {
+                @Override
+                public ContigPart call() throws IOException {
+                    return exportContig(index, partFile);
+                }
+            }));
+        }
+
+        executorService.shutdown();
+
+        ArrayList<ContigPart> parts = new ArrayList<>();
+        long records = 0;
+
+        try {
+            for (Future<ContigPart> future : futures){
+                ContigPart part = future.get();
+                parts.add(part);
+                records += part.records;
+            }
+        } catch (InterruptedException | ExecutionException e){
+            executorService.shutdownNow();
+            throw new IOException("Could not export genotypes: " + e.getMessage(), e);
+        }
+
+        //header last, once contig names are known
+        File headerFile = new File(outputFile.getPath() + ".header");
+        writeHeader(headerFile, parts);
+
+        //BGZF members can be concatenated directly, keeping a single EOF block at the end
+        try (FileChannel output = new FileOutputStream(outputFile).getChannel()){
+            appendPart(output, headerFile);
+            for (ContigPart part : parts){
+                appendPart(output, part.file);
+            }
+            output.write(ByteBuffer.wrap(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK));
+        }
+
+        log.log(Level.INFO, "Indexing " + outputFile + " ...");
+        TabixIndex tabixIndex = IndexFactory.createTabixIndex(outputFile, new VCFCodec(), null);
+        tabixIndex.writeBasedOnFeatureFile(outputFile);
+
+        log.log(Level.INFO, "Exported " + records + " variants for " + analysisIds.size() + " analyses");
+    }
+
+    private ContigPart exportContig(int contigIndex, File partFile) throws IOException {
+        ContigPart part = new ContigPart(partFile);
+
+        try (PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(new BlockCompressedOutputStream(partFile)))){
+
+            for (Map.Entry<String, Integer> contig : getContigs(contigIndex).entrySet()){
+                for (int start = 1; start <= contig.getValue(); start += windowSize){
+                    exportWindow(part, printWriter, contigIndex, contig.getKey(), start, Math.min(start + windowSize - 1, contig.getValue()));
+                }
+            }
+
+        }
+
+        if (part.records > 0) log.log(Level.INFO, "Exported " + part.records + " variants on " + part.contigs);
+
+        return part;
+    }
+
+    /**
+     * @return contig names stored under a contigIndex with their last variant position, ordered by name
+     */
+    private TreeMap<String, Integer> getContigs(int contigIndex){
+        TreeMap<String, Integer> contigs = new TreeMap<>();
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("contigIndex", contigIndex);
+        parameters.put("bins", VariantRegionIndex.getOverlappingBins(1, maxPosition - 1));
+
+        //aggregated per name, so memory is bounded by the number of contigs
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(
+                     "UNWIND {bins} AS bin MATCH (v:Variant {contigIndex: {contigIndex}, bin: bin}) " +
+                     "RETURN split(v.variantId, ':')[0] AS contig, max(v.position) AS lastPosition", parameters)) {
+
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                contigs.put((String) row.get("contig"), ((Number) row.get("lastPosition")).intValue());
+            }
+
+            tx.success();
+        }
+
+        return contigs;
+    }
+
+    private void exportWindow(ContigPart part, PrintWriter printWriter, int contigIndex, String contig, int start, int end){
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("contigIndex", contigIndex);
+        parameters.put("bins", VariantRegionIndex.getOverlappingBins(start, end));
+        parameters.put("start", start);
+        parameters.put("end", end);
+        parameters.put("prefix", contig + ":");
+
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(
+                     "UNWIND {bins} AS bin MATCH (v:Variant {contigIndex: {contigIndex}, bin: bin}) " +
+                     "WHERE v.position >= {start} AND v.position <= {end} AND v.variantId STARTS WITH {prefix} " +
+                     (packedAnalysisIds.isEmpty() ? "MATCH" : "OPTIONAL MATCH") + " (r:RunInfo)-[g:" + VariantDatabase.getHasHetVariantRelationship().name() + "|" + VariantDatabase.getHasHomVariantRelationship().name() + "]->(v) " +
+                     "RETURN id(v) AS variantNodeId, v.variantId AS variantId, v.position AS position, " +
+                     "collect(CASE WHEN g IS NULL THEN NULL ELSE [r.analysisId, type(g), g.quality] END) AS genotypes " +
+                     "ORDER BY position, variantId", parameters)) {
+
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                ArrayList<Object> genotypes = new ArrayList<Object>((List<?>) row.get("genotypes"));
+
+                //packed carriers of reportable variants repeat their relationship, setting the same call
+                if (!packedAnalysisIds.isEmpty()){
+                    for (PackedGenotypeStore.PackedGenotype carrier : PackedGenotypeStore.getCarriers(graphDb, (Long) row.get("variantNodeId"))){
+                        String analysisId = packedAnalysisIds.get(carrier.getRunInfoNodeId());
+                        if (analysisId != null) genotypes.add(Arrays.asList(analysisId, carrier.getRelationshipType().name(), carrier.getQuality()));
+                    }
+                }
+
+                if (genotypes.isEmpty()) continue;
+
+                GenomeVariant genomeVariant = VariantRegionIndex.parseVariantId((String) row.get("variantId"));
+
+                if (genomeVariant == null){
+                    log.log(Level.WARNING, "Could not parse " + row.get("variantId"));
+                    continue;
+                }
+
+                if (part.contigs.isEmpty() || !part.contigs.get(part.contigs.size() - 1).equals(genomeVariant.getContig())){
+                    part.contigs.add(genomeVariant.getContig());
+                }
+
+                printWriter.println(getVcfRecord(genomeVariant, genotypes));
+                part.records++;
+            }
+
+            tx.success();
+        }
+
+    }
+
+    private String getVcfRecord(GenomeVariant genomeVariant, List<?> genotypes){
+        String[] calls = new String[analysisIds.size()];
+        Arrays.fill(calls, "./.");
+
+        for (Object genotype : genotypes){
+            List<?> fields = (List<?>) genotype;
+            String call = fields.get(1).equals(VariantDatabase.getHasHomVariantRelationship().name()) ? "1/1" : "0/1";
+            calls[columns.get(fields.get(0))] = fields.get(2) == null ? call : call + ":" + fields.get(2);
+        }
+
+        StringBuilder record = new StringBuilder();
+        record.append(genomeVariant.getContig()).append("\t")
+                .append(genomeVariant.getPos()).append("\t.\t")
+                .append(genomeVariant.getRef()).append("\t")
+                .append(genomeVariant.getAlt()).append("\t.\t.\t.\tGT:GQ");
+
+        for (String call : calls){
+            record.append("\t").append(call);
+        }
+
+        return record.toString();
+    }
+
+    private void writeHeader(File headerFile, List<ContigPart> parts) throws IOException {
+
+        try (PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(new BlockCompressedOutputStream(headerFile)))){
+            printWriter.println("##fileformat=VCFv4.1");
+            printWriter.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+            printWriter.println("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">");
+
+            for (ContigPart part : parts){
+                for (String contig : part.contigs){
+                    printWriter.println("##contig=<ID=" + contig + ">");
+                }
+            }
+
+            printWriter.print("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+            for (String analysisId : analysisIds){
+                printWriter.print("\t" + analysisId);
+            }
+            printWriter.println();
+        }
+
+    }
+
+    //copies a BGZF file without its EOF block
+    private static void appendPart(FileChannel output, File partFile) throws IOException {
+        byte[] eofBlock = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+
+        try (FileChannel input = new FileInputStream(partFile).getChannel()){
+            long position = 0, size = input.size() - eofBlock.length;
+            ByteBuffer tail = ByteBuffer.allocate(eofBlock.length);
+
+            while (size >= 0 && tail.hasRemaining()){
+                if (input.read(tail, size + tail.position()) < 0) break;
+            }
+
+            if (size < 0 || !Arrays.equals(tail.array(), eofBlock)){
+                throw new IOException(partFile + " does not end with a BGZF EOF block");
+            }
+
+            while (position < size){
+                position += input.transferTo(position, size - position, output);
+            }
+        }
+
+        if (!partFile.delete()) log.log(Level.WARNING, "Could not delete " + partFile);
+    }
+
+}
@@ -0,0 +1,137 @@
+package nhs.genetics.cardiff;
+
+import java.util.List;
+
+/**
+ * A decoder extracting only GT, GQ and FT from raw VCF data lines
+ * <p>
+ * FILTER and ALT are checked first so filtered and non-variant records are rejected before any sample column is read;
+ * other FORMAT fields and INFO are never parsed. Stateless and safe to call from several threads.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class GenotypeLineDecoder implements ParallelVcfReader.LineDecoder<GenotypeRecord> {
+
+    private final List<String> sampleNames;
+
+    public GenotypeLineDecoder(List<String> sampleNames){
+        this.sampleNames = sampleNames;
+    }
+
+    @Override
+    public GenotypeRecord decode(String line) {
+        int[] columns = new int[10]; //start of CHROM to first sample column
+        int column = 1;
+
+        for (int n = 0; n < line.length() && column < columns.length; ++n){
+            if (line.charAt(n) == '\t') columns[column++] = n + 1;
+        }
+
+        if (column < 8){
+            throw new IllegalArgumentException("Malformed VCF line: " + line);
+        }
+
+        String contig = line.substring(0, columns[1] - 1);
+        int start = Integer.parseInt(line.substring(columns[1], columns[2] - 1));
+        String alt = line.substring(columns[4], columns[5] - 1);
+        String filter = line.substring(columns[6], columns[7] - 1);
+
+        //skip filtered and non-variant loci
+        if (!(filter.equals("PASS") || filter.equals(".")) || alt.equals(".")){
+            return GenotypeRecord.rejected(contig, start);
+        }
+
+        String ref = line.substring(columns[3], columns[4] - 1);
+        String[] alts = alt.split(",");
+        int[][] alleles = new int[sampleNames.size()][];
+        int[] genotypeQualities = new int[sampleNames.size()];
+        boolean[] filtered = new boolean[sampleNames.size()];
+
+        if (sampleNames.isEmpty()){
+            return new GenotypeRecord(contig, start, ref, alts, sampleNames, alleles, genotypeQualities, filtered);
+        }
+
+        if (column < columns.length){
+            throw new IllegalArgumentException("Missing genotype columns: " + line);
+        }
+
+        //locate required keys in FORMAT
+        String[] format = line.substring(columns[8], columns[9] - 1).split(":");
+        int gtIndex = -1, gqIndex = -1, ftIndex = -1;
+
+        for (int n = 0; n < format.length; ++n){
+            if (format[n].equals("GT")) gtIndex = n;
+            else if (format[n].equals("GQ")) gqIndex = n;
+            else if (format[n].equals("FT")) ftIndex = n;
+        }
+
+        int sampleStart = columns[9];
+
+        for (int sample = 0; sample < sampleNames.size(); ++sample){
+            int sampleEnd = line.indexOf('\t', sampleStart);
+            if (sampleEnd == -1) sampleEnd = line.length();
+
+            int fieldStart = sampleStart, field = 0;
+            alleles[sample] = new int[0];
+            genotypeQualities[sample] = -1;
+
+            //walk only as far as the last required key
+            while (fieldStart <= sampleEnd){
+                int fieldEnd = line.indexOf(':', fieldStart);
+                if (fieldEnd == -1 || fieldEnd > sampleEnd) fieldEnd = sampleEnd;
+
+                if (field == gtIndex){
+                    if (fieldEnd > fieldStart) alleles[sample] = parseGenotype(line, fieldStart, fieldEnd);
+                } else if (field == gqIndex && fieldEnd > fieldStart && line.charAt(fieldStart) != '.'){
+                    genotypeQualities[sample] = parseGenotypeQuality(line, fieldStart, fieldEnd);
+                } else if (field == ftIndex){
+                    String genotypeFilter = line.substring(fieldStart, fieldEnd);
+                    filtered[sample] = !(genotypeFilter.equals("PASS") || genotypeFilter.equals(".") || genotypeFilter.isEmpty());
+                }
+
+                if (++field > Math.max(gtIndex, Math.max(gqIndex, ftIndex))) break;
+                fieldStart = fieldEnd + 1;
+            }
+
+            sampleStart = sampleEnd + 1;
+        }
+
+        return new GenotypeRecord(contig, start, ref, alts, sampleNames, alleles, genotypeQualities, filtered);
+    }
+
+    //integers parsed directly, other values rounded as htsjdk does, e.g. 99.0
+    private static int parseGenotypeQuality(String line, int start, int end){
+        int quality = 0, n = start;
+
+        for (; n < end && end - start < 10; ++n){
+            char c = line.charAt(n);
+            if (c < '0' || c > '9') break;
+            quality = quality * 10 + (c - '0');
+        }
+
+        return n == end ? quality : (int) Math.round(Double.parseDouble(line.substring(start, end)));
+    }
+
+    private static int[] parseGenotype(String line, int start, int end){
+        int ploidy = 1;
+
+        for (int n = start; n < end; ++n){
+            if (line.charAt(n) == '/' || line.charAt(n) == '|') ploidy++;
+        }
+
+        int[] alleles = new int[ploidy];
+        int allele = 0, alleleStart = start;
+
+        for (int n = start; n <= end; ++n){
+            if (n == end || line.charAt(n) == '/' || line.charAt(n) == '|'){
+                alleles[allele++] = line.charAt(alleleStart) == '.' ? -1 : Integer.parseInt(line.substring(alleleStart, n));
+                alleleStart = n + 1;
+            }
+        }
+
+        return alleles;
+    }
+
+}
@@ -0,0 +1,199 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.Locatable;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A VCF record reduced to the fields needed for genotype import: alleles, and GT, GQ and FT per sample
+ * <p>
+ * Allele indices follow the GT field, -1 being a no-call. Records which are filtered or non-variant carry no
+ * genotypes. The per-sample predicates match those of htsjdk's Genotype; a sample without GT has no alleles and,
+ * like htsjdk's unavailable genotype, is neither a no-call nor hom-ref.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class GenotypeRecord implements Locatable {
+
+    private final String contig;
+    private final int start;
+    private final String ref;
+    private final String[] alts;
+    private final List<String> sampleNames;
+    private final int[][] alleles;
+    private final int[] genotypeQualities;
+    private final boolean[] filtered;
+
+    public GenotypeRecord(String contig, int start, String ref, String[] alts, List<String> sampleNames, int[][] alleles, int[] genotypeQualities, boolean[] filtered){
+        this.contig = contig;
+        this.start = start;
+        this.ref = ref;
+        this.alts = alts;
+        this.sampleNames = sampleNames;
+        this.alleles = alleles;
+        this.genotypeQualities = genotypeQualities;
+        this.filtered = filtered;
+    }
+
+    /**
+     * @return record for a filtered or non-variant locus, genotypes not decoded
+     */
+    public static GenotypeRecord rejected(String contig, int start){
+        return new GenotypeRecord(contig, start, null, null, null, null, null, null);
+    }
+
+    public static GenotypeRecord fromVariantContext(VariantContext variantContext, List<String> sampleNames){
+
+        if (variantContext.isFiltered() || !variantContext.isVariant()){
+            return rejected(variantContext.getContig(), variantContext.getStart());
+        }
+
+        String[] alts = new String[variantContext.getAlternateAlleles().size()];
+        int[][] alleles = new int[sampleNames.size()][];
+        int[] genotypeQualities = new int[sampleNames.size()];
+        boolean[] filtered = new boolean[sampleNames.size()];
+
+        for (int n = 0; n < alts.length; ++n){
+            alts[n] = variantContext.getAlternateAlleles().get(n).getBaseString();
+        }
+
+        for (int n = 0; n < sampleNames.size(); ++n){
+            Genotype genotype = variantContext.getGenotypes().get(sampleNames.get(n));
+            alleles[n] = new int[genotype.getAlleles().size()];
+
+            for (int a = 0; a < alleles[n].length; ++a){
+                Allele allele = genotype.getAlleles().get(a);
+                alleles[n][a] = allele.isNoCall() ? -1 : variantContext.getAlleleIndex(allele);
+            }
+
+            genotypeQualities[n] = genotype.getGQ();
+            filtered[n] = genotype.isFiltered();
+        }
+
+        return new GenotypeRecord(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), alts, sampleNames, alleles, genotypeQualities, filtered);
+    }
+
+    public boolean isRejected(){
+        return alleles == null;
+    }
+
+    public int getSampleCount(){
+        return alleles == null ? 0 : alleles.length;
+    }
+
+    public String getSampleName(int sample){
+        return sampleNames.get(sample);
+    }
+
+    public int getPloidy(int sample){
+        return alleles[sample].length;
+    }
+
+    public boolean isNoCall(int sample){
+        if (alleles[sample].length == 0) return false; //no GT, left to the ploidy check
+        for (int allele : alleles[sample]){
+            if (allele != -1) return false;
+        }
+        return true;
+    }
+
+    public boolean isMixed(int sample){
+        return !isNoCall(sample) && hasNoCallAllele(sample);
+    }
+
+    public boolean isHomRef(int sample){
+        if (alleles[sample].length == 0) return false;
+        for (int allele : alleles[sample]){
+            if (allele != 0) return false;
+        }
+        return true;
+    }
+
+    public boolean isHom(int sample){
+        if (alleles[sample].length == 0 || hasNoCallAllele(sample)) return false;
+        for (int allele : alleles[sample]){
+            if (allele != alleles[sample][0]) return false;
+        }
+        return true;
+    }
+
+    public boolean isHet(int sample){
+        return alleles[sample].length > 1 && !hasNoCallAllele(sample) && !isHom(sample);
+    }
+
+    public boolean isHetNonRef(int sample){
+        if (!isHet(sample)) return false;
+        for (int allele : alleles[sample]){
+            if (allele == 0) return false;
+        }
+        return true;
+    }
+
+    public boolean isFiltered(int sample){
+        return filtered[sample];
+    }
+
+    public int getGQ(int sample){
+        return genotypeQualities[sample];
+    }
+
+    /**
+     * @return bases of the n-th allele of the sample's genotype
+     */
+    public String getAlleleBases(int sample, int n){
+        int allele = alleles[sample][n];
+        return allele == -1 ? "." : allele == 0 ? ref : alts[allele - 1];
+    }
+
+    public String getGenotypeString(int sample){
+        StringBuilder genotype = new StringBuilder();
+
+        for (int n = 0; n < alleles[sample].length; ++n){
+            if (n > 0) genotype.append("/");
+            genotype.append(getAlleleBases(sample, n));
+        }
+
+        return genotype.toString();
+    }
+
+    private boolean hasNoCallAllele(int sample){
+        for (int allele : alleles[sample]){
+            if (allele == -1) return true;
+        }
+        return false;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public String[] getAlts() {
+        return alts;
+    }
+
+    @Override
+    public String getContig() {
+        return contig;
+    }
+
+    @Override
+    public int getStart() {
+        return start;
+    }
+
+    @Override
+    public int getEnd() {
+        return ref == null ? start : start + ref.length() - 1;
+    }
+
+    @Override
+    public String toString() {
+        return contig + " " + start + " " + ref + (alts == null ? "" : Arrays.toString(alts));
+    }
+}
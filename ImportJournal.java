@@ -0,0 +1,171 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A write-ahead progress journal for resuming interrupted genotype imports
+ * <p>
+ * The journal is a tab-delimited text file with one entry per line:
+ * <pre>
+ * ANALYSIS  analysisId                         written before the RunInfo node is created
+ * VARIANT   contig  pos  ref  alt              new variant node, written before its batch commits
+ * REPLACED  variantId                          variant of a replaced analysis which lost a genotype, written before
+ *                                              the deleting batch commits
+ * COMMIT    batch  records  contig  pos        written after the batch transaction commits
+ * </pre>
+ * Records up to the last COMMIT entry are skipped on restart; everything after is re-applied,
+ * relying on the importer only creating relationships and variant nodes which do not already exist. Replaced
+ * variants are checked for deletion again once the resumed import completes.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ImportJournal {
+    private static final Logger log = Logger.getLogger(ImportJournal.class.getName());
+
+    private File journalFile;
+    private FileOutputStream fileOutputStream;
+    private BufferedWriter writer;
+    private HashSet<String> analysisIds = new HashSet<>();
+    private ArrayList<String[]> variants = new ArrayList<>();
+    private ArrayList<String> replacedVariants = new ArrayList<>();
+    private int committedBatches = 0;
+    private long committedRecords = 0;
+    private String lastContig;
+    private int lastPosition;
+
+    public ImportJournal(File journalFile){
+        this.journalFile = journalFile;
+    }
+
+    public boolean exists(){
+        return journalFile.exists();
+    }
+
+    public void load() throws IOException {
+        log.log(Level.INFO, "Loading import journal " + journalFile.getName() + " ...");
+
+        boolean terminated = isNewlineTerminated();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))){
+            String line = reader.readLine(), next;
+
+            for (; line != null; line = next) {
+                next = reader.readLine();
+
+                //ignore a partially written trailing line, its fields may be cut short
+                if (next == null && !terminated) break;
+
+                String[] fields = line.split("\t");
+
+                if (fields[0].equals("ANALYSIS") && fields.length == 2){
+                    analysisIds.add(fields[1]);
+                } else if (fields[0].equals("VARIANT") && fields.length == 5){
+                    variants.add(new String[]{fields[1], fields[2], fields[3], fields[4]});
+                } else if (fields[0].equals("REPLACED") && fields.length == 2){
+                    replacedVariants.add(fields[1]);
+                } else if (fields[0].equals("COMMIT") && fields.length == 5){
+                    committedBatches = Integer.parseInt(fields[1]);
+                    committedRecords = Long.parseLong(fields[2]);
+                    lastContig = fields[3];
+                    lastPosition = Integer.parseInt(fields[4]);
+                }
+            }
+        }
+
+        log.log(Level.INFO, "Journal has " + committedBatches + " committed batches covering " + committedRecords + " records");
+    }
+
+    private boolean isNewlineTerminated() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "r")){
+            if (randomAccessFile.length() == 0) return true;
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            return randomAccessFile.read() == '\n';
+        }
+    }
+
+    public void open() throws IOException {
+        fileOutputStream = new FileOutputStream(journalFile, true);
+        writer = new BufferedWriter(new OutputStreamWriter(fileOutputStream));
+    }
+
+    public void addAnalysis(String analysisId) throws IOException {
+        writer.write("ANALYSIS\t" + analysisId);
+        writer.newLine();
+        sync();
+        analysisIds.add(analysisId);
+    }
+
+    public void addVariant(GenomeVariant genomeVariant) throws IOException {
+        writer.write("VARIANT\t" + genomeVariant.getContig() + "\t" + genomeVariant.getPos() + "\t" + genomeVariant.getRef() + "\t" + genomeVariant.getAlt());
+        writer.newLine();
+    }
+
+    public void addReplacedVariant(String variantId) throws IOException {
+        writer.write("REPLACED\t" + variantId);
+        writer.newLine();
+    }
+
+    /**
+     * Forces pending entries to disk; called before the batch transaction is committed
+     */
+    public void sync() throws IOException {
+        writer.flush();
+        fileOutputStream.getFD().sync();
+    }
+
+    public void commitBatch(long records, String contig, int position) throws IOException {
+        committedBatches++;
+        committedRecords = records;
+        lastContig = contig;
+        lastPosition = position;
+
+        writer.write("COMMIT\t" + committedBatches + "\t" + records + "\t" + contig + "\t" + position);
+        writer.newLine();
+        sync();
+    }
+
+    public void close() throws IOException {
+        if (writer != null) writer.close();
+    }
+
+    public void delete() throws IOException {
+        close();
+        if (journalFile.exists() && !journalFile.delete()){
+            throw new IOException("Could not delete import journal " + journalFile);
+        }
+    }
+
+    public HashSet<String> getAnalysisIds() {
+        return analysisIds;
+    }
+
+    public ArrayList<String[]> getVariants() {
+        return variants;
+    }
+
+    public ArrayList<String> getReplacedVariants() {
+        return replacedVariants;
+    }
+
+    public int getCommittedBatches() {
+        return committedBatches;
+    }
+
+    public long getCommittedRecords() {
+        return committedRecords;
+    }
+
+    public String getLastContig() {
+        return lastContig;
+    }
+
+    public int getLastPosition() {
+        return lastPosition;
+    }
+}
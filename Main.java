@@ -1,12 +1,15 @@
 package nhs.genetics.cardiff;
 
-import htsjdk.variant.vcf.VCFFileReader;
 import org.neo4j.graphdb.ConstraintViolationException;
 import org.neo4j.io.fs.FileUtils;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
-import java.util.InvalidPropertiesFormatException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,25 +20,48 @@ public class Main {
     private static final Logger log = Logger.getLogger(Main.class.getName());
 
     private static final String version = "1.0.4";
-    private static boolean newDatabase = false, addAnnotations = false;
+    private static boolean newDatabase = false, addAnnotations = false, compactStorage = false, indexPositions = false, exportGenotypes = false, replaceAnalyses = false, deltaImport = false, packGenotypes = false;
+    private static int concurrentImports = 1, shardCount = 0;
+    private static File annotationFieldsFile = null;
 
-    public static void main(String[] args) throws InvalidPropertiesFormatException {
+    public static void main(String[] args) throws IOException {
 
-        if (args.length < 2 || args.length > 3) {
+        if (args.length < 2) {
             System.err.println("ImportToNeo4j v" + version);
-            System.err.println("Usage: <VCF> <db>");
-            System.err.println("Options: -n New database, -a Annotated VCF");
+            System.err.println("Usage: <VCF|VCF list> <db>, or <output.vcf.gz> <db> -e");
+            System.err.println("Options: -n New database, -a Annotated VCF, -f <TOML> Annotation field mapping, -c Compact annotation storage, -i Index variant positions, -e Export genotypes, --replace Replace existing analyses, -d Apply changes to existing analyses, -j <N> Import N VCFs of a list concurrently, -s <N> Shard new database by contig over N stores, -k Packed genotype storage");
             System.exit(1);
         }
 
         log.log(Level.INFO, "ImportToNeo4j v" + version);
 
         //update or overwrite, genotype or annotations?
-        for (String arg : args){
-            if (arg.equals("-n")){
+        for (int n = 2; n < args.length; ++n){
+            if (args[n].equals("-n")){
                 newDatabase = true;
-            } else if (arg.equals("-a")){
+            } else if (args[n].equals("-a")){
                 addAnnotations = true;
+            } else if (args[n].equals("-d")){
+                deltaImport = true;
+            } else if (args[n].equals("--replace")){
+                replaceAnalyses = true;
+            } else if (args[n].equals("-e")){
+                exportGenotypes = true;
+            } else if (args[n].equals("-i")){
+                indexPositions = true;
+            } else if (args[n].equals("-c")){
+                compactStorage = true;
+            } else if (args[n].equals("-k")){
+                packGenotypes = true;
+            } else if (args[n].equals("-s") && n + 1 < args.length){
+                shardCount = Integer.parseInt(args[++n]);
+            } else if (args[n].equals("-j") && n + 1 < args.length){
+                concurrentImports = Integer.parseInt(args[++n]);
+            } else if (args[n].equals("-f") && n + 1 < args.length){
+                annotationFieldsFile = new File(args[++n]);
+            } else {
+                log.log(Level.SEVERE, "Unknown option " + args[n]);
+                System.exit(1);
             }
         }
 
@@ -44,6 +70,51 @@ public class Main {
             System.exit(1);
         }
 
+        if ((compactStorage || annotationFieldsFile != null) && !addAnnotations){
+            log.log(Level.SEVERE, "Compact storage and annotation field mappings only apply when adding annotations. Check arguments.");
+            System.exit(1);
+        }
+
+        if (replaceAnalyses && (newDatabase || addAnnotations || exportGenotypes)){
+            log.log(Level.SEVERE, "Analyses can only be replaced when importing genotypes into an existing database. Check arguments.");
+            System.exit(1);
+        }
+
+        if (deltaImport && (newDatabase || addAnnotations || exportGenotypes || replaceAnalyses)){
+            log.log(Level.SEVERE, "Delta import only applies to genotypes in an existing database. Check arguments.");
+            System.exit(1);
+        }
+
+        if (packGenotypes && (addAnnotations || exportGenotypes || deltaImport)){
+            log.log(Level.SEVERE, "Packed storage only applies to new or replaced genotypes. Check arguments.");
+            System.exit(1);
+        }
+
+        if (concurrentImports > 1 && (addAnnotations || exportGenotypes || replaceAnalyses || deltaImport)){
+            log.log(Level.SEVERE, "Concurrent imports only apply to new genotypes. Check arguments.");
+            System.exit(1);
+        }
+
+        if ((shardCount > 0 || ShardMap.exists(new File(args[1]))) && (concurrentImports > 1 || exportGenotypes)){
+            log.log(Level.SEVERE, "Sharded databases do not support concurrent imports or export. Check arguments.");
+            System.exit(1);
+        }
+
+        if (exportGenotypes && (newDatabase || addAnnotations)){
+            log.log(Level.SEVERE, "Cannot export genotypes while creating a database or adding annotations. Check arguments.");
+            System.exit(1);
+        }
+
+        //stream stored genotypes to bgzipped VCF
+        if (exportGenotypes){
+            VariantDatabase variantDatabase = new VariantDatabase(new ArrayList<VcfInput>(), new File(args[1]));
+            variantDatabase.startDatabase();
+            if (indexPositions) variantDatabase.indexVariantPositions();
+            variantDatabase.exportGenotypes(new File(args[0]), Runtime.getRuntime().availableProcessors());
+            variantDatabase.shutdownDatabase();
+            return;
+        }
+
         if (newDatabase) {
             log.log(Level.INFO, "Deleting existing database");
             try{
@@ -54,15 +125,124 @@ public class Main {
             }
         }
 
+        //contig-sharded layout
+        if (shardCount > 0 || ShardMap.exists(new File(args[1]))){
+            importSharded(args[0], new File(args[1]));
+            return;
+        }
+
+        //worklists of a list imported side by side into one store
+        if (concurrentImports > 1){
+            importConcurrently(getVcfFiles(args[0]), new File(args[1]));
+            return;
+        }
+
+        //progress journal for resuming interrupted imports
+        ImportJournal importJournal = new ImportJournal(new File(args[0] + ".journal"));
+
+        if (newDatabase && importJournal.exists()) {
+            log.log(Level.INFO, "Discarding import journal from previous database");
+            importJournal.delete();
+        }
+
         log.log(Level.INFO, "Importing " + args[0] + " to " + args[1]);
 
-        //create VCF file parser
-        VCFFileReader vcfFileReader = new VCFFileReader(new File(args[0]), new File(args[0] + ".idx"));
+        ArrayList<VcfInput> vcfInputs = openVcfInputs(args[0]);
 
         //create database object
-        VariantDatabase variantDatabase = new VariantDatabase(vcfFileReader, new File(args[1]));
+        VariantDatabase variantDatabase;
+
+        if (!addAnnotations){
+
+            if (importJournal.exists()){
+                log.log(Level.INFO, "Resuming interrupted import");
+                importJournal.load();
+            }
+
+            importJournal.open();
+            variantDatabase = new VariantDatabase(vcfInputs, new File(args[1]), importJournal);
+            variantDatabase.setReplaceAnalyses(replaceAnalyses);
+            variantDatabase.setDeltaImport(deltaImport);
+            variantDatabase.setPackGenotypes(packGenotypes);
+
+        } else {
+            variantDatabase = new VariantDatabase(vcfInputs, new File(args[1]));
+        }
+
+        variantDatabase.startDatabase();
+
+        //backfill position index on existing database
+        if ((indexPositions || deltaImport) && !newDatabase) variantDatabase.indexVariantPositions(); //delta import reads stored genotypes in position order
+
+        //add genotypes
+        if (!addAnnotations){
+
+            if (newDatabase) variantDatabase.createIndexes();
+
+            try {
+                variantDatabase.addSampleAndRunInfoNodes();
+            } catch (ConstraintViolationException e){
+                log.log(Level.SEVERE, "One or more analyses already exist in the database, check input.");
+                if (importJournal.getCommittedBatches() == 0) importJournal.delete();
+                System.exit(1);
+            }
+
+            variantDatabase.importVariants();
+            variantDatabase.writeNewVariantsToVCF();
+
+            //import complete
+            importJournal.delete();
+
+        } else {
+            if (annotationFieldsFile != null) variantDatabase.setAnnotationFieldMapping(AnnotationFieldMapping.fromToml(annotationFieldsFile));
+            variantDatabase.setCompactStorage(compactStorage);
+            variantDatabase.importAnnotations();
+        }
+
+        variantDatabase.shutdownDatabase();
+
+        for (VcfInput vcfInput : vcfInputs){
+            vcfInput.close();
+        }
+
+    }
+
+    private static void importSharded(String input, File dbPath) throws IOException {
+        ShardMap shardMap;
+
+        if (ShardMap.exists(dbPath)){
+            shardMap = ShardMap.load(dbPath);
+
+            if (shardCount > 0 && shardCount != shardMap.getShardCount()){
+                log.log(Level.SEVERE, "Database has " + shardMap.getShardCount() + " shards, not " + shardCount + ". Check arguments.");
+                System.exit(1);
+            }
+        } else if (newDatabase){
+            shardMap = ShardMap.create(shardCount);
+            shardMap.save(dbPath);
+        } else {
+            log.log(Level.SEVERE, "Existing database is not sharded, shards can only be created with a new database. Check arguments.");
+            System.exit(1);
+            return;
+        }
+
+        log.log(Level.INFO, "Importing " + input + " to " + shardMap.getShardCount() + " shards in " + dbPath);
+
+        ArrayList<VcfInput> vcfInputs = openVcfInputs(input);
+        ShardedVariantDatabase variantDatabase = new ShardedVariantDatabase(vcfInputs, dbPath, shardMap, addAnnotations ? null : input);
+
+        if (!addAnnotations){
+            variantDatabase.openJournals(newDatabase);
+            variantDatabase.setReplaceAnalyses(replaceAnalyses);
+            variantDatabase.setDeltaImport(deltaImport);
+            variantDatabase.setPackGenotypes(packGenotypes);
+        }
+
         variantDatabase.startDatabase();
 
+        //backfill position index on existing database
+        if ((indexPositions || deltaImport) && !newDatabase) variantDatabase.indexVariantPositions();
+
         //add genotypes
         if (!addAnnotations){
 
@@ -72,19 +252,156 @@ public class Main {
                 variantDatabase.addSampleAndRunInfoNodes();
             } catch (ConstraintViolationException e){
                 log.log(Level.SEVERE, "One or more analyses already exist in the database, check input.");
+                if (variantDatabase.getCommittedBatches() == 0) variantDatabase.deleteJournals();
                 System.exit(1);
             }
 
             variantDatabase.importVariants();
             variantDatabase.writeNewVariantsToVCF();
 
+            //import complete
+            variantDatabase.deleteJournals();
+
         } else {
+            if (annotationFieldsFile != null) variantDatabase.setAnnotationFieldMapping(AnnotationFieldMapping.fromToml(annotationFieldsFile));
+            variantDatabase.setCompactStorage(compactStorage);
             variantDatabase.importAnnotations();
         }
 
         variantDatabase.shutdownDatabase();
-        vcfFileReader.close();
 
+        for (VcfInput vcfInput : vcfInputs){
+            vcfInput.close();
+        }
+
+    }
+
+    private static void importConcurrently(ArrayList<File> vcfFiles, File dbPath) throws IOException {
+        log.log(Level.INFO, "Importing " + vcfFiles.size() + " VCFs to " + dbPath + ", " + concurrentImports + " at a time");
+
+        int decodingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / concurrentImports);
+        ArrayList<VcfInput> vcfInputs = new ArrayList<>();
+        ArrayList<ImportJournal> importJournals = new ArrayList<>();
+        ArrayList<VariantDatabase> variantDatabases = new ArrayList<>();
+
+        //one store shared by every import
+        VariantDatabase store = new VariantDatabase(new ArrayList<VcfInput>(), dbPath);
+        store.startDatabase();
+
+        if (newDatabase) {
+            store.createIndexes();
+        } else if (indexPositions) {
+            store.indexVariantPositions();
+        }
+
+        WriteScheduler writeScheduler = new WriteScheduler(store.getGraphDb());
+
+        //samples and analyses are added one worklist at a time
+        for (File vcfFile : vcfFiles){
+            ImportJournal importJournal = new ImportJournal(new File(vcfFile.getPath() + ".journal"));
+
+            if (newDatabase && importJournal.exists()) importJournal.delete();
+            if (importJournal.exists()){
+                log.log(Level.INFO, "Resuming interrupted import of " + vcfFile);
+                importJournal.load();
+            }
+            importJournal.open();
+
+            VcfInput vcfInput = new VcfInput(vcfFile, decodingThreads);
+            VariantDatabase variantDatabase = new VariantDatabase(Collections.singletonList(vcfInput), store.getGraphDb(), importJournal);
+            variantDatabase.setWriteScheduler(writeScheduler);
+            variantDatabase.setPackGenotypes(packGenotypes);
+
+            try {
+                variantDatabase.addSampleAndRunInfoNodes();
+            } catch (ConstraintViolationException e){
+                log.log(Level.SEVERE, "One or more analyses in " + vcfFile + " already exist in the database, check input.");
+                if (importJournal.getCommittedBatches() == 0) importJournal.delete();
+                System.exit(1);
+            }
+
+            vcfInputs.add(vcfInput);
+            importJournals.add(importJournal);
+            variantDatabases.add(variantDatabase);
+        }
+
+        //genotypes
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrentImports);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+
+        for (final VariantDatabase variantDatabase : variantDatabases){
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    variantDatabase.importVariants();
+                    return null;
+                }
+            }));
+        }
+
+        executorService.shutdown();
+
+        for (int n = 0; n < futures.size(); ++n){
+            try {
+                futures.get(n).get();
+            } catch (InterruptedException | ExecutionException e){
+                log.log(Level.SEVERE, "Could not import " + vcfFiles.get(n) + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        log.log(Level.INFO, "Committed " + writeScheduler.getCommittedBatches() + " batches, " + writeScheduler.getRetriedBatches() + " retried");
+
+        VariantDatabase.writeNewVariantsToVCF(variantDatabases);
+
+        //import complete
+        for (ImportJournal importJournal : importJournals){
+            importJournal.delete();
+        }
+
+        store.shutdownDatabase();
+
+        for (VcfInput vcfInput : vcfInputs){
+            vcfInput.close();
+        }
+
+    }
+
+    //create VCF file parsers, one per line of a .list manifest, sharing the available cores
+    private static ArrayList<VcfInput> openVcfInputs(String input) throws IOException {
+        ArrayList<VcfInput> vcfInputs = new ArrayList<>();
+        ArrayList<File> vcfFiles = getVcfFiles(input);
+        int decodingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / vcfFiles.size());
+
+        for (File vcfFile : vcfFiles){
+            vcfInputs.add(new VcfInput(vcfFile, decodingThreads));
+        }
+
+        return vcfInputs;
+    }
+
+    private static ArrayList<File> getVcfFiles(String input) throws IOException {
+        ArrayList<File> vcfFiles = new ArrayList<>();
+
+        if (!input.endsWith(".list")){
+            vcfFiles.add(new File(input));
+            return vcfFiles;
+        }
+
+        //manifest of VCFs, one per line
+        try (BufferedReader reader = new BufferedReader(new FileReader(input))){
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                vcfFiles.add(new File(line));
+            }
+        }
+
+        log.log(Level.INFO, "Read " + vcfFiles.size() + " VCFs from " + input);
+
+        return vcfFiles;
     }
 
 }
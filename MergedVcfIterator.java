@@ -0,0 +1,164 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Locatable;
+
+import java.util.*;
+
+/**
+ * A class for merge-streaming records from several coordinate sorted VCFs by position
+ * <p>
+ * Records at the same position are returned in input order so the merged stream is deterministic for a given list of files.
+ * Contigs are ordered by a sequence dictionary merged from all inputs; an input sorted in a conflicting contig order
+ * is rejected rather than merged out of order.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class MergedVcfIterator<T extends Locatable> implements VcfRecordIterator<T>, AutoCloseable {
+
+    private List<? extends CloseableIterator<T>> iterators;
+    private PriorityQueue<Head> heads;
+    private HashMap<String, Integer> contigRanks = new HashMap<>();
+    private int dictionarySize = 0;
+    private int source = -1;
+
+    private class Head {
+        private final T record;
+        private final int source;
+        private final int contigRank;
+
+        private Head(T record, int source){
+            this.record = record;
+            this.source = source;
+            this.contigRank = getContigRank(record.getContig());
+        }
+    }
+
+    public MergedVcfIterator(List<? extends CloseableIterator<T>> iterators, SAMSequenceDictionary sequenceDictionary){
+        this.iterators = iterators;
+
+        if (sequenceDictionary != null){
+            for (int n = 0; n < sequenceDictionary.size(); ++n){
+                contigRanks.put(sequenceDictionary.getSequence(n).getSequenceName(), n);
+            }
+            dictionarySize = sequenceDictionary.size();
+        }
+
+        heads = new PriorityQueue<>(Math.max(1, iterators.size()), new Comparator<Head>() {
+            @Override
+            public int compare(Head a, Head b) {
+                int comparison = comparePositions(a, b);
+                if (comparison != 0) return comparison;
+                return Integer.compare(a.source, b.source);
+            }
+        });
+
+        for (int n = 0; n < iterators.size(); ++n){
+            if (iterators.get(n).hasNext()) heads.add(new Head(iterators.get(n).next(), n));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        Head head = heads.poll();
+
+        if (head == null){
+            throw new NoSuchElementException();
+        }
+
+        //refill from the same file
+        if (iterators.get(head.source).hasNext()){
+            Head refill = new Head(iterators.get(head.source).next(), head.source);
+
+            //a single input is passed through in its own order
+            if (iterators.size() > 1 && comparePositions(refill, head) < 0){
+                throw new IllegalStateException("Input " + head.source + " is not sorted in merged contig order: " +
+                        refill.record.getContig() + ":" + refill.record.getStart() + " follows " + head.record.getContig() + ":" + head.record.getStart());
+            }
+
+            heads.add(refill);
+        }
+
+        source = head.source;
+        return head.record;
+    }
+
+    /**
+     * @return index of the input file the last returned record was read from
+     */
+    public int getSource() {
+        return source;
+    }
+
+    @Override
+    public void close() {
+        for (CloseableIterator<T> iterator : iterators){
+            iterator.close();
+        }
+    }
+
+    /**
+     * @return contigs of the first dictionary in order, followed by contigs only found in later dictionaries; null if no input has one
+     */
+    public static SAMSequenceDictionary mergeSequenceDictionaries(List<SAMSequenceDictionary> sequenceDictionaries){
+        SAMSequenceDictionary merged = null;
+
+        for (SAMSequenceDictionary sequenceDictionary : sequenceDictionaries){
+            if (sequenceDictionary == null) continue;
+            if (merged == null) merged = new SAMSequenceDictionary();
+
+            for (SAMSequenceRecord sequenceRecord : sequenceDictionary.getSequences()){
+                if (merged.getSequence(sequenceRecord.getSequenceName()) == null){
+                    merged.addSequence(new SAMSequenceRecord(sequenceRecord.getSequenceName(), sequenceRecord.getSequenceLength()));
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    private int comparePositions(Head a, Head b){
+        if (a.contigRank != b.contigRank) return Integer.compare(a.contigRank, b.contigRank);
+        if (!a.record.getContig().equals(b.record.getContig())) return a.record.getContig().compareTo(b.record.getContig());
+        return Integer.compare(a.record.getStart(), b.record.getStart());
+    }
+
+    private int getContigRank(String contig){
+        Integer rank = contigRanks.get(contig);
+
+        if (rank == null){
+
+            //fall back to karyotypic order after any contigs in the sequence dictionary
+            String name = contig.startsWith("chr") ? contig.substring(3) : contig;
+
+            if (name.equals("X")) {
+                rank = 23;
+            } else if (name.equals("Y")) {
+                rank = 24;
+            } else if (name.equals("M") || name.equals("MT")) {
+                rank = 25;
+            } else {
+                try {
+                    rank = Integer.parseInt(name);
+                } catch (NumberFormatException e){
+                    rank = 26;
+                }
+            }
+
+            rank += dictionarySize;
+            contigRanks.put(contig, rank);
+        }
+
+        return rank;
+    }
+
+}
@@ -1,6 +1,7 @@
 package nhs.genetics.cardiff;
 
 import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.IndexCreator;
 import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
 
@@ -16,6 +17,9 @@ import java.util.concurrent.TimeUnit;
  */
 public class Neo4j{
 
+    //single property indexes by store, resolved once per label and property and kept current by the create methods
+    private static final Map<GraphDatabaseService, Map<String, Boolean>> indexedProperties = new WeakHashMap<>();
+
     public static void shutdownDatabase(final GraphDatabaseService graphDb){
         graphDb.shutdown();
     }
@@ -44,6 +48,8 @@ public class Neo4j{
             tx.success();
         }
 
+        setIndexed(graphDb, label, property);
+
         try ( Transaction tx = graphDb.beginTx() )
         {
             Schema schema = graphDb.schema();
@@ -64,6 +70,44 @@ public class Neo4j{
             tx.success();
         }
 
+        setIndexed(graphDb, label, property);
+    }
+    public static void createCompositeIndex(final GraphDatabaseService graphDb, final Label label, final String... properties){
+
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            IndexCreator indexCreator = graphDb.schema().indexFor(label);
+
+            for (String property : properties){
+                indexCreator = indexCreator.on(property);
+            }
+
+            indexCreator.create();
+
+            tx.success();
+        }
+
+        if (properties.length == 1) setIndexed(graphDb, label, properties[0]);
+    }
+    public static boolean hasIndex(final GraphDatabaseService graphDb, final Label label, final String... properties){
+
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( IndexDefinition indexDefinition : graphDb.schema().getIndexes(label) )
+            {
+                ArrayList<String> propertyKeys = new ArrayList<>();
+                for (String propertyKey : indexDefinition.getPropertyKeys()) propertyKeys.add(propertyKey);
+
+                if (propertyKeys.equals(Arrays.asList(properties))){
+                    tx.success();
+                    return true;
+                }
+            }
+
+            tx.success();
+        }
+
+        return false;
     }
     public static void createConstraint(final GraphDatabaseService graphDb, final Label label, final String property) {
 
@@ -77,6 +121,7 @@ public class Neo4j{
             tx.success();
         }
 
+        setIndexed(graphDb, label, property);
     }
     public static void dropIndex(final GraphDatabaseService graphDb, final Label label){
 
@@ -92,6 +137,9 @@ public class Neo4j{
             tx.success();
         }
 
+        synchronized (indexedProperties){
+            indexedProperties.remove(graphDb);
+        }
     }
     public static Node addNode(final GraphDatabaseService graphDb, final Label label, HashMap<String, Object> properties){
 
@@ -112,6 +160,26 @@ public class Neo4j{
 
         return node;
 
+    }
+    public static Node addNode(final GraphDatabaseService graphDb, final Label[] labels, HashMap<String, Object> properties){
+
+        Node node;
+
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            node = graphDb.createNode( labels );
+
+            if (properties != null) {
+                for (Map.Entry<String, Object> property : properties.entrySet()){
+                    node.setProperty(property.getKey(), property.getValue());
+                }
+            }
+
+            tx.success();
+        }
+
+        return node;
+
     }
     public static ArrayList<Node> getNodes(final GraphDatabaseService graphDb, final Label label, final String field, final Object value){
 
@@ -210,30 +278,28 @@ public class Neo4j{
 
     }
     public static boolean hasRelationship(final GraphDatabaseService graphDb, Node node1, Node node2, RelationshipType type, Direction direction){
+        return getRelationship(graphDb, node1, node2, type, direction, null) != null;
+    }
+    public static void addNodeProperties(final GraphDatabaseService graphDb, Node node, HashMap<String, Object> properties){
 
-        //check if relationship already exists
-        try ( Transaction tx = graphDb.beginTx() ){
-
-            for (Relationship relationship : node1.getRelationships(type, direction)){
-
-                if (relationship.getOtherNode(node1).getId() == node2.getId()){
-                    return true;
-                }
+        try (Transaction tx = graphDb.beginTx()) {
 
+            //set properties
+            for (Map.Entry<String, Object> property : properties.entrySet()){
+                if (!node.hasProperty(property.getKey())) node.setProperty(property.getKey(), property.getValue());
             }
 
             tx.success();
         }
 
-        return false;
     }
-    public static void addNodeProperties(final GraphDatabaseService graphDb, Node node, HashMap<String, Object> properties){
+    public static void setNodeProperties(final GraphDatabaseService graphDb, Node node, HashMap<String, Object> properties){
 
         try (Transaction tx = graphDb.beginTx()) {
 
-            //set properties
+            //overwrite properties
             for (Map.Entry<String, Object> property : properties.entrySet()){
-                if (!node.hasProperty(property.getKey())) node.setProperty(property.getKey(), property.getValue());
+                node.setProperty(property.getKey(), property.getValue());
             }
 
             tx.success();
@@ -252,13 +318,19 @@ public class Neo4j{
 
     }
     public static ArrayList<Node> findNeighbourNodes(final GraphDatabaseService graphDb, Node startNode, Label endLabel, Direction direction){
+        return findNeighbourNodes(graphDb, startNode, endLabel, direction, new RelationshipType[0]);
+    }
+    public static ArrayList<Node> findNeighbourNodes(final GraphDatabaseService graphDb, Node startNode, Label endLabel, Direction direction, RelationshipType... relationshipTypes){
 
         Node tempNode;
         ArrayList<Node> nodes = new ArrayList<>();
 
         try ( Transaction tx = graphDb.beginTx() ){
 
-            for (Relationship relationship : startNode.getRelationships(direction)){
+            //filter by type in the store rather than on each neighbour
+            Iterable<Relationship> relationships = relationshipTypes.length == 0 ? startNode.getRelationships(direction) : startNode.getRelationships(direction, relationshipTypes);
+
+            for (Relationship relationship : relationships){
 
                 //get connecting node
                 tempNode = relationship.getOtherNode(startNode);
@@ -280,66 +352,129 @@ public class Neo4j{
         ArrayList<Node> nodes = new ArrayList<>();
 
         try (Transaction tx = graphDb.beginTx()){
-            for (Relationship relationship : startNode.getRelationships(direction, relationshipType)){
-                boolean hasSameProperties = true;
-
-                //get connecting node
-                Node tempNode = relationship.getOtherNode(startNode);
-
-                //check node has required label
-                if (tempNode.hasLabel(endLabel)){
 
-                    //check end node has properties
-                    for (Map.Entry<String, Object> property : properties.entrySet()){
+            //candidates from an index on one of the properties when fewer than the relationships to scan
+            ArrayList<Node> candidates = getIndexedCandidates(graphDb, endLabel, properties, startNode.getDegree(relationshipType, direction));
 
-                        if (!tempNode.getProperty(property.getKey()).equals(property.getValue())){
-                            hasSameProperties = false;
-                            break;
-                        }
+            if (candidates != null){
+                for (Node candidate : candidates){
+                    if (hasProperties(candidate, properties) && getRelationship(graphDb, startNode, candidate, relationshipType, direction, null) != null){
+                        nodes.add(candidate);
                     }
+                }
+            } else {
+                for (Relationship relationship : startNode.getRelationships(direction, relationshipType)){
+
+                    //get connecting node
+                    Node tempNode = relationship.getOtherNode(startNode);
 
-                    if (hasSameProperties){
+                    //check node has required label and properties
+                    if (tempNode.hasLabel(endLabel) && hasProperties(tempNode, properties)){
                         nodes.add(tempNode);
                     }
 
                 }
-
             }
+
             tx.success();
         }
 
         return nodes;
     }
     public static boolean isNeighbourNodeWithSuppliedProperties(final GraphDatabaseService graphDb, Node startNode, Node endNode, Direction direction, RelationshipType relationshipType, HashMap<String, Object> properties){
+        return getRelationship(graphDb, startNode, endNode, relationshipType, direction, properties) != null;
+    }
 
-        boolean allPropertiesMatched;
+    /**
+     * @return a relationship of the type and direction (relative to node1) between the nodes carrying the properties, or null;
+     * relationships are read from whichever node has the lower degree for that type and direction
+     */
+    private static Relationship getRelationship(final GraphDatabaseService graphDb, Node node1, Node node2, RelationshipType type, Direction direction, HashMap<String, Object> properties){
 
         try ( Transaction tx = graphDb.beginTx() ){
-            for (Relationship relationship : startNode.getRelationships(direction, relationshipType)){
-
-                //check if node is endnode
-                if (relationship.getOtherNode(startNode).equals(endNode)){
-                    allPropertiesMatched = true;
-
-                    for (Map.Entry<String, Object> property : properties.entrySet()){
+            Node fromNode = node1, toNode = node2;
+            Direction fromDirection = direction;
 
-                        if (!relationship.getProperty(property.getKey()).equals(property.getValue())){
-                            allPropertiesMatched = false;
-                            break;
-                        }
+            if (node2.getDegree(type, direction.reverse()) < node1.getDegree(type, direction)){
+                fromNode = node2;
+                toNode = node1;
+                fromDirection = direction.reverse();
+            }
 
-                    }
+            for (Relationship relationship : fromNode.getRelationships(type, fromDirection)){
 
-                    if (allPropertiesMatched){
-                        return true;
-                    }
+                if (relationship.getOtherNode(fromNode).getId() == toNode.getId() && (properties == null || hasProperties(relationship, properties))){
+                    tx.success(); //unfinished inner transactions roll back the enclosing batch
+                    return relationship;
                 }
 
             }
+
             tx.success();
         }
 
-        return false;
+        return null;
+    }
+    private static boolean hasProperties(PropertyContainer propertyContainer, HashMap<String, Object> properties){
+
+        for (Map.Entry<String, Object> property : properties.entrySet()){
+            if (!property.getValue().equals(propertyContainer.getProperty(property.getKey(), null))){
+                return false;
+            }
+        }
+
+        return true;
+    }
+    private static boolean isIndexed(final GraphDatabaseService graphDb, final Label label, final String property){
+        String key = label.name() + ":" + property;
+
+        synchronized (indexedProperties){
+            Map<String, Boolean> indexed = indexedProperties.get(graphDb);
+            if (indexed != null && indexed.containsKey(key)) return indexed.get(key);
+        }
+
+        boolean index = hasIndex(graphDb, label, property);
+
+        synchronized (indexedProperties){
+            Map<String, Boolean> indexed = indexedProperties.get(graphDb);
+            if (indexed == null){
+                indexed = new HashMap<>();
+                indexedProperties.put(graphDb, indexed);
+            }
+            if (!indexed.containsKey(key)) indexed.put(key, index);
+            return indexed.get(key);
+        }
+    }
+    private static void setIndexed(final GraphDatabaseService graphDb, final Label label, final String property){
+
+        synchronized (indexedProperties){
+            Map<String, Boolean> indexed = indexedProperties.get(graphDb);
+            if (indexed == null){
+                indexed = new HashMap<>();
+                indexedProperties.put(graphDb, indexed);
+            }
+            indexed.put(label.name() + ":" + property, true);
+        }
+
+    }
+    private static ArrayList<Node> getIndexedCandidates(final GraphDatabaseService graphDb, Label label, HashMap<String, Object> properties, int degree){
+
+        for (Map.Entry<String, Object> property : properties.entrySet()){
+            if (!isIndexed(graphDb, label, property.getKey())) continue;
+
+            ArrayList<Node> candidates = new ArrayList<>();
+
+            try ( ResourceIterator<Node> nodes = graphDb.findNodes(label, property.getKey(), property.getValue()) ){
+                while (nodes.hasNext()){
+                    candidates.add(nodes.next());
+                    if (candidates.size() >= degree) return null;
+                }
+            }
+
+            return candidates;
+        }
+
+        return null;
     }
     public static ArrayList<String> getNodeLabels(final GraphDatabaseService graphDb, Node node){
         ArrayList<String> labels = new ArrayList<>();
@@ -348,6 +483,8 @@ public class Neo4j{
             for (Label label : node.getLabels()) {
                 labels.add(label.toString());
             }
+
+            tx.success();
         }
 
         return labels;
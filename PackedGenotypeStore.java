@@ -0,0 +1,358 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for the optional packed storage of genotypes
+ * <p>
+ * Schema:
+ * <ul>
+ * <li>(RunInfo)-[:HAS_GENOTYPE_BLOCK]-&gt;(GenotypeBlock {bucket, firstVariantNodeId, lastVariantNodeId, variantNodeIds long[],
+ * qualities short[], hom boolean[]}): every genotype of an analysis sorted by Variant node id. Blocks never cross a
+ * bucket of 2^20 node ids and hold at most 8192 genotypes.</li>
+ * <li>HAS_HET_VARIANT/HAS_HOM_VARIANT relationships are only kept for Variants labelled Reportable, in addition to their packed entries.</li>
+ * </ul>
+ * Imports append a block per analysis and bucket at each commit and compact each analysis into full blocks when it
+ * completes. Carriers of a variant are found through the indexed bucket of its node id.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class PackedGenotypeStore {
+    private static final Logger log = Logger.getLogger(PackedGenotypeStore.class.getName());
+
+    private static final int bucketBits = 20;
+    private static final int maxBlockEntries = 8192;
+
+    private GraphDatabaseService graphDb;
+    private LinkedHashMap<Node, ArrayList<PackedGenotype>> pendingGenotypes = new LinkedHashMap<>(); //genotypes of the uncommitted batch for each analysis
+
+    /**
+     * One packed genotype
+     */
+    public static class PackedGenotype {
+        private final long runInfoNodeId;
+        private final long variantNodeId;
+        private final short quality;
+        private final boolean hom;
+
+        private PackedGenotype(long runInfoNodeId, long variantNodeId, short quality, boolean hom){
+            this.runInfoNodeId = runInfoNodeId;
+            this.variantNodeId = variantNodeId;
+            this.quality = quality;
+            this.hom = hom;
+        }
+
+        public long getRunInfoNodeId() {
+            return runInfoNodeId;
+        }
+
+        public long getVariantNodeId() {
+            return variantNodeId;
+        }
+
+        public short getQuality() {
+            return quality;
+        }
+
+        public boolean isHom() {
+            return hom;
+        }
+
+        public RelationshipType getRelationshipType() {
+            return hom ? VariantDatabase.getHasHomVariantRelationship() : VariantDatabase.getHasHetVariantRelationship();
+        }
+    }
+
+    private static final Comparator<PackedGenotype> byVariantNodeId = new Comparator<PackedGenotype>() {
+        @Override
+        public int compare(PackedGenotype packedGenotype1, PackedGenotype packedGenotype2) {
+            return Long.compare(packedGenotype1.variantNodeId, packedGenotype2.variantNodeId);
+        }
+    };
+
+    public PackedGenotypeStore(GraphDatabaseService graphDb){
+        this.graphDb = graphDb;
+    }
+
+    public static void createIndex(GraphDatabaseService graphDb){
+        if (!Neo4j.hasIndex(graphDb, VariantDatabase.getGenotypeBlockLabel(), "bucket")) Neo4j.createIndex(graphDb, VariantDatabase.getGenotypeBlockLabel(), "bucket");
+    }
+
+    /**
+     * Buffers a genotype until the next flush
+     */
+    public void add(Node runInfoNode, Node variantNode, short quality, boolean hom){
+        ArrayList<PackedGenotype> packedGenotypes = pendingGenotypes.get(runInfoNode);
+
+        if (packedGenotypes == null){
+            packedGenotypes = new ArrayList<>();
+            pendingGenotypes.put(runInfoNode, packedGenotypes);
+        }
+
+        packedGenotypes.add(new PackedGenotype(runInfoNode.getId(), variantNode.getId(), quality, hom));
+    }
+
+    /**
+     * Writes buffered genotypes as new blocks, inside the caller's batch transaction
+     */
+    public void flush(){
+        for (Map.Entry<Node, ArrayList<PackedGenotype>> iter : pendingGenotypes.entrySet()){
+            writeBlocks(iter.getKey(), sort(iter.getValue()));
+        }
+        pendingGenotypes.clear();
+    }
+
+    /**
+     * Discards buffered genotypes of a rolled back batch
+     */
+    public void clear(){
+        pendingGenotypes.clear();
+    }
+
+    /**
+     * Merges the blocks appended by each commit into full blocks, one committed transaction per bucket
+     */
+    public void compact(Node runInfoNode){
+        TreeMap<Integer, ArrayList<Node>> bucketBlockNodes = new TreeMap<>();
+        int blocks = 0, compactedBlocks = 0;
+
+        try (Transaction tx = graphDb.beginTx()){
+            for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasGenotypeBlockRelationship())){
+                Node blockNode = relationship.getEndNode();
+                int bucket = (int) blockNode.getProperty("bucket");
+
+                if (!bucketBlockNodes.containsKey(bucket)) bucketBlockNodes.put(bucket, new ArrayList<Node>());
+                bucketBlockNodes.get(bucket).add(blockNode);
+            }
+            tx.success();
+        }
+
+        for (ArrayList<Node> blockNodes : bucketBlockNodes.values()){
+            blocks += blockNodes.size();
+
+            try (Transaction tx = graphDb.beginTx()){
+                ArrayList<PackedGenotype> packedGenotypes = new ArrayList<>();
+
+                for (Node blockNode : blockNodes){
+                    readBlock(blockNode, runInfoNode.getId(), packedGenotypes);
+                }
+
+                //already as few blocks as the genotypes need
+                if (blockNodes.size() <= (packedGenotypes.size() + maxBlockEntries - 1) / maxBlockEntries){
+                    compactedBlocks += blockNodes.size();
+                    tx.success();
+                    continue;
+                }
+
+                for (Node blockNode : blockNodes){
+                    deleteBlock(blockNode);
+                }
+
+                compactedBlocks += writeBlocks(runInfoNode, sort(packedGenotypes));
+                tx.success();
+            }
+        }
+
+        log.log(Level.FINE, "Compacted " + blocks + " genotype blocks into " + compactedBlocks);
+    }
+
+    /**
+     * @return genotypes of an analysis ordered by variant node id
+     */
+    public static ArrayList<PackedGenotype> getGenotypes(GraphDatabaseService graphDb, Node runInfoNode){
+        ArrayList<PackedGenotype> packedGenotypes = new ArrayList<>();
+
+        try (Transaction tx = graphDb.beginTx()){
+            for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasGenotypeBlockRelationship())){
+                readBlock(relationship.getEndNode(), runInfoNode.getId(), packedGenotypes);
+            }
+            tx.success();
+        }
+
+        //blocks of an interrupted import may overlap
+        Collections.sort(packedGenotypes, byVariantNodeId);
+
+        return packedGenotypes;
+    }
+
+    /**
+     * @return packed genotypes of every analysis carrying a variant
+     */
+    public static ArrayList<PackedGenotype> getCarriers(GraphDatabaseService graphDb, long variantNodeId){
+        ArrayList<PackedGenotype> carriers = new ArrayList<>();
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("bucket", getBucket(variantNodeId));
+        parameters.put("variantNodeId", variantNodeId);
+
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(
+                     "MATCH (r:" + VariantDatabase.getRunInfoLabel().name() + ")-[:" + VariantDatabase.getHasGenotypeBlockRelationship().name() + "]->(b:" + VariantDatabase.getGenotypeBlockLabel().name() + " {bucket: {bucket}}) " +
+                     "WHERE b.firstVariantNodeId <= {variantNodeId} AND b.lastVariantNodeId >= {variantNodeId} " +
+                     "RETURN id(r) AS runInfoNodeId, b", parameters)) {
+
+            while (result.hasNext()){
+                Map<String, Object> row = result.next();
+                Node blockNode = (Node) row.get("b");
+                long[] variantNodeIds = (long[]) blockNode.getProperty("variantNodeIds");
+                int index = Arrays.binarySearch(variantNodeIds, variantNodeId);
+
+                if (index >= 0){
+                    carriers.add(new PackedGenotype(
+                            (Long) row.get("runInfoNodeId"),
+                            variantNodeId,
+                            ((short[]) blockNode.getProperty("qualities"))[index],
+                            ((boolean[]) blockNode.getProperty("hom"))[index]
+                    ));
+                }
+            }
+
+            tx.success();
+        }
+
+        return carriers;
+    }
+
+    public static boolean hasBlocks(GraphDatabaseService graphDb, Node runInfoNode){
+        try (Transaction tx = graphDb.beginTx()){
+            boolean hasBlocks = runInfoNode.hasRelationship(Direction.OUTGOING, VariantDatabase.getHasGenotypeBlockRelationship());
+            tx.success();
+            return hasBlocks;
+        }
+    }
+
+    /**
+     * Deletes blocks of an analysis until at least maxGenotypes genotypes are gone, inside the caller's transaction
+     *
+     * @return variant node ids of the deleted genotypes
+     */
+    public static ArrayList<Long> deleteBlocks(GraphDatabaseService graphDb, Node runInfoNode, int maxGenotypes){
+        ArrayList<Node> blockNodes = new ArrayList<>();
+        ArrayList<Long> variantNodeIds = new ArrayList<>();
+
+        try (Transaction tx = graphDb.beginTx()){
+
+            for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasGenotypeBlockRelationship())){
+                blockNodes.add(relationship.getEndNode());
+
+                for (long variantNodeId : (long[]) relationship.getEndNode().getProperty("variantNodeIds")){
+                    variantNodeIds.add(variantNodeId);
+                }
+
+                if (variantNodeIds.size() >= maxGenotypes) break;
+            }
+
+            for (Node blockNode : blockNodes){
+                deleteBlock(blockNode);
+            }
+
+            tx.success();
+        }
+
+        return variantNodeIds;
+    }
+
+    /**
+     * Labels a variant Reportable and materialises a genotype relationship for each of its carriers
+     */
+    public static void markReportable(GraphDatabaseService graphDb, Node variantNode){
+        HashMap<String, Object> properties = new HashMap<>();
+
+        try (Transaction tx = graphDb.beginTx()){
+            variantNode.addLabel(VariantDatabase.getReportableLabel());
+
+            for (PackedGenotype carrier : getCarriers(graphDb, variantNode.getId())){
+                Node runInfoNode = graphDb.getNodeById(carrier.runInfoNodeId);
+
+                if (!Neo4j.hasRelationship(graphDb, runInfoNode, variantNode, carrier.getRelationshipType(), Direction.OUTGOING)){
+                    properties.put("quality", carrier.quality);
+                    Neo4j.createRelationship(graphDb, runInfoNode, variantNode, carrier.getRelationshipType(), properties);
+                    properties.clear();
+                }
+            }
+
+            tx.success();
+        }
+    }
+
+    private static int getBucket(long variantNodeId){
+        return (int) (variantNodeId >>> bucketBits);
+    }
+
+    //sorted by variant node id, the last of any repeated genotype kept
+    private static ArrayList<PackedGenotype> sort(List<PackedGenotype> packedGenotypes){
+        ArrayList<PackedGenotype> sortedGenotypes = new ArrayList<>(packedGenotypes);
+        Collections.sort(sortedGenotypes, byVariantNodeId);
+
+        ArrayList<PackedGenotype> uniqueGenotypes = new ArrayList<>(sortedGenotypes.size());
+        for (int n = 0; n < sortedGenotypes.size(); ++n){
+            if (n + 1 < sortedGenotypes.size() && sortedGenotypes.get(n + 1).variantNodeId == sortedGenotypes.get(n).variantNodeId) continue;
+            uniqueGenotypes.add(sortedGenotypes.get(n));
+        }
+
+        return uniqueGenotypes;
+    }
+
+    private int writeBlocks(Node runInfoNode, List<PackedGenotype> packedGenotypes){
+        HashMap<String, Object> properties = new HashMap<>();
+        int blocks = 0, start = 0;
+
+        while (start < packedGenotypes.size()){
+            int bucket = getBucket(packedGenotypes.get(start).variantNodeId);
+            int end = start + 1;
+
+            while (end < packedGenotypes.size() && end - start < maxBlockEntries && getBucket(packedGenotypes.get(end).variantNodeId) == bucket){
+                end++;
+            }
+
+            long[] variantNodeIds = new long[end - start];
+            short[] qualities = new short[end - start];
+            boolean[] hom = new boolean[end - start];
+
+            for (int n = start; n < end; ++n){
+                variantNodeIds[n - start] = packedGenotypes.get(n).variantNodeId;
+                qualities[n - start] = packedGenotypes.get(n).quality;
+                hom[n - start] = packedGenotypes.get(n).hom;
+            }
+
+            properties.put("bucket", bucket);
+            properties.put("firstVariantNodeId", variantNodeIds[0]);
+            properties.put("lastVariantNodeId", variantNodeIds[variantNodeIds.length - 1]);
+            properties.put("variantNodeIds", variantNodeIds);
+            properties.put("qualities", qualities);
+            properties.put("hom", hom);
+
+            Node blockNode = Neo4j.addNode(graphDb, VariantDatabase.getGenotypeBlockLabel(), properties);
+            Neo4j.createRelationship(graphDb, runInfoNode, blockNode, VariantDatabase.getHasGenotypeBlockRelationship(), null);
+            properties.clear();
+
+            blocks++;
+            start = end;
+        }
+
+        return blocks;
+    }
+
+    private static void readBlock(Node blockNode, long runInfoNodeId, List<PackedGenotype> packedGenotypes){
+        long[] variantNodeIds = (long[]) blockNode.getProperty("variantNodeIds");
+        short[] qualities = (short[]) blockNode.getProperty("qualities");
+        boolean[] hom = (boolean[]) blockNode.getProperty("hom");
+
+        for (int n = 0; n < variantNodeIds.length; ++n){
+            packedGenotypes.add(new PackedGenotype(runInfoNodeId, variantNodeIds[n], qualities[n], hom[n]));
+        }
+    }
+
+    private static void deleteBlock(Node blockNode){
+        for (Relationship relationship : blockNode.getRelationships()){
+            relationship.delete();
+        }
+        blockNode.delete();
+    }
+
+}
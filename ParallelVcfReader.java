@@ -0,0 +1,386 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A class for reading VCF records on a thread pool while preserving file order
+ * <p>
+ * A reader thread walks the memory-mapped file and submits each BGZF block to the pool for inflation; plain text and
+ * non-blocked gzip files are read sequentially in large chunks. A splitter thread joins the inflated blocks into lines
+ * and submits batches of lines to the pool for decoding. Both stages hand results on through bounded queues of futures,
+ * so records are returned in file order and at most a fixed number of blocks and batches are held in memory.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ParallelVcfReader<T> implements CloseableIterator<T> {
+
+    private static final int mapWindow = 64 * 1024 * 1024;
+    private static final int maxBlockSize = 65536;
+    private static final int chunkSize = 4 * 1024 * 1024;
+    private static final int linesPerBatch = 1000;
+    private static final Future<byte[]> endOfBlocks = new FutureTask<>(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+            return null;
+        }
+    });
+
+    private final File file;
+    private final LineDecoder<T> lineDecoder;
+    private final ExecutorService executorService;
+    private final BlockingQueue<Future<byte[]>> blocks;
+    private final BlockingQueue<Future<List<T>>> batches;
+    private final Future<List<T>> endOfBatches = new FutureTask<>(new Callable<List<T>>() {
+        @Override
+        public List<T> call() {
+            return null;
+        }
+    });
+    private final Thread readerThread, splitterThread;
+    private Iterator<T> batch = Collections.emptyIterator();
+    private boolean finished = false;
+
+    /**
+     * Decodes one data line; implementations are called from several pool threads at once
+     */
+    public interface LineDecoder<T> {
+        T decode(String line);
+    }
+
+    public ParallelVcfReader(File file, LineDecoder<T> lineDecoder, int threads){
+        this.file = file;
+        this.lineDecoder = lineDecoder;
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.blocks = new ArrayBlockingQueue<>(threads * 8);
+        this.batches = new ArrayBlockingQueue<>(threads * 4);
+
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readBlocks();
+            }
+        }, "vcf-reader-" + file.getName());
+
+        splitterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                splitLines();
+            }
+        }, "vcf-splitter-" + file.getName());
+
+        readerThread.setDaemon(true);
+        splitterThread.setDaemon(true);
+        readerThread.start();
+        splitterThread.start();
+    }
+
+    /**
+     * @return reader decoding full VariantContext records, genotypes included, on the pool
+     */
+    public static ParallelVcfReader<VariantContext> forVariantContexts(File file, final VCFHeader vcfHeader, int threads){
+        VCFHeaderVersion version = VCFHeaderVersion.VCF4_2;
+
+        for (VCFHeaderLine line : vcfHeader.getMetaDataInInputOrder()){
+            if (line.getKey().equals("fileformat")) version = VCFHeaderVersion.toHeaderVersion(line.getValue());
+        }
+
+        final VCFHeaderVersion headerVersion = version;
+
+        //codecs are not thread safe
+        final ThreadLocal<VCFCodec> vcfCodecs = new ThreadLocal<VCFCodec>(){
+            @Override
+            protected VCFCodec initialValue() {
+                VCFCodec vcfCodec = new VCFCodec();
+                vcfCodec.setVCFHeader(vcfHeader, headerVersion);
+                return vcfCodec;
+            }
+        };
+
+        return new ParallelVcfReader<>(file, new LineDecoder<VariantContext>() {
+            @Override
+            public VariantContext decode(String line) {
+                VariantContext variantContext = vcfCodecs.get().decode(line);
+                variantContext.getGenotypes().iterator(); //force lazy genotype parsing on the pool thread
+                return variantContext;
+            }
+        }, threads);
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        while (!batch.hasNext() && !finished){
+            List<T> records = take(batches, endOfBatches);
+
+            if (records == null){
+                finished = true;
+            } else {
+                batch = records.iterator();
+            }
+        }
+
+        return batch.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return batch.next();
+    }
+
+    @Override
+    public void close() {
+        readerThread.interrupt();
+        splitterThread.interrupt();
+        executorService.shutdownNow();
+    }
+
+    private void readBlocks(){
+        try (FileInputStream fileInputStream = new FileInputStream(file)){
+            FileChannel fileChannel = fileInputStream.getChannel();
+
+            if (isBgzf(fileChannel)){
+                readBgzfBlocks(fileChannel);
+            } else {
+                fileChannel.position(0);
+                InputStream inputStream = file.getName().endsWith(".gz") ? new GZIPInputStream(fileInputStream, chunkSize) : fileInputStream;
+                readChunks(inputStream);
+            }
+
+        } catch (final IOException | RuntimeException e){
+            putFailure(blocks, e);
+        } catch (InterruptedException e){
+            return;
+        }
+
+        try {
+            blocks.put(endOfBlocks);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isBgzf(FileChannel fileChannel) throws IOException {
+        MappedByteBuffer header = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(18, fileChannel.size()));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        return header.limit() == 18 && (header.get(0) & 0xff) == 31 && (header.get(1) & 0xff) == 139 &&
+                (header.get(3) & 4) != 0 && header.get(12) == 66 && header.get(13) == 67;
+    }
+
+    private void readBgzfBlocks(FileChannel fileChannel) throws IOException, InterruptedException {
+        long size = fileChannel.size(), offset = 0;
+
+        while (offset < size){
+
+            //remap so that every block read lies wholly inside the window
+            MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(mapWindow, size - offset));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            int position = 0;
+
+            while (position < window.limit() && (window.limit() - position >= maxBlockSize || offset + window.limit() == size)){
+                int remaining = window.limit() - position;
+
+                if (remaining < 18){
+                    throw new IOException("Truncated BGZF block at offset " + (offset + position) + " in " + file);
+                }
+                if ((window.get(position) & 0xff) != 31 || (window.get(position + 1) & 0xff) != 139){
+                    throw new IOException("Corrupt BGZF block at offset " + (offset + position) + " in " + file);
+                }
+
+                int extraLength = window.getShort(position + 10) & 0xffff;
+
+                if (12 + extraLength > remaining){
+                    throw new IOException("Truncated BGZF block at offset " + (offset + position) + " in " + file);
+                }
+                int blockSize = -1;
+
+                for (int extra = position + 12; extra < position + 12 + extraLength; ){
+                    int subfieldLength = window.getShort(extra + 2) & 0xffff;
+                    if (window.get(extra) == 66 && window.get(extra + 1) == 67 && subfieldLength == 2) blockSize = (window.getShort(extra + 4) & 0xffff) + 1;
+                    extra += 4 + subfieldLength;
+                }
+
+                if (blockSize == -1){
+                    throw new IOException("Missing BGZF block size at offset " + (offset + position) + " in " + file);
+                }
+                if (blockSize > remaining){
+                    throw new IOException("Truncated BGZF block at offset " + (offset + position) + " in " + file);
+                }
+                if (blockSize < extraLength + 20){
+                    throw new IOException("Corrupt BGZF block at offset " + (offset + position) + " in " + file);
+                }
+
+                final byte[] compressed = new byte[blockSize - extraLength - 20];
+                final int inflatedSize = window.getInt(position + blockSize - 4);
+                window.position(position + 12 + extraLength);
+                window.get(compressed);
+                position += blockSize;
+
+                if (inflatedSize == 0) continue; //EOF marker
+
+                blocks.put(executorService.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws DataFormatException {
+                        Inflater inflater = new Inflater(true);
+                        byte[] inflated = new byte[inflatedSize];
+
+                        try {
+                            inflater.setInput(compressed);
+                            if (inflater.inflate(inflated) != inflatedSize) throw new DataFormatException("BGZF block inflated short of its recorded size");
+                        } finally {
+                            inflater.end();
+                        }
+
+                        return inflated;
+                    }
+                }));
+            }
+
+            offset += position;
+        }
+    }
+
+    private void readChunks(InputStream inputStream) throws IOException, InterruptedException {
+        int read;
+        byte[] chunk = new byte[chunkSize];
+
+        while ((read = inputStream.read(chunk)) != -1){
+            final byte[] copy = Arrays.copyOf(chunk, read);
+
+            //already read, nothing to hand to the pool
+            FutureTask<byte[]> future = new FutureTask<>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return copy;
+                }
+            });
+            future.run();
+
+            blocks.put(future);
+        }
+    }
+
+    private void splitLines(){
+        ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        ArrayList<String> lines = new ArrayList<>(linesPerBatch);
+
+        try {
+            byte[] block;
+
+            while ((block = take(blocks, endOfBlocks)) != null){
+                int start = 0;
+
+                for (int n = 0; n < block.length; ++n){
+                    if (block[n] != '\n') continue;
+
+                    String line;
+
+                    if (partialLine.size() > 0){
+                        partialLine.write(block, start, n - start);
+                        line = new String(partialLine.toByteArray(), StandardCharsets.UTF_8);
+                        partialLine.reset();
+                    } else {
+                        line = new String(block, start, n - start, StandardCharsets.UTF_8);
+                    }
+
+                    start = n + 1;
+                    addLine(lines, line);
+                }
+
+                partialLine.write(block, start, block.length - start);
+            }
+
+            if (partialLine.size() > 0) addLine(lines, new String(partialLine.toByteArray(), StandardCharsets.UTF_8));
+            if (lines.size() > 0) submitBatch(lines);
+
+            batches.put(endOfBatches);
+
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (final RuntimeException e){
+            try {
+                putFailure(batches, e);
+                batches.put(endOfBatches);
+            } catch (InterruptedException interruptedException){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void addLine(ArrayList<String> lines, String line) throws InterruptedException {
+        if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+        if (line.isEmpty() || line.startsWith("#")) return;
+
+        lines.add(line);
+
+        if (lines.size() == linesPerBatch){
+            submitBatch(new ArrayList<>(lines));
+            lines.clear();
+        }
+    }
+
+    private void submitBatch(final List<String> lines) throws InterruptedException {
+        batches.put(executorService.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                ArrayList<T> records = new ArrayList<>(lines.size());
+
+                for (String line : lines){
+                    T record = lineDecoder.decode(line);
+                    if (record != null) records.add(record);
+                }
+
+                return records;
+            }
+        }));
+    }
+
+    private <R> R take(BlockingQueue<Future<R>> queue, Future<R> end){
+        try {
+            Future<R> future = queue.take();
+            if (future == end) return null;
+            return future.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted reading " + file, e);
+        } catch (ExecutionException e){
+            throw new IllegalStateException("Could not read " + file + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static <R> void putFailure(BlockingQueue<Future<R>> queue, final Exception exception){
+        FutureTask<R> future = new FutureTask<>(new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                throw exception;
+            }
+        });
+        future.run();
+
+        try {
+            queue.put(future);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package nhs.genetics.cardiff;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A class assigning contigs to the stores of a sharded database
+ * <p>
+ * Contigs are grouped by contigIndex into shards of similar total length, unplaced contigs going to shard 0. The map
+ * is written to shards.properties in the database directory when the database is created and each shard is a
+ * complete embedded store in a shardN subdirectory, so shards can be imported, backed up and warmed independently.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ShardMap {
+
+    public static final String shardMapFile = "shards.properties";
+    private static final int lastContigIndex = 25;
+
+    private int shards;
+    private int[] contigIndexShards = new int[lastContigIndex + 1];
+
+    private ShardMap(int shards){
+        this.shards = shards;
+    }
+
+    /**
+     * @return contig groups balanced by length, longest contigs placed first
+     */
+    public static ShardMap create(int shards){
+        ShardMap shardMap = new ShardMap(shards);
+        long[] shardLengths = new long[shards];
+        Integer[] contigIndexes = new Integer[lastContigIndex];
+
+        for (int n = 0; n < lastContigIndex; ++n){
+            contigIndexes[n] = n + 1;
+        }
+
+        Arrays.sort(contigIndexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer contigIndex1, Integer contigIndex2) {
+                return Integer.compare(VariantRegionIndex.getContigLength(contigIndex2), VariantRegionIndex.getContigLength(contigIndex1));
+            }
+        });
+
+        for (int contigIndex : contigIndexes){
+            int shard = 0;
+
+            for (int n = 1; n < shards; ++n){
+                if (shardLengths[n] < shardLengths[shard]) shard = n;
+            }
+
+            shardMap.contigIndexShards[contigIndex] = shard;
+            shardLengths[shard] += VariantRegionIndex.getContigLength(contigIndex);
+        }
+
+        return shardMap;
+    }
+
+    public static boolean exists(File dbPath){
+        return new File(dbPath, shardMapFile).exists();
+    }
+
+    public static ShardMap load(File dbPath) throws IOException {
+        Properties properties = new Properties();
+
+        try (FileInputStream fileInputStream = new FileInputStream(new File(dbPath, shardMapFile))){
+            properties.load(fileInputStream);
+        }
+
+        try {
+            ShardMap shardMap = new ShardMap(Integer.parseInt(properties.getProperty("shards")));
+
+            for (int contigIndex = 0; contigIndex <= lastContigIndex; ++contigIndex){
+                shardMap.contigIndexShards[contigIndex] = Integer.parseInt(properties.getProperty("contigIndex." + contigIndex));
+                if (shardMap.contigIndexShards[contigIndex] < 0 || shardMap.contigIndexShards[contigIndex] >= shardMap.shards){
+                    throw new NumberFormatException("shard out of range for contigIndex " + contigIndex);
+                }
+            }
+
+            return shardMap;
+        } catch (NumberFormatException e){
+            throw new InvalidPropertiesFormatException("Malformed shard map in " + dbPath + ": " + e.getMessage());
+        }
+    }
+
+    public void save(File dbPath) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("shards", Integer.toString(shards));
+
+        for (int contigIndex = 0; contigIndex <= lastContigIndex; ++contigIndex){
+            properties.setProperty("contigIndex." + contigIndex, Integer.toString(contigIndexShards[contigIndex]));
+        }
+
+        if (!dbPath.isDirectory() && !dbPath.mkdirs()) throw new IOException("Could not create " + dbPath);
+
+        try (FileOutputStream fileOutputStream = new FileOutputStream(new File(dbPath, shardMapFile))){
+            properties.store(fileOutputStream, "contigIndex to shard");
+        }
+    }
+
+    public int getShard(String contig){
+        return contigIndexShards[VariantRegionIndex.getContigIndex(contig)];
+    }
+
+    public int getShardCount() {
+        return shards;
+    }
+
+    public File getShardPath(File dbPath, int shard){
+        return new File(dbPath, "shard" + shard);
+    }
+}
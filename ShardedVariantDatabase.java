@@ -0,0 +1,409 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.Locatable;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for importing into and querying a database split by contig over several embedded stores
+ * <p>
+ * Each shard is a VariantDatabase holding the variants of its contigs with their genotype and annotation subgraphs.
+ * Samples and analyses are replicated to every shard, symbols and features to every shard with variants in them.
+ * Imports read the input once and route each record to its shard's import through a bounded queue, shards writing
+ * in parallel. Lookups are routed by contig or federated across shards.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ShardedVariantDatabase {
+    private static final Logger log = Logger.getLogger(ShardedVariantDatabase.class.getName());
+
+    private static final int queueCapacity = 10000;
+
+    private File dbPath;
+    private ShardMap shardMap;
+    private ArrayList<VariantDatabase> shards = new ArrayList<>();
+    private ArrayList<ImportJournal> importJournals = new ArrayList<>();
+
+    //work run against one shard
+    private interface ShardTask {
+        void run(VariantDatabase shard) throws IOException;
+    }
+
+    //import of the records routed to one shard
+    private interface ShardImport<T> {
+        void run(VariantDatabase shard, VcfRecordIterator<T> records) throws IOException;
+    }
+
+    private static class ShardRecord<T> {
+        private final T record;
+        private final int source;
+
+        private ShardRecord(T record, int source){
+            this.record = record;
+            this.source = source;
+        }
+    }
+
+    //records routed to one shard, keeping the input each came from
+    private static class ShardQueue<T> implements VcfRecordIterator<T> {
+        private final BlockingQueue<ShardRecord<T>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final ShardRecord<T> end = new ShardRecord<>(null, -1);
+        private ShardRecord<T> next;
+        private int source = -1;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null){
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted reading shard records", e);
+                }
+            }
+            return next != end;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            T record = next.record;
+            source = next.source;
+            next = null;
+            return record;
+        }
+
+        @Override
+        public int getSource() {
+            return source;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * @param journalPrefix per-shard import journals are named prefix.shardN.journal, null for none
+     */
+    public ShardedVariantDatabase(List<VcfInput> vcfInputs, File dbPath, ShardMap shardMap, String journalPrefix){
+        this.dbPath = dbPath;
+        this.shardMap = shardMap;
+
+        for (int shard = 0; shard < shardMap.getShardCount(); ++shard){
+            ImportJournal importJournal = journalPrefix == null ? null : new ImportJournal(new File(journalPrefix + ".shard" + shard + ".journal"));
+            importJournals.add(importJournal);
+            shards.add(new VariantDatabase(vcfInputs, shardMap.getShardPath(dbPath, shard), importJournal));
+        }
+    }
+
+    /**
+     * Opens each shard's journal, resuming interrupted imports unless discarded
+     */
+    public void openJournals(boolean discard) throws IOException {
+        for (ImportJournal importJournal : importJournals){
+            if (discard && importJournal.exists()) importJournal.delete();
+            if (importJournal.exists()) importJournal.load();
+            importJournal.open();
+        }
+    }
+
+    public int getCommittedBatches() {
+        int committedBatches = 0;
+        for (ImportJournal importJournal : importJournals){
+            committedBatches += importJournal.getCommittedBatches();
+        }
+        return committedBatches;
+    }
+
+    public void deleteJournals() throws IOException {
+        for (ImportJournal importJournal : importJournals){
+            importJournal.delete();
+        }
+    }
+
+    public void setAnnotationFieldMapping(AnnotationFieldMapping annotationFieldMapping) {
+        for (VariantDatabase shard : shards) shard.setAnnotationFieldMapping(annotationFieldMapping);
+    }
+
+    public void setReplaceAnalyses(boolean replaceAnalyses) {
+        for (VariantDatabase shard : shards) shard.setReplaceAnalyses(replaceAnalyses);
+    }
+
+    public void setDeltaImport(boolean deltaImport) {
+        for (VariantDatabase shard : shards) shard.setDeltaImport(deltaImport);
+    }
+
+    public void setCompactStorage(boolean compactStorage) {
+        for (VariantDatabase shard : shards) shard.setCompactStorage(compactStorage);
+    }
+
+    public void setPackGenotypes(boolean packGenotypes) {
+        for (VariantDatabase shard : shards) shard.setPackGenotypes(packGenotypes);
+    }
+
+    public void startDatabase() throws IOException {
+        log.log(Level.INFO, "Starting " + shards.size() + " shards in " + dbPath);
+
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(VariantDatabase shard) {
+                shard.startDatabase();
+            }
+        });
+    }
+
+    public void createIndexes() throws IOException {
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(VariantDatabase shard) {
+                shard.createIndexes();
+            }
+        });
+    }
+
+    public void indexVariantPositions() throws IOException {
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(VariantDatabase shard) throws IOException {
+                shard.indexVariantPositions();
+            }
+        });
+    }
+
+    public void addSampleAndRunInfoNodes() throws IOException {
+
+        //replicated so each shard answers sample queries alone
+        for (VariantDatabase shard : shards){
+            shard.addSampleAndRunInfoNodes();
+        }
+    }
+
+    public void importVariants() throws IOException {
+        dispatch(shards.get(0).openGenotypeRecords(), new ShardImport<GenotypeRecord>() {
+            @Override
+            public void run(VariantDatabase shard, VcfRecordIterator<GenotypeRecord> records) throws IOException {
+                shard.importVariants(records);
+            }
+        });
+    }
+
+    public void importAnnotations() throws IOException {
+        dispatch(shards.get(0).openVariantContexts(), new ShardImport<VariantContext>() {
+            @Override
+            public void run(VariantDatabase shard, VcfRecordIterator<VariantContext> records) throws IOException {
+                shard.importAnnotations(records);
+            }
+        });
+    }
+
+    public void writeNewVariantsToVCF(){
+        VariantDatabase.writeNewVariantsToVCF(shards);
+    }
+
+    public void shutdownDatabase(){
+        for (VariantDatabase shard : shards){
+            shard.shutdownDatabase();
+        }
+    }
+
+    /**
+     * @return store holding a contig
+     */
+    public GraphDatabaseService getShardDatabase(String contig){
+        return shards.get(shardMap.getShard(contig)).getGraphDb();
+    }
+
+    /**
+     * @return properties of the variant, or null if not stored
+     */
+    public Map<String, Object> findVariant(String variantId){
+        GenomeVariant genomeVariant = VariantRegionIndex.parseVariantId(variantId);
+        if (genomeVariant == null) return null;
+
+        GraphDatabaseService graphDb = getShardDatabase(genomeVariant.getContig());
+        ArrayList<Node> variantNodes = Neo4j.getNodes(graphDb, VariantDatabase.getVariantLabel(), "variantId", variantId);
+
+        return variantNodes.size() == 0 ? null : getProperties(graphDb, variantNodes).get(0);
+    }
+
+    /**
+     * @return properties of variants overlapping a 1-based inclusive region ordered by position
+     */
+    public ArrayList<Map<String, Object>> findVariantsInRegion(String contig, int start, int end){
+        GraphDatabaseService graphDb = getShardDatabase(contig);
+        return getProperties(graphDb, VariantRegionIndex.findVariantsInRegion(graphDb, contig, start, end));
+    }
+
+    /**
+     * @return variantId, genotype relationship type and quality of every genotype of an analysis, from all shards
+     * and from genotype blocks when the analysis was packed
+     */
+    public ArrayList<Map<String, Object>> getGenotypes(final String analysisId) throws IOException {
+        final ArrayList<Map<String, Object>> genotypes = new ArrayList<>();
+        final HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("analysisId", analysisId);
+
+        forEachShard(new ShardTask() {
+            @Override
+            public void run(VariantDatabase shard) {
+                ArrayList<Map<String, Object>> shardGenotypes = new ArrayList<>();
+                GraphDatabaseService graphDb = shard.getGraphDb();
+                ArrayList<Node> runInfoNodes = Neo4j.getNodes(graphDb, VariantDatabase.getRunInfoLabel(), "analysisId", analysisId);
+
+                //packed analyses only have relationships for reportable variants, their blocks hold every genotype
+                if (runInfoNodes.size() > 0 && PackedGenotypeStore.hasBlocks(graphDb, runInfoNodes.get(0))){
+                    ArrayList<PackedGenotypeStore.PackedGenotype> packedGenotypes = PackedGenotypeStore.getGenotypes(graphDb, runInfoNodes.get(0));
+
+                    try (Transaction tx = graphDb.beginTx()){
+                        for (PackedGenotypeStore.PackedGenotype packedGenotype : packedGenotypes){
+                            HashMap<String, Object> genotype = new HashMap<>();
+                            genotype.put("variantId", graphDb.getNodeById(packedGenotype.getVariantNodeId()).getProperty("variantId"));
+                            genotype.put("genotype", packedGenotype.getRelationshipType().name());
+                            genotype.put("quality", packedGenotype.getQuality());
+                            shardGenotypes.add(genotype);
+                        }
+                        tx.success();
+                    }
+
+                } else {
+                    shardGenotypes.addAll(getRelatedGenotypes(graphDb, parameters));
+                }
+
+                synchronized (genotypes){
+                    genotypes.addAll(shardGenotypes);
+                }
+            }
+        });
+
+        return genotypes;
+    }
+
+    private static ArrayList<Map<String, Object>> getRelatedGenotypes(GraphDatabaseService graphDb, Map<String, Object> parameters){
+        ArrayList<Map<String, Object>> genotypes = new ArrayList<>();
+
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(
+                     "MATCH (r:RunInfo {analysisId: {analysisId}})-[g:" + VariantDatabase.getHasHetVariantRelationship().name() + "|" + VariantDatabase.getHasHomVariantRelationship().name() + "]->(v:Variant) " +
+                     "RETURN v.variantId AS variantId, type(g) AS genotype, g.quality AS quality", parameters)) {
+
+            while (result.hasNext()){
+                genotypes.add(result.next());
+            }
+
+            tx.success();
+        }
+
+        return genotypes;
+    }
+
+    private static ArrayList<Map<String, Object>> getProperties(GraphDatabaseService graphDb, List<Node> nodes){
+        ArrayList<Map<String, Object>> properties = new ArrayList<>();
+
+        try (Transaction tx = graphDb.beginTx()){
+            for (Node node : nodes){
+                properties.add(node.getAllProperties());
+            }
+            tx.success();
+        }
+
+        return properties;
+    }
+
+    private void forEachShard(final ShardTask shardTask) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(shards.size());
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+
+        for (final VariantDatabase shard : shards){
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    shardTask.run(shard);
+                    return null;
+                }
+            }));
+        }
+
+        executorService.shutdown();
+
+        try {
+            for (Future<Void> future : futures){
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e){
+            executorService.shutdownNow();
+            throw new IOException("Shard task failed: " + e.getMessage(), e);
+        }
+    }
+
+    private <T extends Locatable> void dispatch(VcfRecordIterator<T> records, final ShardImport<T> shardImport) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(shards.size());
+        ArrayList<ShardQueue<T>> queues = new ArrayList<>();
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+
+        //one import per shard, each reading its own queue
+        for (final VariantDatabase shard : shards){
+            final ShardQueue<T> queue = new ShardQueue<>();
+            queues.add(queue);
+
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    shardImport.run(shard, queue);
+                    return null;
+                }
+            }));
+        }
+
+        executorService.shutdown();
+
+        try {
+            while (records.hasNext()){
+                T record = records.next();
+                int shard = shardMap.getShard(record.getContig());
+                put(queues.get(shard), futures.get(shard), new ShardRecord<>(record, records.getSource()));
+            }
+
+            for (int shard = 0; shard < shards.size(); ++shard){
+                put(queues.get(shard), futures.get(shard), queues.get(shard).end);
+            }
+
+            for (Future<Void> future : futures){
+                future.get();
+            }
+
+        } catch (InterruptedException | ExecutionException e){
+            executorService.shutdownNow();
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            throw new IOException("Sharded import failed: " + cause.getMessage(), cause);
+        } finally {
+            records.close();
+        }
+
+    }
+
+    private static <T> void put(ShardQueue<T> queue, Future<Void> future, ShardRecord<T> shardRecord) throws InterruptedException, ExecutionException {
+
+        //a failed shard stops reading, so never block on it
+        while (!queue.queue.offer(shardRecord, 1, TimeUnit.SECONDS)){
+            if (future.isDone()){
+                future.get();
+                throw new ExecutionException(new IllegalStateException("Shard import finished before its input"));
+            }
+        }
+
+    }
+
+}
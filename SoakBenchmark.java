@@ -0,0 +1,191 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A soak benchmark importing successive synthetic worklists into one temporary embedded store
+ * <p>
+ * Each run generates a new worklist, imports its genotypes and then its annotations exactly as Main does, and appends
+ * a CSV line: records written to each VCF, variants new to the store and in the store, genotype and annotation
+ * throughput in VCF records, the time spent opening and shutting down the store, store size on disk and the heap
+ * high-water mark of that run. Runs continue until the store holds the target number of variants so that scaling
+ * cliffs show up as steps in the CSV.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class SoakBenchmark {
+    private static final Logger log = Logger.getLogger(SoakBenchmark.class.getName());
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.err.println("Usage: <work dir> <results.csv> [-t target variants] [-v variants per import] [-s samples] [-i indel rate] [-c]");
+            System.exit(1);
+        }
+
+        long targetVariants = 50000000L, importVariants = 1000000L;
+        int samples = 48;
+        double indelRate = 0.1;
+        boolean compactStorage = false;
+
+        for (int n = 2; n < args.length; ++n){
+            if (args[n].equals("-c")){
+                compactStorage = true;
+            } else if (args[n].equals("-t") && n + 1 < args.length){
+                targetVariants = Long.parseLong(args[++n]);
+            } else if (args[n].equals("-v") && n + 1 < args.length){
+                importVariants = Long.parseLong(args[++n]);
+            } else if (args[n].equals("-s") && n + 1 < args.length){
+                samples = Integer.parseInt(args[++n]);
+            } else if (args[n].equals("-i") && n + 1 < args.length){
+                indelRate = Double.parseDouble(args[++n]);
+            } else {
+                log.log(Level.SEVERE, "Unknown option " + args[n]);
+                System.exit(1);
+            }
+        }
+
+        File workDir = new File(args[0]);
+        if (!workDir.isDirectory() && !workDir.mkdirs()) throw new IOException("Could not create " + workDir);
+        File dbPath = Files.createTempDirectory(workDir.toPath(), "soak").toFile();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long storedVariants = 0;
+
+        try (PrintWriter results = new PrintWriter(new File(args[1]))){
+            results.println("run,samples,records,newVariants,storedVariants,genotypeSeconds,genotypeRecordsPerSecond,annotationSeconds,annotationRecordsPerSecond,storeOpenCloseSeconds,storeBytes,peakHeapBytes");
+
+            for (int run = 0; storedVariants < targetVariants; ++run){
+                File genotypeVcf = new File(workDir, "soak" + run + ".vcf");
+                File annotationVcf = new File(workDir, "soak" + run + "_annotated.vcf");
+
+                //new variants every run, analyses must not collide
+                SyntheticVcfGenerator generator = new SyntheticVcfGenerator(run);
+                generator.setSamples(samples);
+                generator.setVariants(Math.min(importVariants, targetVariants - storedVariants));
+                generator.setIndelRate(indelRate);
+                generator.setMinimumAlleleFrequency(1.0 / (2 * samples));
+                generator.setRunIds("SOAK" + run, "SOAK" + run);
+                long records = generator.write(genotypeVcf, annotationVcf); //one line per record in each VCF
+
+                if (records == 0){
+                    log.log(Level.WARNING, "Generator wrote no records, stopping");
+                    deleteVcf(genotypeVcf);
+                    deleteVcf(annotationVcf);
+                    break;
+                }
+
+                resetPeakHeap();
+
+                //genotypes, store open and shutdown timed separately
+                ArrayList<VcfInput> vcfInputs = new ArrayList<>();
+                vcfInputs.add(new VcfInput(genotypeVcf, threads));
+
+                long start = System.nanoTime();
+                VariantDatabase variantDatabase = new VariantDatabase(vcfInputs, dbPath);
+                variantDatabase.startDatabase();
+                if (run == 0) variantDatabase.createIndexes();
+                long storeNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                variantDatabase.addSampleAndRunInfoNodes();
+                variantDatabase.importVariants();
+                double genotypeSeconds = (System.nanoTime() - start) / 1e9;
+                long newVariants = variantDatabase.getNewVariantCount();
+
+                start = System.nanoTime();
+                variantDatabase.shutdownDatabase();
+                storeNanos += System.nanoTime() - start;
+                vcfInputs.get(0).close();
+
+                //annotations
+                vcfInputs.clear();
+                vcfInputs.add(new VcfInput(annotationVcf, threads));
+
+                start = System.nanoTime();
+                variantDatabase = new VariantDatabase(vcfInputs, dbPath);
+                variantDatabase.startDatabase();
+                variantDatabase.setCompactStorage(compactStorage);
+                storeNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                variantDatabase.importAnnotations();
+                double annotationSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                variantDatabase.shutdownDatabase();
+                storeNanos += System.nanoTime() - start;
+                vcfInputs.get(0).close();
+
+                storedVariants += newVariants;
+
+                results.println(run + "," + samples + "," + records + "," + newVariants + "," + storedVariants + "," +
+                        String.format("%.1f,%.0f,%.1f,%.0f,%.1f", genotypeSeconds, records / genotypeSeconds, annotationSeconds, records / annotationSeconds, storeNanos / 1e9) + "," +
+                        getSize(dbPath) + "," + getPeakHeap());
+                results.flush();
+
+                log.log(Level.INFO, "Soak run " + run + ": " + storedVariants + " variants stored");
+
+                deleteVcf(genotypeVcf);
+                deleteVcf(annotationVcf);
+
+                if (newVariants == 0){
+                    log.log(Level.WARNING, "Run " + run + " added no new variants, the store is no longer growing");
+                    break;
+                }
+            }
+        } finally {
+            FileUtils.deleteRecursively(dbPath);
+        }
+
+    }
+
+    private static void resetPeakHeap(){
+        for (MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()){
+            if (memoryPoolMXBean.getType() == MemoryType.HEAP) memoryPoolMXBean.resetPeakUsage();
+        }
+    }
+
+    private static long getPeakHeap(){
+        long peak = 0;
+
+        for (MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()){
+            if (memoryPoolMXBean.getType() == MemoryType.HEAP) peak += memoryPoolMXBean.getPeakUsage().getUsed();
+        }
+
+        return peak;
+    }
+
+    private static long getSize(File file){
+        if (file.isFile()) return file.length();
+
+        long size = 0;
+        File[] files = file.listFiles();
+
+        if (files != null){
+            for (File child : files){
+                size += getSize(child);
+            }
+        }
+
+        return size;
+    }
+
+    private static void deleteVcf(File vcf){
+        if (!vcf.delete()) log.log(Level.WARNING, "Could not delete " + vcf);
+        new File(vcf.getPath() + ".idx").delete();
+    }
+
+}
@@ -0,0 +1,357 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.vcf.VCFCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for writing synthetic, indexed test data: a multi-sample genotype VCF carrying ##SAMPLE metadata and a
+ * matching sites VCF annotated with VEP CSQ, population frequency and conservation fields
+ * <p>
+ * Variants are spread over the b37 contigs in proportion to their length. Allele frequencies are drawn from a power
+ * law spectrum, density proportional to f^-k between the minimum frequency and 0.5 (k=1 is the neutral spectrum), and
+ * genotypes from Hardy-Weinberg proportions; every record has at least one carrier so each becomes a stored variant.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class SyntheticVcfGenerator {
+    private static final Logger log = Logger.getLogger(SyntheticVcfGenerator.class.getName());
+
+    private static final String[] contigs = {"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y", "MT"};
+    private static final char[] bases = {'A', 'C', 'G', 'T'};
+    private static final String[] snpConsequences = {"missense_variant", "synonymous_variant", "intron_variant", "3_prime_UTR_variant", "5_prime_UTR_variant", "splice_region_variant", "stop_gained"};
+    private static final String[] indelConsequences = {"frameshift_variant", "inframe_deletion", "inframe_insertion", "intron_variant", "splice_region_variant"};
+    private static final String[] populations = {"AFR", "AMR", "EAS", "EUR", "SAS"};
+    private static final String[] exacPopulations = {"AFR", "AMR", "EAS", "NFE", "SAS", "FIN", "OTH"};
+    private static final String csqFormat = "Allele|Consequence|IMPACT|SYMBOL|Gene|Feature_type|Feature|BIOTYPE|EXON|INTRON|HGVSc|HGVSp|cDNA_position|CDS_position|Protein_position|Amino_acids|Codons|Existing_variation|DISTANCE|STRAND|SYMBOL_SOURCE|HGNC_ID|CANONICAL|CCDS|SIFT|PolyPhen|DOMAINS";
+    private static final int geneSize = 50000;
+
+    private Random random;
+    private int samples = 10;
+    private long variants = 100000;
+    private double indelRate = 0.1;
+    private double minimumAlleleFrequency = 0.001;
+    private double spectrumExponent = 1.0;
+    private double noCallRate = 0.01;
+    private String worklistId = "SYNTHETIC";
+    private String seqId = "SYNTHETIC";
+
+    public SyntheticVcfGenerator(long seed){
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("Usage: <output prefix> [-s samples] [-v variants] [-i indel rate] [-m minimum allele frequency] [-k spectrum exponent] [-r seed] [-w worklistId]");
+            System.exit(1);
+        }
+
+        long seed = 1;
+        String worklistId = "SYNTHETIC";
+        SyntheticVcfGenerator generator;
+        Integer samples = null;
+        Long variants = null;
+        Double indelRate = null, minimumAlleleFrequency = null, spectrumExponent = null;
+
+        for (int n = 1; n < args.length; ++n){
+            if (n + 1 == args.length){
+                log.log(Level.SEVERE, "Missing value for " + args[n]);
+                System.exit(1);
+            }
+
+            switch (args[n]) {
+                case "-s": samples = Integer.parseInt(args[++n]); break;
+                case "-v": variants = Long.parseLong(args[++n]); break;
+                case "-i": indelRate = Double.parseDouble(args[++n]); break;
+                case "-m": minimumAlleleFrequency = Double.parseDouble(args[++n]); break;
+                case "-k": spectrumExponent = Double.parseDouble(args[++n]); break;
+                case "-r": seed = Long.parseLong(args[++n]); break;
+                case "-w": worklistId = args[++n]; break;
+                default:
+                    log.log(Level.SEVERE, "Unknown option " + args[n]);
+                    System.exit(1);
+            }
+        }
+
+        generator = new SyntheticVcfGenerator(seed);
+        generator.setRunIds(worklistId, worklistId);
+        if (samples != null) generator.setSamples(samples);
+        if (variants != null) generator.setVariants(variants);
+        if (indelRate != null) generator.setIndelRate(indelRate);
+        if (minimumAlleleFrequency != null) generator.setMinimumAlleleFrequency(minimumAlleleFrequency);
+        if (spectrumExponent != null) generator.setSpectrumExponent(spectrumExponent);
+
+        generator.write(new File(args[0] + ".vcf"), new File(args[0] + "_annotated.vcf"));
+    }
+
+    public void setSamples(int samples) {
+        this.samples = samples;
+    }
+
+    public void setVariants(long variants) {
+        this.variants = variants;
+    }
+
+    public void setIndelRate(double indelRate) {
+        this.indelRate = indelRate;
+    }
+
+    public void setMinimumAlleleFrequency(double minimumAlleleFrequency) {
+        this.minimumAlleleFrequency = minimumAlleleFrequency;
+    }
+
+    public void setSpectrumExponent(double spectrumExponent) {
+        this.spectrumExponent = spectrumExponent;
+    }
+
+    public void setNoCallRate(double noCallRate) {
+        this.noCallRate = noCallRate;
+    }
+
+    /**
+     * Analyses are identified by WorklistId_ID_SeqId so repeated imports need distinct run ids
+     */
+    public void setRunIds(String worklistId, String seqId) {
+        this.worklistId = worklistId;
+        this.seqId = seqId;
+    }
+
+    /**
+     * @return records written to each VCF, fewer than requested when contigs fill up
+     */
+    public long write(File genotypeVcf, File annotationVcf) throws IOException {
+        log.log(Level.INFO, "Writing " + variants + " synthetic variants for " + samples + " samples to " + genotypeVcf + " and " + annotationVcf);
+
+        long totalLength = 0, written = 0;
+        for (int c = 0; c < contigs.length; ++c) totalLength += getContigLength(c);
+
+        try (PrintWriter genotypeWriter = new PrintWriter(genotypeVcf);
+             PrintWriter annotationWriter = new PrintWriter(annotationVcf)){
+
+            writeGenotypeHeader(genotypeWriter);
+            writeAnnotationHeader(annotationWriter);
+
+            for (int c = 0; c < contigs.length; ++c){
+                long contigVariants = Math.round((double) variants * getContigLength(c) / totalLength);
+                if (contigVariants == 0) continue;
+
+                //increasing positions with uniform gaps
+                int meanGap = (int) Math.max(1, getContigLength(c) / contigVariants);
+                int position = 0;
+
+                for (long v = 0; v < contigVariants; ++v){
+                    position += 1 + random.nextInt(2 * meanGap - 1);
+                    if (position > getContigLength(c) - 20) break;
+
+                    writeRecord(genotypeWriter, annotationWriter, contigs[c], position);
+                    written++;
+                }
+            }
+
+        }
+
+        index(genotypeVcf);
+        index(annotationVcf);
+
+        log.log(Level.INFO, "Wrote " + written + " synthetic variants");
+
+        return written;
+    }
+
+    private void writeGenotypeHeader(PrintWriter printWriter){
+        printWriter.println("##fileformat=VCFv4.1");
+        printWriter.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        printWriter.println("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">");
+        writeContigs(printWriter);
+
+        //same layout as addSampleMetaDataToVCF.sh
+        for (int n = 0; n < samples; ++n){
+            printWriter.println("##SAMPLE=<ID=" + getSampleId(n) + ",Tissue=Blood,WorklistId=" + worklistId + ",SeqId=" + seqId +
+                    ",Assay=Synthetic,PipelineName=Synthetic,PipelineVersion=1,RemoteBamFilePath=/synthetic/" + seqId + "/" + getSampleId(n) + ".bam" +
+                    ",RemoteVcfFilePath=/synthetic/" + seqId + "/" + seqId + "_Variants_Filtered.vcf>");
+        }
+
+        printWriter.print("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int n = 0; n < samples; ++n){
+            printWriter.print("\t" + getSampleId(n));
+        }
+        printWriter.println();
+    }
+
+    private void writeAnnotationHeader(PrintWriter printWriter){
+        printWriter.println("##fileformat=VCFv4.1");
+        printWriter.println("##INFO=<ID=CSQ,Number=.,Type=String,Description=\"Consequence type as predicted by VEP. Format: " + csqFormat + "\">");
+
+        for (String population : populations){
+            printWriter.println("##INFO=<ID=kGPhase3." + population + "_AF,Number=A,Type=Float,Description=\"1000 Genomes phase 3 " + population + " allele frequency\">");
+        }
+        for (String population : exacPopulations){
+            printWriter.println("##INFO=<ID=exac.AC_" + population + ",Number=A,Type=Integer,Description=\"ExAC " + population + " allele count\">");
+            printWriter.println("##INFO=<ID=exac.AN_" + population + ",Number=1,Type=Integer,Description=\"ExAC " + population + " allele number\">");
+        }
+
+        printWriter.println("##INFO=<ID=GERP,Number=A,Type=Float,Description=\"GERP++ RS score\">");
+        printWriter.println("##INFO=<ID=phastCons,Number=A,Type=Float,Description=\"phastCons score\">");
+        printWriter.println("##INFO=<ID=phyloP,Number=A,Type=Float,Description=\"phyloP score\">");
+        writeContigs(printWriter);
+        printWriter.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+    }
+
+    private static void writeContigs(PrintWriter printWriter){
+        for (int c = 0; c < contigs.length; ++c){
+            printWriter.println("##contig=<ID=" + contigs[c] + ",length=" + getContigLength(c) + ",assembly=b37>");
+        }
+    }
+
+    private void writeRecord(PrintWriter genotypeWriter, PrintWriter annotationWriter, String contig, int position){
+        String ref = String.valueOf(randomBase()), alt;
+        boolean indel = random.nextDouble() < indelRate;
+
+        if (!indel){
+            do {
+                alt = String.valueOf(randomBase());
+            } while (alt.equals(ref));
+        } else if (random.nextBoolean()){
+            alt = ref + randomBases(1 + random.nextInt(10)); //insertion
+        } else {
+            alt = ref;
+            ref = ref + randomBases(1 + random.nextInt(10)); //deletion
+        }
+
+        double alleleFrequency = getAlleleFrequency();
+
+        //genotypes
+        StringBuilder record = new StringBuilder();
+        record.append(contig).append("\t").append(position).append("\t.\t").append(ref).append("\t").append(alt).append("\t.\tPASS\t.\tGT:GQ");
+
+        String[] genotypes = new String[samples];
+        boolean carrier = false;
+
+        for (int n = 0; n < samples; ++n){
+            if (random.nextDouble() < noCallRate){
+                genotypes[n] = "./.";
+                continue;
+            }
+
+            int alternateAlleles = (random.nextDouble() < alleleFrequency ? 1 : 0) + (random.nextDouble() < alleleFrequency ? 1 : 0);
+            genotypes[n] = (alternateAlleles == 0 ? "0/0" : alternateAlleles == 1 ? "0/1" : "1/1") + ":" + (1 + random.nextInt(99));
+            if (alternateAlleles > 0) carrier = true;
+        }
+
+        if (!carrier) genotypes[random.nextInt(samples)] = "0/1:" + (1 + random.nextInt(99));
+
+        for (String genotype : genotypes){
+            record.append("\t").append(genotype);
+        }
+
+        genotypeWriter.println(record);
+
+        //annotations
+        annotationWriter.println(contig + "\t" + position + "\t.\t" + ref + "\t" + alt + "\t.\tPASS\t" + getAnnotationInfo(contig, position, ref, alt, alleleFrequency, indel));
+    }
+
+    private String getAnnotationInfo(String contig, int position, String ref, String alt, double alleleFrequency, boolean indel){
+        StringBuilder info = new StringBuilder("CSQ=");
+
+        //vep trims the shared first base of indels
+        String vepAllele = !indel ? alt : alt.length() > ref.length() ? alt.substring(1) : "-";
+        int gene = position / geneSize, transcripts = 1 + random.nextInt(3);
+        String symbol = "SYN" + contig + "G" + gene;
+
+        for (int t = 0; t < transcripts; ++t){
+            String consequence = indel ? indelConsequences[random.nextInt(indelConsequences.length)] : snpConsequences[random.nextInt(snpConsequences.length)];
+            String feature = String.format("ENST%011d", (long) gene * 10 + t);
+            int exons = 2 + random.nextInt(20), cdsPosition = 1 + random.nextInt(3000);
+
+            if (t > 0) info.append(",");
+            info.append(vepAllele).append("|")
+                    .append(consequence).append("|")
+                    .append(consequence.equals("stop_gained") || consequence.equals("frameshift_variant") ? "HIGH" : "MODERATE").append("|")
+                    .append(symbol).append("|")
+                    .append(String.format("ENSG%011d", (long) gene)).append("|")
+                    .append("Transcript|")
+                    .append(feature).append("|")
+                    .append("protein_coding|")
+                    .append(1 + random.nextInt(exons)).append("/").append(exons).append("||")
+                    .append(feature).append(":c.").append(cdsPosition).append(ref).append(">").append(alt).append("||")
+                    .append(cdsPosition).append("|").append(cdsPosition).append("|").append(1 + cdsPosition / 3).append("|||||")
+                    .append(random.nextBoolean() ? "1" : "-1").append("|")
+                    .append("HGNC||")
+                    .append(t == 0 ? "YES" : "").append("||")
+                    .append(indel ? "" : random.nextBoolean() ? "deleterious(0.01)" : "tolerated(0.4)").append("|")
+                    .append(indel ? "" : random.nextBoolean() ? "probably_damaging(0.98)" : "benign(0.02)").append("|")
+                    .append("Pfam_domain:PF").append(String.format("%05d", gene % 20000))
+                    .append("&hmmpanther:PTHR").append(gene % 50000)
+                    .append("&Superfamily_domains:SSF").append(gene % 60000);
+        }
+
+        //population frequencies scattered around the drawn frequency
+        for (String population : populations){
+            info.append(";kGPhase3.").append(population).append("_AF=").append(String.format("%.4f", scatter(alleleFrequency)));
+        }
+
+        for (String population : exacPopulations){
+            int alleleNumber = 100 + random.nextInt(20000);
+            info.append(";exac.AC_").append(population).append("=").append(Math.round(scatter(alleleFrequency) * alleleNumber));
+            info.append(";exac.AN_").append(population).append("=").append(alleleNumber);
+        }
+
+        info.append(";GERP=").append(String.format("%.2f", random.nextDouble() * 12.3 - 6.15));
+        info.append(";phastCons=").append(String.format("%.3f", random.nextDouble()));
+        info.append(";phyloP=").append(String.format("%.3f", random.nextDouble() * 20 - 10));
+
+        return info.toString();
+    }
+
+    /**
+     * @return frequency from a density proportional to f^-k on [minimum, 0.5] by inverting its distribution function
+     */
+    private double getAlleleFrequency(){
+        double u = random.nextDouble(), maximum = 0.5;
+
+        if (Math.abs(spectrumExponent - 1) < 1e-9){
+            return minimumAlleleFrequency * Math.pow(maximum / minimumAlleleFrequency, u);
+        }
+
+        double power = 1 - spectrumExponent;
+        return Math.pow(Math.pow(minimumAlleleFrequency, power) + u * (Math.pow(maximum, power) - Math.pow(minimumAlleleFrequency, power)), 1 / power);
+    }
+
+    private double scatter(double alleleFrequency){
+        return Math.min(1, alleleFrequency * (0.5 + random.nextDouble()));
+    }
+
+    private char randomBase(){
+        return bases[random.nextInt(bases.length)];
+    }
+
+    private String randomBases(int length){
+        StringBuilder sequence = new StringBuilder();
+        for (int n = 0; n < length; ++n) sequence.append(randomBase());
+        return sequence.toString();
+    }
+
+    private static int getContigLength(int c){
+        return VariantRegionIndex.getContigLength(VariantRegionIndex.getContigIndex(contigs[c]));
+    }
+
+    private String getSampleId(int n){
+        return String.format("%s_S%04d", seqId, n + 1);
+    }
+
+    private static void index(File vcf) throws IOException {
+        Index index = IndexFactory.createDynamicIndex(vcf, new VCFCodec());
+        index.writeBasedOnFeatureFile(vcf);
+    }
+
+}
@@ -1,6 +1,7 @@
 package nhs.genetics.cardiff;
 
-import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeaderLine;
@@ -10,6 +11,7 @@ import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,9 +27,44 @@ public class VariantDatabase {
 
     private File dbPath;
     private GraphDatabaseService graphDb;
-    private VCFFileReader vcfFileReader;
+    private List<VcfInput> vcfInputs;
+    private ImportJournal importJournal;
+    private AnnotationFieldMapping annotationFieldMapping = AnnotationFieldMapping.getDefaultMapping();
+    private boolean compactStorage = false;
+    private boolean replaceAnalyses = false;
+    private long[] replacedVariantNodeIds = new long[0]; //variants which lost a genotype when their analysis was replaced
+    private int replacedVariantCount = 0;
+    private boolean deltaImport = false;
+    private boolean packGenotypes = false;
+    private CompactEncoding compactEncoding;
+    private WriteScheduler writeScheduler;
+    private PackedGenotypeStore packedGenotypeStore;
+    private ContigDictionary contigDictionary;
     private HashMap<GenomeVariant, Node> addedVariantNodes = new HashMap<>(); //new variants added during this session
-    private HashMap<String, Node> runInfoNodes = new HashMap<>(); //analyses added during this session
+    private HashMap<GenomeVariant, Node> positionVariantNodes = new HashMap<>(); //existing variants resolved at the current position
+    private HashMap<GenomeVariant, Node> pendingVariantNodes = new HashMap<>(); //new variants in the uncommitted scheduled batch
+    private ArrayList<HashMap<String, Node>> runInfoNodes = new ArrayList<>(); //analyses added during this session for each input VCF
+    private HashMap<Node, GenotypeDeltaCursor> genotypeDeltaCursors = new HashMap<>(); //stored genotypes of each analysis in delta mode
+    private File spilledVariantsFile; //new variants moved out of the heap, as VCF lines
+    private int spilledVariants = 0;
+    private volatile int spillGeneration = 0; //lookahead results older than the last spill may miss spilled variants
+    private static final int initialBatchSize = 5000; //initial VCF records per committed transaction
+    private static final int minBatchSize = 500, maxBatchSize = 50000;
+    private AdaptiveBatchController batchController = new AdaptiveBatchController(initialBatchSize, minBatchSize, maxBatchSize);
+    private static final int annotationParseBatchSize = 500; //annotation records per parser task
+    private static final int lookaheadSize = 1000, lookaheadChunks = 4; //genotype records resolved per query, resolved chunks held ahead of the writer
+    private static final Future<LookaheadChunk> endOfLookahead = new FutureTask<>(new Callable<LookaheadChunk>() {
+        @Override
+        public LookaheadChunk call() {
+            return null;
+        }
+    });
+    private static final Future<List<AnnotationWriteCommand>> endOfAnnotationCommands = new FutureTask<>(new Callable<List<AnnotationWriteCommand>>() {
+        @Override
+        public List<AnnotationWriteCommand> call() {
+            return null;
+        }
+    });
 
     //DB model
     private static Label sampleLabel = Label.label("Sample");
@@ -49,6 +86,11 @@ public class VariantDatabase {
     private static Label variantPathogenicityLabel = Label.label("VariantPathogenicity");
     private static Label qualityControlLabel = Label.label("QualityControl");
     private static Label disorderLabel = Label.label("Disorder");
+    private static Label domainLabel = Label.label("Domain");
+    private static Label compactLayoutLabel = Label.label("CompactLayout");
+    private static Label positionIndexLabel = Label.label("PositionIndex");
+    private static Label genotypeBlockLabel = Label.label("GenotypeBlock");
+    private static Label reportableLabel = Label.label("Reportable");
     private static RelationshipType hasHetVariantRelationship = RelationshipType.withName("HAS_HET_VARIANT");
     private static RelationshipType hasHomVariantRelationship = RelationshipType.withName("HAS_HOM_VARIANT");
     private static RelationshipType inSymbolRelationship = RelationshipType.withName("IN_SYMBOL");
@@ -63,6 +105,7 @@ public class VariantDatabase {
     private static RelationshipType authorisedByRelationship = RelationshipType.withName("AUTHORISED_BY");
     private static RelationshipType rejectedByRelationship = RelationshipType.withName("REJECTED_BY");
     private static RelationshipType hasAssociatedSymbol = RelationshipType.withName("HAS_ASSOCIATED_SYMBOL");
+    private static RelationshipType hasGenotypeBlockRelationship = RelationshipType.withName("HAS_GENOTYPE_BLOCK");
 
     //todo add mutation taster
     //todo add splicing tools
@@ -76,9 +119,80 @@ public class VariantDatabase {
         AFR, AMR, EAS, EUR, SAS
     }
 
+    //one genotype relationship to write
+    private static class GenotypeWrite {
+        private final GenomeVariant genomeVariant;
+        private final String variantId;
+        private final short genotypeQuality;
+        private final Node runInfoNode;
+        private final RelationshipType relationshipType;
+        private long variantNodeId = unresolvedNodeId; //set by the lookahead before the writer sees it
+        private int spillGeneration;
+
+        private GenotypeWrite(GenomeVariant genomeVariant, short genotypeQuality, Node runInfoNode, RelationshipType relationshipType){
+            this.genomeVariant = genomeVariant;
+            this.variantId = genomeVariant.toString();
+            this.genotypeQuality = genotypeQuality;
+            this.runInfoNode = runInfoNode;
+            this.relationshipType = relationshipType;
+        }
+    }
+    private static final long unresolvedNodeId = -2, absentNodeId = -1;
+
+    //genotype records read ahead of the writer, their variants resolved in one query
+    private static class LookaheadChunk {
+        private final ArrayList<GenotypeRecord> records = new ArrayList<>(lookaheadSize);
+        private final ArrayList<Integer> sources = new ArrayList<>(lookaheadSize);
+        private final ArrayList<List<GenotypeWrite>> genotypeWrites = new ArrayList<>(lookaheadSize);
+    }
+
     public VariantDatabase(VCFFileReader vcfFileReader, File dbPath){
-        this.vcfFileReader = vcfFileReader;
+        this.vcfInputs = Collections.singletonList(new VcfInput(vcfFileReader));
+        this.dbPath = dbPath;
+    }
+
+    public VariantDatabase(List<VcfInput> vcfInputs, File dbPath){
+        this.vcfInputs = vcfInputs;
+        this.dbPath = dbPath;
+    }
+
+    public VariantDatabase(List<VcfInput> vcfInputs, File dbPath, ImportJournal importJournal){
+        this.vcfInputs = vcfInputs;
         this.dbPath = dbPath;
+        this.importJournal = importJournal;
+    }
+
+    /**
+     * Imports into a store started elsewhere, e.g. one of several concurrent worklists
+     */
+    public VariantDatabase(List<VcfInput> vcfInputs, GraphDatabaseService graphDb, ImportJournal importJournal){
+        this.vcfInputs = vcfInputs;
+        this.graphDb = graphDb;
+        this.importJournal = importJournal;
+    }
+
+    public void setAnnotationFieldMapping(AnnotationFieldMapping annotationFieldMapping) {
+        this.annotationFieldMapping = annotationFieldMapping;
+    }
+
+    public void setReplaceAnalyses(boolean replaceAnalyses) {
+        this.replaceAnalyses = replaceAnalyses;
+    }
+
+    public void setDeltaImport(boolean deltaImport) {
+        this.deltaImport = deltaImport;
+    }
+
+    public void setWriteScheduler(WriteScheduler writeScheduler) {
+        this.writeScheduler = writeScheduler;
+    }
+
+    public void setCompactStorage(boolean compactStorage) {
+        this.compactStorage = compactStorage;
+    }
+
+    public void setPackGenotypes(boolean packGenotypes) {
+        this.packGenotypes = packGenotypes;
     }
 
     public void startDatabase() {
@@ -107,19 +221,130 @@ public class VariantDatabase {
         Neo4j.createConstraint(graphDb, virtualPanelLabel, "virtualPanelId");
         Neo4j.createConstraint(graphDb, userLabel, "userId");
         Neo4j.createConstraint(graphDb, disorderLabel, "disorder");
+        Neo4j.createConstraint(graphDb, domainLabel, "domainId");
+        Neo4j.createCompositeIndex(graphDb, variantLabel, "contigIndex", "bin");
+        Neo4j.createIndex(graphDb, variantLabel, "position");
+        Neo4j.createIndex(graphDb, genotypeBlockLabel, "bucket");
+
+        //new variants carry their position so a new store never needs the backfill
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("positionIndexId", 1);
+        Neo4j.addNode(graphDb, positionIndexLabel, properties);
+
+    }
+
+    //existing database
+    public void indexVariantPositions() throws IOException {
+        if (Neo4j.getNodes(graphDb, positionIndexLabel, "positionIndexId", 1).size() > 0){
+            log.log(Level.INFO, "Variant positions already indexed");
+            return;
+        }
+
+        log.log(Level.INFO, "Indexing variant positions ...");
+
+        if (!Neo4j.hasIndex(graphDb, variantLabel, "contigIndex", "bin")) Neo4j.createCompositeIndex(graphDb, variantLabel, "contigIndex", "bin");
+        if (!Neo4j.hasIndex(graphDb, variantLabel, "position")) Neo4j.createIndex(graphDb, variantLabel, "position");
+
+        ExecutorService writerService = Executors.newSingleThreadExecutor();
+        Future<Integer> pendingBatch = null;
+        long[] nodeIds = new long[initialBatchSize];
+        int unindexed = 0;
+        long indexed = 0;
+
+        //one pass over the label; batches are committed on a second thread as transactions are bound to their thread
+        try (Transaction tx = graphDb.beginTx(); ResourceIterator<Node> variantNodes = graphDb.findNodes(variantLabel)){
+
+            while (variantNodes.hasNext()){
+                Node variantNode = variantNodes.next();
+                if (variantNode.hasProperty("position")) continue;
+
+                nodeIds[unindexed++] = variantNode.getId();
+
+                if (unindexed == nodeIds.length){
+                    indexed += awaitPositionBatch(pendingBatch);
+                    pendingBatch = submitPositionBatch(writerService, nodeIds, unindexed);
+                    nodeIds = new long[initialBatchSize];
+                    unindexed = 0;
+                }
+            }
+
+            indexed += awaitPositionBatch(pendingBatch);
+            indexed += awaitPositionBatch(submitPositionBatch(writerService, nodeIds, unindexed));
+
+            tx.success();
+        } finally {
+            writerService.shutdownNow();
+        }
+
+        //variants created by this importer always carry their position, so the backfill runs once per store
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("positionIndexId", 1);
+        Neo4j.addNode(graphDb, positionIndexLabel, properties);
+
+        log.log(Level.INFO, "Indexed " + indexed + " variants");
+    }
 
+    private Future<Integer> submitPositionBatch(ExecutorService writerService, final long[] nodeIds, final int length){
+        return writerService.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                HashMap<String, Object> properties = new HashMap<>();
+
+                try (Transaction tx = graphDb.beginTx()){
+
+                    for (int n = 0; n < length; ++n){
+                        Node variantNode = graphDb.getNodeById(nodeIds[n]);
+                        GenomeVariant genomeVariant = VariantRegionIndex.parseVariantId((String) variantNode.getProperty("variantId"));
+
+                        if (genomeVariant == null){
+                            log.log(Level.WARNING, "Could not parse " + variantNode.getProperty("variantId"));
+                            properties.put("position", -1);
+                        } else {
+                            VariantRegionIndex.addPositionProperties(properties, genomeVariant);
+                        }
+
+                        for (Map.Entry<String, Object> property : properties.entrySet()){
+                            variantNode.setProperty(property.getKey(), property.getValue());
+                        }
+                        properties.clear();
+                    }
+
+                    tx.success();
+                }
+
+                return length;
+            }
+        });
+    }
+
+    private static int awaitPositionBatch(Future<Integer> batch) throws IOException {
+        if (batch == null) return 0;
+
+        try {
+            return batch.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted indexing variant positions", e);
+        } catch (ExecutionException e){
+            throw new IOException("Could not index variant positions: " + e.getCause().getMessage(), e.getCause());
+        }
     }
 
     //import genotype VCF
-    public void addSampleAndRunInfoNodes() throws InvalidPropertiesFormatException {
+    public void addSampleAndRunInfoNodes() throws IOException {
         log.log(Level.INFO, "Adding sample and run info nodes ...");
 
         HashMap<String, Object> properties = new HashMap<>();
         HashMap<String, String> keyValuePairs = new HashMap<>();
-        Set<VCFHeaderLine> metaLines = vcfFileReader.getFileHeader().getMetaDataInInputOrder();
 
-        for (VCFHeaderLine line : metaLines){
-            if (line.getKey().equals("SAMPLE")){
+        if (packGenotypes) PackedGenotypeStore.createIndex(graphDb);
+
+        for (VcfInput vcfInput : vcfInputs){
+            HashMap<String, Node> fileRunInfoNodes = new HashMap<>();
+            runInfoNodes.add(fileRunInfoNodes);
+
+            for (VCFHeaderLine line : vcfInput.getFileHeader().getMetaDataInInputOrder()){
+                if (!line.getKey().equals("SAMPLE")) continue;
 
                 //split out key value pairs
                 for (String keyValuePair : line.getValue().split(",")){
@@ -135,9 +360,10 @@ public class VariantDatabase {
                 properties.clear();
 
                 //add run info
+                String analysisId = keyValuePairs.get("WorklistId") + "_" + keyValuePairs.get("ID") + "_" + keyValuePairs.get("SeqId");
                 properties.put("worklistId", keyValuePairs.get("WorklistId"));
                 properties.put("seqId", keyValuePairs.get("SeqId"));
-                properties.put("analysisId", keyValuePairs.get("WorklistId") + "_" + keyValuePairs.get("ID") + "_" + keyValuePairs.get("SeqId"));
+                properties.put("analysisId", analysisId);
                 properties.put("assay", keyValuePairs.get("Assay"));
                 properties.put("pipelineName", keyValuePairs.get("PipelineName"));
                 properties.put("pipelineVersion", Integer.parseInt(keyValuePairs.get("PipelineVersion")));
@@ -150,12 +376,57 @@ public class VariantDatabase {
                 if (keyValuePairs.containsKey("PercentageGt30")) properties.put("percentageGt30", keyValuePairs.get("percentageGt30"));
                 if (keyValuePairs.containsKey("DuplicationRate")) properties.put("duplicationRate", keyValuePairs.get("DuplicationRate"));
 
-                Node runInfoNode = Neo4j.addNode(graphDb, runInfoLabel, properties);
+                Node runInfoNode = null;
+
+                //resume interrupted import
+                if (importJournal != null && importJournal.getAnalysisIds().contains(analysisId)){
+                    ArrayList<Node> existingRunInfoNodes = Neo4j.getNodes(graphDb, runInfoLabel, "analysisId", analysisId);
+                    if (existingRunInfoNodes.size() == 1){
+                        log.log(Level.INFO, "Resuming analysis " + analysisId);
+                        runInfoNode = existingRunInfoNodes.get(0);
+                    }
+                }
+
+                //replace existing analysis, keeping the node and its other relationships
+                if (runInfoNode == null && replaceAnalyses){
+                    ArrayList<Node> existingRunInfoNodes = Neo4j.getNodes(graphDb, runInfoLabel, "analysisId", analysisId);
+                    if (existingRunInfoNodes.size() == 1){
+                        log.log(Level.INFO, "Replacing analysis " + analysisId);
+                        runInfoNode = existingRunInfoNodes.get(0);
+                        deleteGenotypes(runInfoNode);
+                        Neo4j.setNodeProperties(graphDb, runInfoNode, properties);
+                        if (importJournal != null) importJournal.addAnalysis(analysisId); //only once genotypes are gone
+                    }
+                }
+
+                //re-called analysis, only changed genotypes are written
+                if (runInfoNode == null && deltaImport){
+                    ArrayList<Node> existingRunInfoNodes = Neo4j.getNodes(graphDb, runInfoLabel, "analysisId", analysisId);
+                    if (existingRunInfoNodes.size() == 1){
+                        log.log(Level.INFO, "Applying changes to analysis " + analysisId);
+                        runInfoNode = existingRunInfoNodes.get(0);
+                        if (PackedGenotypeStore.hasBlocks(graphDb, runInfoNode)){
+                            throw new InvalidPropertiesFormatException("Analysis " + analysisId + " has packed genotypes and can only be replaced");
+                        }
+                        Neo4j.setNodeProperties(graphDb, runInfoNode, properties);
+                        if (importJournal != null && !importJournal.getAnalysisIds().contains(analysisId)) importJournal.addAnalysis(analysisId);
+                    }
+                }
+
+                //stored genotypes are only merged with when the analysis already exists
+                boolean storedAnalysis = runInfoNode != null;
+
+                if (runInfoNode == null){
+                    if (importJournal != null && !importJournal.getAnalysisIds().contains(analysisId)) importJournal.addAnalysis(analysisId);
+                    runInfoNode = Neo4j.addNode(graphDb, runInfoLabel, properties);
+                }
+
                 properties.clear();
 
                 //link sample and runInfo
                 Neo4j.createRelationship(graphDb, sampleNode, runInfoNode, hasAnalysisRelationship, null);
-                runInfoNodes.put(keyValuePairs.get("ID"), runInfoNode);
+                fileRunInfoNodes.put(keyValuePairs.get("ID"), runInfoNode);
+                if (deltaImport && storedAnalysis) genotypeDeltaCursors.put(runInfoNode, new GenotypeDeltaCursor(graphDb, runInfoNode));
 
                 keyValuePairs.clear();
 
@@ -164,77 +435,615 @@ public class VariantDatabase {
 
     }
 
-    public void importVariants() throws InvalidPropertiesFormatException {
+    /**
+     * Deletes the genotypes of a replaced analysis; variants which lost a genotype are only checked for deletion once
+     * the analysis has been re-imported, so variants it still carries keep their node and annotations
+     */
+    private void deleteGenotypes(Node runInfoNode) throws IOException {
+        ArrayList<Relationship> relationships = new ArrayList<>();
+        ArrayList<Long> variantNodeIds;
+        long deletedGenotypes = 0;
+
+        //packed genotypes first, so their variants are not counted as carried
+        do {
+
+            try (Transaction tx = graphDb.beginTx()) {
+                variantNodeIds = PackedGenotypeStore.deleteBlocks(graphDb, runInfoNode, initialBatchSize);
+
+                for (long variantNodeId : variantNodeIds){
+                    addReplacedVariant(graphDb.getNodeById(variantNodeId));
+                }
+
+                if (importJournal != null) importJournal.sync(); //a resumed import must still find these variants
+                tx.success();
+            }
+
+            deletedGenotypes += variantNodeIds.size();
+
+        } while (variantNodeIds.size() > 0);
+
+        //bounded, committed batches so dense analyses never need one large transaction
+        do {
+            relationships.clear();
+
+            try (Transaction tx = graphDb.beginTx()) {
+
+                for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, hasHetVariantRelationship, hasHomVariantRelationship)){
+                    relationships.add(relationship);
+                    if (relationships.size() == initialBatchSize) break;
+                }
+
+                for (Relationship relationship : relationships){
+                    addReplacedVariant(relationship.getEndNode());
+                    relationship.delete();
+                }
+
+                if (importJournal != null) importJournal.sync();
+                tx.success();
+            }
+
+            deletedGenotypes += relationships.size();
+
+        } while (relationships.size() == initialBatchSize);
+
+        log.log(Level.INFO, "Deleted " + deletedGenotypes + " genotypes");
+    }
+
+    private void addReplacedVariant(Node variantNode) throws IOException {
+        addReplacedVariant(variantNode.getId());
+        if (importJournal != null) importJournal.addReplacedVariant((String) variantNode.getProperty("variantId"));
+    }
+
+    private void addReplacedVariant(long variantNodeId){
+        if (replacedVariantCount == replacedVariantNodeIds.length){
+            replacedVariantNodeIds = Arrays.copyOf(replacedVariantNodeIds, Math.max(1024, replacedVariantCount * 2));
+        }
+        replacedVariantNodeIds[replacedVariantCount++] = variantNodeId;
+    }
+
+    //variants of replaced analyses which the re-import did not carry again
+    private void deleteReplacedOrphanVariants(){
+        if (replacedVariantCount == 0) return;
+
+        long[] variantNodeIds = Arrays.copyOf(replacedVariantNodeIds, replacedVariantCount);
+        long deletedVariants = 0;
+
+        replacedVariantNodeIds = new long[0];
+        replacedVariantCount = 0;
+
+        //sorted so duplicates, e.g. from overlapping blocks of an interrupted import, are adjacent
+        Arrays.sort(variantNodeIds);
+
+        for (int start = 0; start < variantNodeIds.length; start += initialBatchSize){
+
+            try (Transaction tx = graphDb.beginTx()) {
+
+                for (int n = start; n < Math.min(start + initialBatchSize, variantNodeIds.length); ++n){
+                    if (n > 0 && variantNodeIds[n] == variantNodeIds[n - 1]) continue;
+                    if (deleteOrphanVariant(graphDb.getNodeById(variantNodeIds[n]))) deletedVariants++;
+                }
+
+                tx.success();
+            }
+
+        }
+
+        log.log(Level.INFO, "Deleted " + deletedVariants + " orphaned variants");
+    }
+
+    /**
+     * Deletes a variant with no genotypes together with the symbol and annotation relationships it owns; variants with
+     * any other relationship, e.g. pathogenicity assessments, are kept, as are annotations other nodes still refer to
+     */
+    private boolean deleteOrphanVariant(Node variantNode){
+        ArrayList<Relationship> ownedRelationships = new ArrayList<>();
+        HashSet<Node> annotationNodes = new HashSet<>();
+
+        //still carried by a packed analysis
+        if (!PackedGenotypeStore.getCarriers(graphDb, variantNode.getId()).isEmpty()) return false;
+
+        for (Relationship relationship : variantNode.getRelationships()){
+            Node otherNode = relationship.getOtherNode(variantNode);
+            boolean outgoing = relationship.getStartNode().equals(variantNode);
+
+            if (outgoing && relationship.isType(inSymbolRelationship) && otherNode.hasLabel(symbolLabel)){
+                ownedRelationships.add(relationship);
+            } else if (outgoing && otherNode.hasLabel(annotationLabel)){
+                ownedRelationships.add(relationship);
+                annotationNodes.add(otherNode);
+            } else {
+                return false;
+            }
+        }
+
+        for (Relationship relationship : ownedRelationships){
+            relationship.delete();
+        }
+
+        for (Node annotationNode : annotationNodes){
+            ArrayList<Relationship> featureRelationships = new ArrayList<>();
+            boolean referenced = false;
+
+            for (Relationship relationship : annotationNode.getRelationships()){
+                if (relationship.getStartNode().equals(annotationNode) && relationship.isType(inFeatureRelationship)){
+                    featureRelationships.add(relationship);
+                } else {
+                    referenced = true;
+                    break;
+                }
+            }
+
+            if (referenced) continue;
+
+            for (Relationship relationship : featureRelationships){
+                relationship.delete();
+            }
+            annotationNode.delete();
+        }
+
+        variantNode.delete();
+
+        return true;
+    }
+
+    public void importVariants() throws IOException {
+        importVariants(openGenotypeRecords());
+    }
+
+    /**
+     * Imports records from an external stream, e.g. the part of a sharded import routed to this store
+     */
+    public void importVariants(final VcfRecordIterator<GenotypeRecord> genotypeRecordIterator) throws IOException {
         log.log(Level.INFO, "Importing variants ...");
 
-        GenomeVariant genomeVariant;
-        Iterator<VariantContext> variantContextIterator = vcfFileReader.iterator();
+        HashMap<String, Node> fileRunInfoNodes;
+        ArrayList<GenotypeWrite> genotypeWrites = new ArrayList<>();
+        long records = 0, skipRecords = 0;
+        int recordsInBatch = 0;
+        GenotypeRecord genotypeRecord = null, previousRecord = null;
+        LookaheadChunk chunk;
+
+        if (importJournal != null){
+            if (!deltaImport) skipRecords = importJournal.getCommittedRecords(); //delta records are replayed, unchanged genotypes are not rewritten
+            restoreJournalledVariants();
+        }
+
+        if (packGenotypes) packedGenotypeStore = new PackedGenotypeStore(graphDb);
+        contigDictionary = new ContigDictionary(getSequenceDictionary());
+
+        //records are parsed and their variants looked up ahead of the writer
+        final long lookaheadSkipRecords = skipRecords;
+        final ExecutorService resolverService = Executors.newSingleThreadExecutor();
+        final BlockingQueue<Future<LookaheadChunk>> resolvedChunks = new ArrayBlockingQueue<>(lookaheadChunks);
+
+        Thread lookaheadThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead(genotypeRecordIterator, lookaheadSkipRecords, resolverService, resolvedChunks);
+            }
+        }, "variant-lookahead");
+        lookaheadThread.setDaemon(true);
+        lookaheadThread.start();
 
-        //read variant VCF file
-        while (variantContextIterator.hasNext()) {
-            VariantContext variantContext = variantContextIterator.next();
+        //written as records stream, or as re-executable batches when the store is shared
+        Transaction tx = writeScheduler == null ? graphDb.beginTx() : null;
 
-            //skip filtered and non-variant loci
-            if (!variantContext.isFiltered() && variantContext.isVariant()){
-                Iterator<Genotype> genotypeIterator = variantContext.getGenotypes().iterator();
+        try {
 
-                //read genotypes
-                while (genotypeIterator.hasNext()) {
-                    Genotype genotype = genotypeIterator.next();
+            while ((chunk = takeLookaheadChunk(resolvedChunks)) != null) {
+                for (int n = 0; n < chunk.records.size(); ++n){
+                    genotypeRecord = chunk.records.get(n);
+                    records++;
 
-                    //skip no-calls, hom-refs,  mixed genotypes or alleles covered by nearby indels
-                    if (genotype.isNoCall() || genotype.isHomRef() || genotype.isFiltered()){
+                    //skip records committed before the import was interrupted
+                    if (records <= skipRecords){
+                        if (records == skipRecords && (!genotypeRecord.getContig().equals(importJournal.getLastContig()) || genotypeRecord.getStart() != importJournal.getLastPosition())){
+                            throw new InvalidPropertiesFormatException("Import journal does not match VCF at record " + records + ": " + genotypeRecord.getContig() + " " + genotypeRecord.getStart());
+                        }
                         continue;
                     }
-                    if (genotype.isMixed()){
-                        log.log(Level.WARNING, genotype.getSampleName() + ": " + variantContext.getContig() + " " + variantContext.getStart() + " " + variantContext.getReference() + variantContext.getAlternateAlleles().toString() + " has mixed genotype ( " + genotype.getGenotypeString() + " ) and could not be added.");
-                        continue;
+
+                    //variants are resolved once per position across all input files
+                    if (writeScheduler == null && (previousRecord == null || previousRecord.getStart() != genotypeRecord.getStart() || !previousRecord.getContig().equals(genotypeRecord.getContig()))){
+                        positionVariantNodes.clear();
                     }
-                    if (genotype.getPloidy() != 2 || genotype.getAlleles().size() != 2) {
-                        throw new InvalidPropertiesFormatException("Allele " + genotype.getAlleles().toString() + " is not diploid");
+                    previousRecord = genotypeRecord;
+                    fileRunInfoNodes = runInfoNodes.get(chunk.sources.get(n));
+
+                    //stored genotypes passed by the stream have vanished
+                    for (Node runInfoNode : fileRunInfoNodes.values()){
+                        GenotypeDeltaCursor genotypeDeltaCursor = genotypeDeltaCursors.get(runInfoNode);
+                        if (genotypeDeltaCursor != null) genotypeDeltaCursor.advanceTo(genotypeRecord.getContig(), genotypeRecord.getStart());
                     }
-                    if (genotype.getAlleles().get(0).getBaseString().equals("*") || genotype.getAlleles().get(1).getBaseString().equals("*")) {
-                        continue;
+
+                    genotypeWrites.addAll(chunk.genotypeWrites.get(n));
+
+                    if (writeScheduler == null){
+                        for (GenotypeWrite genotypeWrite : genotypeWrites){
+                            addVariantAndGenotype(genotypeWrite);
+                        }
+                        genotypeWrites.clear();
                     }
 
-                    //add new variants to the DB
-                    if (genotype.isHom()){
+                    //commit batch, sized to the heap and commit latency
+                    if (batchController.shouldCommit(++recordsInBatch)){
+                        long commitNanos;
+
+                        if (writeScheduler == null){
+                            long commitStart = System.nanoTime();
+                            tx = commitBatch(tx, records, genotypeRecord.getContig(), genotypeRecord.getStart());
+                            commitNanos = System.nanoTime() - commitStart;
+                        } else {
+                            commitNanos = scheduleBatch(genotypeWrites, records, genotypeRecord.getContig(), genotypeRecord.getStart());
+                            genotypeWrites.clear();
+                        }
 
-                        genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), genotype.getAlleles().get(1).getBaseString());
-                        genomeVariant.convertToMinimalRepresentation();
+                        batchController.committed(recordsInBatch, commitNanos);
+                        if (batchController.isHeapTight()) spillAddedVariants();
+                        recordsInBatch = 0;
+                    }
+                }
+            }
 
-                        addVariantAndGenotype(genomeVariant, (short) genotype.getGQ(), runInfoNodes.get(genotype.getSampleName()), hasHomVariantRelationship);
+            if (records < skipRecords){
+                throw new InvalidPropertiesFormatException("Import journal covers " + skipRecords + " records but VCF only contains " + records);
+            }
+
+            //commit remaining records
+            if (recordsInBatch > 0){
+                if (writeScheduler != null){
+                    scheduleBatch(genotypeWrites, records, genotypeRecord.getContig(), genotypeRecord.getStart());
+                } else {
+                    tx = commitBatch(tx, records, genotypeRecord.getContig(), genotypeRecord.getStart());
+                }
+            }
+
+        } finally {
+            if (tx != null) tx.close();
+            lookaheadThread.interrupt();
+            resolverService.shutdownNow();
+            genotypeRecordIterator.close();
+        }
 
-                    } else if (genotype.isHet()){
+        for (GenotypeDeltaCursor genotypeDeltaCursor : genotypeDeltaCursors.values()){
+            genotypeDeltaCursor.finish();
+        }
 
-                        genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), genotype.getAlleles().get(1).getBaseString());
-                        genomeVariant.convertToMinimalRepresentation();
+        //merge the blocks appended at each commit
+        if (packedGenotypeStore != null){
+            log.log(Level.INFO, "Compacting packed genotypes ...");
 
-                        addVariantAndGenotype(genomeVariant, (short) genotype.getGQ(), runInfoNodes.get(genotype.getSampleName()), hasHetVariantRelationship);
+            for (HashMap<String, Node> analyses : runInfoNodes){
+                for (Node runInfoNode : analyses.values()){
+                    packedGenotypeStore.compact(runInfoNode);
+                }
+            }
+        }
 
-                        if (genotype.isHetNonRef()){
+        deleteReplacedOrphanVariants();
 
-                            genomeVariant = new GenomeVariant(variantContext.getContig(), variantContext.getStart(), variantContext.getReference().getBaseString(), genotype.getAlleles().get(0).getBaseString());
-                            genomeVariant.convertToMinimalRepresentation();
+    }
 
-                            addVariantAndGenotype(genomeVariant, (short) genotype.getGQ(), runInfoNodes.get(genotype.getSampleName()), hasHetVariantRelationship);
-                        }
+    private void readAhead(VcfRecordIterator<GenotypeRecord> genotypeRecordIterator, long skipRecords, ExecutorService resolverService, BlockingQueue<Future<LookaheadChunk>> resolvedChunks){
+
+        try {
+            LookaheadChunk chunk = new LookaheadChunk();
+            long records = 0;
+
+            while (genotypeRecordIterator.hasNext()){
+                GenotypeRecord genotypeRecord = genotypeRecordIterator.next();
+                ArrayList<GenotypeWrite> genotypeWrites = new ArrayList<>();
+
+                //journalled records are only checked against the journal
+                if (++records > skipRecords){
+                    addGenotypeWrites(genotypeRecord, runInfoNodes.get(genotypeRecordIterator.getSource()), genotypeWrites);
+                }
+
+                chunk.records.add(genotypeRecord);
+                chunk.sources.add(genotypeRecordIterator.getSource());
+                chunk.genotypeWrites.add(genotypeWrites);
+
+                if (chunk.records.size() == lookaheadSize){
+                    batchController.awaitHeadroom(resolvedChunks);
+                    resolvedChunks.put(submitVariantResolution(resolverService, chunk));
+                    chunk = new LookaheadChunk();
+                }
+            }
+
+            if (chunk.records.size() > 0) resolvedChunks.put(submitVariantResolution(resolverService, chunk));
+            resolvedChunks.put(endOfLookahead);
+
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (final IOException | RuntimeException e){
+
+            //hand read failures to the writer
+            FutureTask<LookaheadChunk> failure = new FutureTask<>(new Callable<LookaheadChunk>() {
+                @Override
+                public LookaheadChunk call() throws Exception {
+                    throw e;
+                }
+            });
+            failure.run();
+
+            try {
+                resolvedChunks.put(failure);
+            } catch (InterruptedException interruptedException){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    private Future<LookaheadChunk> submitVariantResolution(ExecutorService resolverService, final LookaheadChunk chunk){
+        return resolverService.submit(new Callable<LookaheadChunk>() {
+            @Override
+            public LookaheadChunk call() {
+                TreeSet<String> variantIds = new TreeSet<>();
+                HashMap<String, Long> variantNodeIds = new HashMap<>();
+                HashMap<String, Object> parameters = new HashMap<>();
+
+                for (List<GenotypeWrite> genotypeWrites : chunk.genotypeWrites){
+                    for (GenotypeWrite genotypeWrite : genotypeWrites){
+                        variantIds.add(genotypeWrite.variantId);
+                    }
+                }
+
+                if (variantIds.isEmpty()) return chunk;
+
+                //read before the query, so a later spill invalidates what it misses
+                int generation = spillGeneration;
 
-                    } else {
-                        throw new InvalidPropertiesFormatException("Inheritance unknown: " + variantContext.toString());
+                //one read for the chunk, ids sorted so the index is walked in order
+                parameters.put("variantIds", new ArrayList<>(variantIds));
+
+                try (Transaction tx = graphDb.beginTx();
+                     Result result = graphDb.execute(
+                             "UNWIND {variantIds} AS variantId " +
+                             "MATCH (v:" + variantLabel.name() + " {variantId: variantId}) " +
+                             "RETURN variantId, id(v) AS nodeId", parameters)) {
+
+                    while (result.hasNext()){
+                        Map<String, Object> row = result.next();
+                        variantNodeIds.put((String) row.get("variantId"), (Long) row.get("nodeId"));
                     }
 
+                    tx.success();
                 }
 
+                for (List<GenotypeWrite> genotypeWrites : chunk.genotypeWrites){
+                    for (GenotypeWrite genotypeWrite : genotypeWrites){
+                        Long variantNodeId = variantNodeIds.get(genotypeWrite.variantId);
+                        genotypeWrite.variantNodeId = variantNodeId == null ? absentNodeId : variantNodeId;
+                        genotypeWrite.spillGeneration = generation;
+                    }
+                }
+
+                return chunk;
+            }
+        });
+    }
+
+    private static LookaheadChunk takeLookaheadChunk(BlockingQueue<Future<LookaheadChunk>> resolvedChunks) throws IOException {
+        try {
+            Future<LookaheadChunk> future = resolvedChunks.take();
+            if (future == endOfLookahead) return null;
+            return future.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted importing variants", e);
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Could not read variants: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void addGenotypeWrites(GenotypeRecord genotypeRecord, HashMap<String, Node> fileRunInfoNodes, List<GenotypeWrite> genotypeWrites) throws InvalidPropertiesFormatException {
+        GenomeVariant genomeVariant;
+
+        //filtered and non-variant loci are rejected before genotypes are decoded
+        for (int sample = 0; sample < genotypeRecord.getSampleCount(); ++sample) {
+
+            //skip no-calls, hom-refs,  mixed genotypes or alleles covered by nearby indels
+            if (genotypeRecord.isNoCall(sample) || genotypeRecord.isHomRef(sample) || genotypeRecord.isFiltered(sample)){
+                continue;
+            }
+            if (genotypeRecord.isMixed(sample)){
+                log.log(Level.WARNING, genotypeRecord.getSampleName(sample) + ": " + genotypeRecord.toString() + " has mixed genotype ( " + genotypeRecord.getGenotypeString(sample) + " ) and could not be added.");
+                continue;
+            }
+            if (genotypeRecord.getPloidy(sample) != 2) {
+                throw new InvalidPropertiesFormatException("Allele " + genotypeRecord.getGenotypeString(sample) + " is not diploid");
+            }
+            if (genotypeRecord.getAlleleBases(sample, 0).equals("*") || genotypeRecord.getAlleleBases(sample, 1).equals("*")) {
+                continue;
+            }
+
+            Node runInfoNode = fileRunInfoNodes.get(genotypeRecord.getSampleName(sample));
+            short genotypeQuality = (short) genotypeRecord.getGQ(sample);
+
+            //add new variants to the DB
+            if (genotypeRecord.isHom(sample)){
+
+                genomeVariant = new GenomeVariant(genotypeRecord.getContig(), genotypeRecord.getStart(), genotypeRecord.getRef(), genotypeRecord.getAlleleBases(sample, 1));
+                genomeVariant.convertToMinimalRepresentation();
+
+                genotypeWrites.add(new GenotypeWrite(genomeVariant, genotypeQuality, runInfoNode, hasHomVariantRelationship));
+
+            } else if (genotypeRecord.isHet(sample)){
+
+                genomeVariant = new GenomeVariant(genotypeRecord.getContig(), genotypeRecord.getStart(), genotypeRecord.getRef(), genotypeRecord.getAlleleBases(sample, 1));
+                genomeVariant.convertToMinimalRepresentation();
+
+                genotypeWrites.add(new GenotypeWrite(genomeVariant, genotypeQuality, runInfoNode, hasHetVariantRelationship));
+
+                if (genotypeRecord.isHetNonRef(sample)){
+
+                    genomeVariant = new GenomeVariant(genotypeRecord.getContig(), genotypeRecord.getStart(), genotypeRecord.getRef(), genotypeRecord.getAlleleBases(sample, 0));
+                    genomeVariant.convertToMinimalRepresentation();
+
+                    genotypeWrites.add(new GenotypeWrite(genomeVariant, genotypeQuality, runInfoNode, hasHetVariantRelationship));
+                }
+
+            } else {
+                throw new InvalidPropertiesFormatException("Inheritance unknown: " + genotypeRecord.toString());
+            }
+
+        }
+
+    }
+
+    //returns the commit time of the attempt which succeeded
+    private long scheduleBatch(List<GenotypeWrite> genotypeWrites, final long records, final String contig, final int position) throws IOException {
+        final ArrayList<GenotypeWrite> sortedWrites = new ArrayList<>(genotypeWrites);
+
+        //every writer locks shared variants in the same order
+        Collections.sort(sortedWrites, new Comparator<GenotypeWrite>() {
+            @Override
+            public int compare(GenotypeWrite genotypeWrite1, GenotypeWrite genotypeWrite2) {
+                return genotypeWrite1.variantId.compareTo(genotypeWrite2.variantId);
+            }
+        });
+
+        return writeScheduler.execute(new WriteScheduler.Batch() {
+            @Override
+            public void write() throws IOException {
+                for (GenotypeWrite genotypeWrite : sortedWrites){
+                    addVariantAndGenotype(genotypeWrite);
+                }
+                if (packedGenotypeStore != null) packedGenotypeStore.flush();
+
+                //new variants must reach the journal before their nodes are committed
+                if (importJournal != null){
+                    for (GenomeVariant genomeVariant : pendingVariantNodes.keySet()){
+                        importJournal.addVariant(genomeVariant);
+                    }
+                    importJournal.sync();
+                }
+            }
+
+            @Override
+            public void committed() throws IOException {
+                addedVariantNodes.putAll(pendingVariantNodes);
+                pendingVariantNodes.clear();
+                positionVariantNodes.clear();
+                if (importJournal != null) importJournal.commitBatch(records, contig, position);
+            }
+
+            @Override
+            public void rolledBack() {
+                if (packedGenotypeStore != null) packedGenotypeStore.clear();
+                pendingVariantNodes.clear();
+                positionVariantNodes.clear();
             }
+        });
+    }
+
+    public VcfRecordIterator<GenotypeRecord> openGenotypeRecords(){
+        ArrayList<CloseableIterator<GenotypeRecord>> iterators = new ArrayList<>();
+
+        for (VcfInput vcfInput : vcfInputs){
+            iterators.add(vcfInput.genotypeRecords());
+        }
+
+        return new MergedVcfIterator<>(iterators, getSequenceDictionary());
+    }
+
+    public VcfRecordIterator<VariantContext> openVariantContexts(){
+        ArrayList<CloseableIterator<VariantContext>> iterators = new ArrayList<>();
 
+        for (VcfInput vcfInput : vcfInputs){
+            iterators.add(vcfInput.iterator());
         }
 
+        return new MergedVcfIterator<>(iterators, getSequenceDictionary());
+    }
+
+    private SAMSequenceDictionary getSequenceDictionary(){
+        ArrayList<SAMSequenceDictionary> sequenceDictionaries = new ArrayList<>();
+
+        for (VcfInput vcfInput : vcfInputs){
+            sequenceDictionaries.add(vcfInput.getFileHeader().getSequenceDictionary());
+        }
+
+        return MergedVcfIterator.mergeSequenceDictionaries(sequenceDictionaries);
+    }
+
+    private Transaction commitBatch(Transaction tx, long records, String contig, int position) throws IOException {
+        if (packedGenotypeStore != null) packedGenotypeStore.flush();
+
+        //new variants must reach the journal before their nodes are committed
+        if (importJournal != null) importJournal.sync();
+
+        tx.success();
+        tx.close();
+
+        if (importJournal != null) importJournal.commitBatch(records, contig, position);
+
+        return graphDb.beginTx();
+    }
+
+    //committed new variants are found through the index once out of memory
+    private void spillAddedVariants() throws IOException {
+        if (addedVariantNodes.isEmpty()) return;
+
+        if (spilledVariantsFile == null){
+            spilledVariantsFile = File.createTempFile("imported", ".vcf");
+            spilledVariantsFile.deleteOnExit();
+        }
+
+        try (PrintWriter printWriter = new PrintWriter(new FileWriter(spilledVariantsFile, true))){
+            for (GenomeVariant genomeVariant : addedVariantNodes.keySet()){
+                printWriter.println(getVcfLine(genomeVariant));
+            }
+        }
+
+        log.log(Level.INFO, "Heap is tight, moved " + addedVariantNodes.size() + " new variants to " + spilledVariantsFile);
+
+        spillGeneration++;
+        spilledVariants += addedVariantNodes.size();
+        addedVariantNodes.clear();
+        positionVariantNodes.clear();
+    }
+
+    private void restoreJournalledVariants(){
+
+        //variants created before the import was interrupted still need annotating
+        for (String[] variant : importJournal.getVariants()){
+            GenomeVariant genomeVariant = new GenomeVariant(variant[0], Integer.parseInt(variant[1]), variant[2], variant[3]);
+            ArrayList<Node> variantNodes = Neo4j.getNodes(graphDb, variantLabel, "variantId", genomeVariant.toString());
+
+            if (variantNodes.size() == 1){
+                addedVariantNodes.put(genomeVariant, variantNodes.get(0));
+            }
+        }
+
+        if (addedVariantNodes.size() > 0) log.log(Level.INFO, "Restored " + addedVariantNodes.size() + " variants added before the import was interrupted");
+
+        //variants of replaced analyses, by variantId as node ids may be reused after a restart
+        for (String variantId : importJournal.getReplacedVariants()){
+            ArrayList<Node> variantNodes = Neo4j.getNodes(graphDb, variantLabel, "variantId", variantId);
+            if (variantNodes.size() == 1) addReplacedVariant(variantNodes.get(0).getId());
+        }
+
+        if (importJournal.getReplacedVariants().size() > 0) log.log(Level.INFO, "Restored " + importJournal.getReplacedVariants().size() + " variants of replaced analyses to check for deletion");
     }
 
     public void writeNewVariantsToVCF(){
+        writeNewVariantsToVCF(Collections.singletonList(this));
+    }
+
+    /**
+     * Writes variants added by several imports sharing one store to a single VCF
+     */
+    public static void writeNewVariantsToVCF(List<VariantDatabase> variantDatabases){
         log.log(Level.INFO, "Writing imported variants to VCF.");
 
+        HashMap<GenomeVariant, Node> addedVariantNodes = new HashMap<>();
+        for (VariantDatabase variantDatabase : variantDatabases){
+            addedVariantNodes.putAll(variantDatabase.addedVariantNodes);
+        }
+
         try (PrintWriter printWriter = new PrintWriter(new File("imported.vcf"))){
 
             printWriter.println("##fileformat=VCFv4.1");
@@ -242,19 +1051,19 @@ public class VariantDatabase {
 
             //write out variants
             for (Map.Entry<GenomeVariant, Node> iter : addedVariantNodes.entrySet()){
+                printWriter.println(getVcfLine(iter.getKey()));
+            }
 
-                printWriter.println
-                        (
-                                iter.getKey().getContig() + "\t" +
-                                        iter.getKey().getPos() + "\t" +
-                                        "." + "\t" +
-                                        iter.getKey().getRef() + "\t" +
-                                        iter.getKey().getAlt() + "\t" +
-                                        "." + "\t" +
-                                        "." + "\t" +
-                                        "."
-                        );
+            //and those moved out of memory
+            for (VariantDatabase variantDatabase : variantDatabases){
+                if (variantDatabase.spilledVariantsFile == null) continue;
 
+                try (BufferedReader bufferedReader = new BufferedReader(new FileReader(variantDatabase.spilledVariantsFile))){
+                    String line;
+                    while ((line = bufferedReader.readLine()) != null){
+                        printWriter.println(line);
+                    }
+                }
             }
         } catch (IOException e){
             log.log(Level.SEVERE, "Could not output variants.");
@@ -262,279 +1071,337 @@ public class VariantDatabase {
 
     }
 
-    private void addVariantAndGenotype(GenomeVariant genomeVariant, short genotypeQuality, Node runInfoNode, RelationshipType relationshipType){
-        HashMap<String, Object> properties = new HashMap<>();
-
-        try {
+    private static String getVcfLine(GenomeVariant genomeVariant){
+        return genomeVariant.getContig() + "\t" +
+                genomeVariant.getPos() + "\t" +
+                "." + "\t" +
+                genomeVariant.getRef() + "\t" +
+                genomeVariant.getAlt() + "\t" +
+                "." + "\t" +
+                "." + "\t" +
+                ".";
+    }
 
-            //create genotype relationship
-            properties.put("quality", genotypeQuality);
-            Neo4j.createRelationship(graphDb, runInfoNode, addedVariantNodes.get(genomeVariant), relationshipType, properties);
+    private void addVariantAndGenotype(GenotypeWrite genotypeWrite) throws IOException {
+        HashMap<String, Object> properties = new HashMap<>();
+        GenomeVariant genomeVariant = genotypeWrite.genomeVariant;
+        short genotypeQuality = genotypeWrite.genotypeQuality;
+        Node runInfoNode = genotypeWrite.runInfoNode;
+        RelationshipType relationshipType = genotypeWrite.relationshipType;
+
+        //delta import: stored genotypes are compared rather than added again
+        GenotypeDeltaCursor genotypeDeltaCursor = genotypeDeltaCursors.get(runInfoNode);
+        if (genotypeDeltaCursor != null && genotypeDeltaCursor.applyGenotype(genomeVariant, genotypeQuality, relationshipType)) return;
+
+        //lookups must not throw inside the batch transaction or the whole batch is rolled back
+        Node variantNode = addedVariantNodes.get(genomeVariant);
+        if (variantNode == null) variantNode = pendingVariantNodes.get(genomeVariant);
+        if (variantNode == null) variantNode = positionVariantNodes.get(genomeVariant);
+
+        //stored before the lookahead read it
+        if (variantNode == null && genotypeWrite.variantNodeId >= 0){
+            variantNode = graphDb.getNodeById(genotypeWrite.variantNodeId);
+            positionVariantNodes.put(genomeVariant, variantNode);
+        }
 
-        } catch(IllegalArgumentException | NullPointerException absentNodeException){
+        if (variantNode == null){
 
-            properties.clear();
+            //get variant node, unless the lookahead found none since the last spill and no other import writes to the store
+            ArrayList<Node> variantNodes = genotypeWrite.variantNodeId == absentNodeId && genotypeWrite.spillGeneration == spillGeneration && writeScheduler == null ?
+                    new ArrayList<Node>() : Neo4j.getNodes(graphDb, variantLabel, "variantId", genomeVariant.toString());
 
-            try {
+            if (variantNodes.size() > 0){
+                variantNode = variantNodes.get(0);
+                positionVariantNodes.put(genomeVariant, variantNode);
+            } else {
 
-                //get variant node
-                Node variantNode = Neo4j.getNodes(graphDb, variantLabel, "variantId", genomeVariant.toString()).get(0);
+                //add new variant with all its labels
+                properties.put("variantId", genomeVariant.toString());
+                VariantRegionIndex.addPositionProperties(properties, genomeVariant, contigDictionary.getContigIndex(genomeVariant.getContig()));
+                variantNode = Neo4j.addNode(graphDb, contigDictionary.getVariantLabels(genomeVariant), properties);
+                properties.clear();
 
-                //create genotype relationship
-                properties.put("quality", genotypeQuality);
-                Neo4j.createRelationship(graphDb, runInfoNode, variantNode, relationshipType, properties);
+                if (writeScheduler == null){
+                    addedVariantNodes.put(genomeVariant, variantNode);
+                    if (importJournal != null) importJournal.addVariant(genomeVariant);
+                } else {
+                    pendingVariantNodes.put(genomeVariant, variantNode); //kept only if the batch commits
+                }
+            }
 
-            } catch (IndexOutOfBoundsException indexOutOfBoundsException) {
+        }
 
-                properties.clear();
+        //packed genotypes are only also related for reportable variants
+        if (packedGenotypeStore != null){
+            packedGenotypeStore.add(runInfoNode, variantNode, genotypeQuality, relationshipType.equals(hasHomVariantRelationship));
+            if (!variantNode.hasLabel(reportableLabel)) return;
+        }
 
-                //add new variant
-                properties.put("variantId", genomeVariant.toString());
-                Node variantNode = Neo4j.addNode(graphDb, variantLabel, properties);
-                properties.clear();
+        //create genotype relationship
+        properties.put("quality", genotypeQuality);
+        Neo4j.createRelationship(graphDb, runInfoNode, variantNode, relationshipType, properties);
 
-                if (genomeVariant.getContig().equals("X")) {
-                    Neo4j.addNodeLabel(graphDb, variantNode, xChromLabel);
-                } else if (genomeVariant.getContig().equals("Y")) {
-                    Neo4j.addNodeLabel(graphDb, variantNode, yChromLabel);
-                } else if (Integer.parseInt(genomeVariant.getContig()) > 0 && Integer.parseInt(genomeVariant.getContig()) < 23) {
-                    Neo4j.addNodeLabel(graphDb, variantNode, autosomeLabel);
-                }
+    }
 
-                if (genomeVariant.isSnp()) Neo4j.addNodeLabel(graphDb, variantNode, snpLabel);
-                if (genomeVariant.isIndel()) Neo4j.addNodeLabel(graphDb, variantNode, indelLabel);
+    //import annotation VCF
+    public void importAnnotations() throws IOException {
+        importAnnotations(openVariantContexts());
+    }
 
-                //create genotype relationship
-                properties.put("quality", genotypeQuality);
-                Neo4j.createRelationship(graphDb, runInfoNode, variantNode, relationshipType, properties);
-                properties.clear();
+    public void importAnnotations(final VcfRecordIterator<VariantContext> variantContextIterator) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        log.log(Level.INFO, "Importing annotations using " + threads + " parser threads ...");
 
-                addedVariantNodes.put(genomeVariant, variantNode);
-            }
+        HashMap<Integer, HashMap<String, Node>> binVariantNodes = new HashMap<>(); //leaf bin of the stream and its parents
+        int contigIndex = -1, commandsInBatch = 0;
+        boolean imported = false;
+        List<AnnotationWriteCommand> commands;
 
+        if (compactStorage){
+            compactEncoding = CompactEncoding.open(graphDb, annotationFieldMapping.getNames());
         }
 
-    }
+        //parser pool turns records into write commands, returned in file order
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final BlockingQueue<Future<List<AnnotationWriteCommand>>> parsedCommands = new ArrayBlockingQueue<>(threads * 4);
 
-    //import annotation VCF
-    public void importAnnotations() throws InvalidPropertiesFormatException {
-        log.log(Level.INFO, "Importing annotations ...");
+        Thread dispatcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchAnnotations(variantContextIterator, executorService, parsedCommands);
+            }
+        }, "annotation-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
 
-        HashMap<String, Object> properties = new HashMap<>();
-        Iterator<VariantContext> variantContextIterator = vcfFileReader.iterator();
+        //this thread is the only writer
+        Transaction tx = graphDb.beginTx();
 
-        //read annotation VCF file
-        while (variantContextIterator.hasNext()) {
-            VariantContext variantContext = variantContextIterator.next();
+        try {
 
-            //loop up variant Node
-            String variantId = variantContext.getContig() + ":" +
-                    variantContext.getStart() +
-                    variantContext.getAlleles().get(0).getBaseString() + ">" +
-                    variantContext.getAlleles().get(1).getBaseString();
-            
-            Node variantNode = Neo4j.getNodes(graphDb, variantLabel, "variantId", variantId).get(0);
+            while ((commands = takeAnnotationCommands(parsedCommands)) != null) {
+                for (AnnotationWriteCommand command : commands){
 
-            //add dbSNP Id
-            if (variantContext.getID() != null && !variantContext.getID().equals("") && !variantContext.getID().equals(".")){
+                    //sorted merge join: load every variant in the record's bin once
+                    if (command.getContigIndex() != contigIndex){
+                        contigIndex = command.getContigIndex();
+                        binVariantNodes.clear();
+                    }
 
-                properties.put("dbSnpId", variantContext.getID());
-                Neo4j.addNodeProperties(graphDb, variantNode, properties);
+                    HashMap<String, Node> variantNodes = binVariantNodes.get(command.getBin());
 
-                properties.clear();
+                    //indels in parent bins interleave with the leaf bin, so both stay loaded until the stream passes them
+                    if (variantNodes == null){
+                        binVariantNodes.keySet().retainAll(VariantRegionIndex.getOverlappingBins(command.getPosition(), command.getPosition()));
+                        variantNodes = VariantRegionIndex.getVariantsInBin(graphDb, contigIndex, command.getBin());
+                        binVariantNodes.put(command.getBin(), variantNodes);
+                    }
+
+                    //variants imported before positions were indexed
+                    Node variantNode = variantNodes.get(command.getVariantId());
+                    if (variantNode == null) variantNode = Neo4j.getNodes(graphDb, variantLabel, "variantId", command.getVariantId()).get(0);
+
+                    writeAnnotations(variantNode, command);
+
+                    //commit batch, sized to the heap and commit latency
+                    if (batchController.shouldCommit(++commandsInBatch)){
+                        long commitStart = System.nanoTime();
+                        tx.success();
+                        tx.close();
+                        if (compactEncoding != null) compactEncoding.committed();
+                        batchController.committed(commandsInBatch, System.nanoTime() - commitStart);
+                        tx = graphDb.beginTx();
+                        commandsInBatch = 0;
+                    }
+                }
             }
 
-            addVepAnnotations(variantNode, variantContext);
-            addPopulationFrequencies(variantNode, variantContext);
-            addConservationScores(variantNode, variantContext);
+            tx.success();
+            imported = true;
 
+        } finally {
+            tx.close();
+            if (compactEncoding != null){
+                if (imported) compactEncoding.committed();
+                else compactEncoding.rolledBack();
+            }
+            dispatcherThread.interrupt();
+            executorService.shutdownNow();
+            variantContextIterator.close();
         }
-    }
 
-    private void addVepAnnotations(Node variantNode, VariantContext variantContext) throws InvalidPropertiesFormatException {
+    }
 
-        HashMap<String, Object> properties = new HashMap<>();
-        HashSet<VEPAnnotationv82> vepAnnotations = new HashSet<>();
-        Node symbolNode, featureNode, annotationNode;
+    private void dispatchAnnotations(VcfRecordIterator<VariantContext> variantContextIterator, ExecutorService executorService, BlockingQueue<Future<List<AnnotationWriteCommand>>> parsedCommands){
 
-        //split annotations and make unique
         try {
+            ArrayList<VariantContext> records = new ArrayList<>(annotationParseBatchSize);
+
+            while (variantContextIterator.hasNext()){
+                records.add(variantContextIterator.next());
+
+                if (records.size() == annotationParseBatchSize){
+                    batchController.awaitHeadroom(parsedCommands);
+                    parsedCommands.put(submitAnnotationParsing(executorService, records));
+                    records = new ArrayList<>(annotationParseBatchSize);
+                }
+            }
+
+            if (records.size() > 0) parsedCommands.put(submitAnnotationParsing(executorService, records));
+            parsedCommands.put(endOfAnnotationCommands);
 
-            //one annotation
-            VEPAnnotationv82 vepAnnotationv82 = new VEPAnnotationv82((String) variantContext.getAttribute("CSQ"));
-            vepAnnotationv82.parseAnnotation();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (final RuntimeException e){
 
-            if (!filterVepAnnotation(vepAnnotationv82)){
-                vepAnnotations.add(vepAnnotationv82);
+            //hand read failures to the writer
+            FutureTask<List<AnnotationWriteCommand>> failure = new FutureTask<>(new Callable<List<AnnotationWriteCommand>>() {
+                @Override
+                public List<AnnotationWriteCommand> call() {
+                    throw e;
+                }
+            });
+            failure.run();
+
+            try {
+                parsedCommands.put(failure);
+            } catch (InterruptedException interruptedException){
+                Thread.currentThread().interrupt();
             }
+        }
 
-        } catch (ClassCastException e) {
+    }
 
-            //multiple annotations
-            for (String annotation : (ArrayList<String>) variantContext.getAttribute("CSQ")) {
+    private Future<List<AnnotationWriteCommand>> submitAnnotationParsing(ExecutorService executorService, final List<VariantContext> records){
+        final AnnotationFieldMapping mapping = annotationFieldMapping;
 
-                VEPAnnotationv82 vepAnnotationv82 = new VEPAnnotationv82(annotation);
-                vepAnnotationv82.parseAnnotation();
+        return executorService.submit(new Callable<List<AnnotationWriteCommand>>() {
+            @Override
+            public List<AnnotationWriteCommand> call() {
+                ArrayList<AnnotationWriteCommand> commands = new ArrayList<>(records.size());
 
-                if (!filterVepAnnotation(vepAnnotationv82)) {
-                    vepAnnotations.add(vepAnnotationv82);
+                for (VariantContext variantContext : records){
+                    commands.add(AnnotationWriteCommand.parse(variantContext, mapping));
                 }
 
+                return commands;
             }
+        });
+    }
+
+    private static List<AnnotationWriteCommand> takeAnnotationCommands(BlockingQueue<Future<List<AnnotationWriteCommand>>> parsedCommands) throws IOException {
+        try {
+            Future<List<AnnotationWriteCommand>> future = parsedCommands.take();
+            if (future == endOfAnnotationCommands) return null;
+            return future.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted importing annotations", e);
+        } catch (ExecutionException e){
+            throw new IOException("Could not parse annotations: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void writeAnnotations(Node variantNode, AnnotationWriteCommand command) throws InvalidPropertiesFormatException {
 
+        HashMap<String, Object> properties = new HashMap<>();
+        Node symbolNode, featureNode, annotationNode;
+
+        //add dbSNP Id
+        if (command.getDbSnpId() != null){
+            properties.put("dbSnpId", command.getDbSnpId());
+            Neo4j.addNodeProperties(graphDb, variantNode, properties);
+            properties.clear();
         }
 
         //loop over annotations
-        for (VEPAnnotationv82 annotation : vepAnnotations) {
+        for (AnnotationWriteCommand.TranscriptAnnotation annotation : command.getTranscriptAnnotations()) {
 
             symbolNode = null;
             featureNode = null;
-            annotationNode = null;
 
             //add symbol
-            if (annotation.getSymbol() != null && !annotation.getSymbol().equals("")) {
-                symbolNode = Neo4j.matchOrCreateUniqueNode(graphDb, symbolLabel, "symbolId", annotation.getSymbol()); //add symbol
+            if (annotation.getSymbolId() != null) {
+                symbolNode = Neo4j.matchOrCreateUniqueNode(graphDb, symbolLabel, "symbolId", annotation.getSymbolId()); //add symbol
                 Neo4j.createRelationship(graphDb, variantNode, symbolNode, inSymbolRelationship, properties); //link variant and symbol
             }
 
             //add feature
-            if (annotation.getFeature() != null && !annotation.getFeature().equals("")) {
-                featureNode = Neo4j.matchOrCreateUniqueNode(graphDb, featureLabel, "featureId", annotation.getFeature()); //add feature
-
-                if (annotation.getFeature() != null) properties.put("featureId", annotation.getFeature());
-                if (annotation.getFeatureType() != null) properties.put("featureType", annotation.getFeatureType());
-                if (annotation.getCcds() != null) properties.put("ccdsId", annotation.getCcds());
-                if (annotation.getStrand() == 1) {
-                    properties.put("strand", true);
-                } else if (annotation.getStrand() == -1) {
-                    properties.put("strand", false);
-                }
-                if (annotation.getExon() != null) properties.put("totalExons", Short.parseShort(annotation.getExon().split("/")[1]));
-
-                Neo4j.addNodeProperties(graphDb, featureNode, properties);
-                properties.clear();
+            if (annotation.getFeatureId() != null) {
+                featureNode = Neo4j.matchOrCreateUniqueNode(graphDb, featureLabel, "featureId", annotation.getFeatureId()); //add feature
+                Neo4j.addNodeProperties(graphDb, featureNode, new HashMap<>(annotation.getFeatureProperties()));
 
                 if (annotation.isCanonical()) {
                     Neo4j.addNodeLabel(graphDb, featureNode, canonicalLabel);
                 }
             }
 
-            //add annotation
-            if (annotation.getHgvsc() != null) properties.put("hgvsc", annotation.getHgvsc());
-            if (annotation.getHgvsp() != null) properties.put("hgvsp", annotation.getHgvsp());
-            if (annotation.getExon() != null) properties.put("exon", annotation.getExon().split("/")[0]); //must remain as string, can be given as range i.e. 1-2
-            if (annotation.getIntron() != null) properties.put("intron", annotation.getIntron().split("/")[0]); //must remain as string, can be given as range i.e. 1-2
-            if (annotation.getSift() != null) properties.put("sift", annotation.getSift());
-            if (annotation.getPolyPhen() != null) properties.put("polyphen", annotation.getPolyPhen());
-            if (annotation.getCodons() != null) properties.put("codons", annotation.getCodons());
+            //add annotation with protein domains
+            properties.putAll(annotation.getAnnotationProperties());
 
-            //add protein domains Pfam_domain
-            if (annotation.getDomains().containsKey("Pfam_domain")){
-                properties.put("pfamDomain", annotation.getDomains().get("Pfam_domain").toArray(new String[annotation.getDomains().get("Pfam_domain").size()]));
-            }
-
-            //add protein domains hmmpanther
-            if (annotation.getDomains().containsKey("hmmpanther")){
-                properties.put("hmmPanther", annotation.getDomains().get("hmmpanther").toArray(new String[annotation.getDomains().get("hmmpanther").size()]));
-            }
-
-            //add protein domains PROSITE_profiles && PROSITE_patterns
-            if (annotation.getDomains().containsKey("PROSITE_profiles") || annotation.getDomains().containsKey("PROSITE_patterns")){
-
-                //combine Prosite numbers
-                HashSet<String> temp = new HashSet<>();
-                if (annotation.getDomains().containsKey("PROSITE_profiles")) temp.addAll(annotation.getDomains().get("PROSITE_profiles"));
-                if (annotation.getDomains().containsKey("PROSITE_patterns")) temp.addAll(annotation.getDomains().get("PROSITE_patterns"));
-
-                properties.put("prosite", temp.toArray(new String[temp.size()]));
-            }
-
-            //add protein domains Superfamily_domains
-            if (annotation.getDomains().containsKey("Superfamily_domains")){
-                properties.put("superfamilyDomains", annotation.getDomains().get("Superfamily_domains").toArray(new String[annotation.getDomains().get("Superfamily_domains").size()]));
+            for (Map.Entry<String, Collection<String>> domains : annotation.getDomains().entrySet()){
+                addDomains(properties, domains.getKey(), domains.getValue());
             }
 
             annotationNode = Neo4j.addNode(graphDb, annotationLabel, properties);
             properties.clear();
 
             //link consequences
-            if (annotation.getConsequences().size() > 0) {
-                for (String consequence : annotation.getConsequences()) {
-                    Neo4j.createRelationship(graphDb, variantNode, annotationNode, RelationshipType.withName("HAS_" + consequence.toUpperCase() + "_CONSEQUENCE"), properties);
+            if (annotation.getConsequenceRelationships().size() > 0) {
+                for (String consequenceRelationship : annotation.getConsequenceRelationships()) {
+                    Neo4j.createRelationship(graphDb, variantNode, annotationNode, RelationshipType.withName(consequenceRelationship), properties);
                 }
             } else {
                 Neo4j.createRelationship(graphDb, variantNode, annotationNode, hasUnknownConsequenceRelationship, properties);
             }
 
             //add in feature relationship
-            if (annotationNode != null && featureNode != null) {
+            if (featureNode != null) {
                 Neo4j.createRelationship(graphDb, annotationNode, featureNode, inFeatureRelationship, properties);
             }
 
             //add in symbol relationship
-            if (symbolNode != null && featureNode != null) {
-                Neo4j.createRelationship(graphDb, symbolNode, featureNode, RelationshipType.withName("HAS_" + annotation.getBiotype().toUpperCase() + "_BIOTYPE"), properties);
+            if (annotation.getBiotypeRelationship() != null) {
+                Neo4j.createRelationship(graphDb, symbolNode, featureNode, RelationshipType.withName(annotation.getBiotypeRelationship()), properties);
             }
 
         }
 
-    }
-
-    private void addPopulationFrequencies(Node variantNode, VariantContext variantContext){
+        addAnnotationFields(variantNode, command.getAnnotationFields()); //population frequencies and conservation scores
 
-        int minimumAllelesForAFCalculation = 120;
-        HashMap<String, Object> properties = new HashMap<>();
+    }
 
-        // 1000 genomes phase 3
-        for (kGPhase3Population populationFrequency : kGPhase3Population.values()){
-            if (variantContext.getAttribute("kGPhase3." + populationFrequency.toString() + "_AF") != null && !variantContext.getAttribute("kGPhase3." + populationFrequency.toString() + "_AF").equals(".")) {
-                properties.put("kGPhase3" + populationFrequency.toString() + "Af", Float.parseFloat((String) variantContext.getAttribute("kGPhase3." + populationFrequency.toString() + "_AF")));
-            }
+    private void addDomains(HashMap<String, Object> properties, String property, Collection<String> domains){
+        if (compactStorage){
+            properties.put(property + CompactEncoding.domainCodesSuffix, compactEncoding.encodeDomains(domains));
+        } else {
+            properties.put(property, domains.toArray(new String[domains.size()]));
         }
-
-        // Exome aggregation consortium
-        for (exacPopulation populationFrequency : exacPopulation.values()){
-            if (variantContext.getAttribute("exac.AC_" + populationFrequency.toString()) != null && !variantContext.getAttribute("exac.AC_" + populationFrequency.toString()).equals(".")
-                    && variantContext.getAttribute("exac.AN_" + populationFrequency.toString()) != null && !variantContext.getAttribute("exac.AN_" + populationFrequency.toString()).equals(".")
-                    && Integer.parseInt((String) variantContext.getAttribute("exac.AN_" + populationFrequency.toString())) > minimumAllelesForAFCalculation) {
-                properties.put("exac" + populationFrequency.toString() + "Af", Float.parseFloat((String) variantContext.getAttribute("exac.AC_" + populationFrequency.toString())) / Float.parseFloat((String) variantContext.getAttribute("exac.AN_" + populationFrequency.toString())));
-            }
-        }
-
-        Neo4j.addNodeProperties(graphDb, variantNode, properties);
-
     }
 
-    private void addConservationScores(Node variantNode, VariantContext variantContext){
-        HashMap<String, Object> properties = new HashMap<>();
+    private void addAnnotationFields(Node variantNode, Map<String, Object> annotationFields){
 
-        if (variantContext.getAttribute("GERP") != null && !variantContext.getAttribute("GERP").equals(".")) {
-            properties.put("gerp", Float.parseFloat((String) variantContext.getAttribute("GERP")));
-        }
-        if (variantContext.getAttribute("phastCons") != null && !variantContext.getAttribute("phastCons").equals(".")) {
-            properties.put("phastCons", Float.parseFloat((String) variantContext.getAttribute("phastCons")));
-        }
-        if (variantContext.getAttribute("phyloP") != null && !variantContext.getAttribute("phyloP").equals(".")) {
-            properties.put("phyloP", Float.parseFloat((String) variantContext.getAttribute("phyloP")));
+        if (annotationFields.size() > 0){
+            if (compactStorage){
+                compactEncoding.addAnnotationScores(variantNode, annotationFields);
+            } else {
+                Neo4j.addNodeProperties(graphDb, variantNode, new HashMap<>(annotationFields));
+            }
         }
 
-        Neo4j.addNodeProperties(graphDb, variantNode, properties);
-
     }
 
-    private static boolean filterVepAnnotation(VEPAnnotationv82 vepAnnotationv82) {
-
-        //check biotype
-        if (vepAnnotationv82.getBiotype() == null || !vepAnnotationv82.getBiotype().equals("protein_coding")) {
-            return true;
-        }
+    public GraphDatabaseService getGraphDb() {
+        return graphDb;
+    }
 
-        //check symbol source
-        if (vepAnnotationv82.getSymbolSource() == null || !vepAnnotationv82.getSymbolSource().equals("HGNC")) {
-            return true;
-        }
+    public int getNewVariantCount() {
+        return addedVariantNodes.size() + spilledVariants;
+    }
 
-        return false;
+    //export genotypes
+    public void exportGenotypes(File outputFile, int threads) throws IOException {
+        new GenotypeExporter(graphDb).export(outputFile, threads);
     }
 
     public void shutdownDatabase(){
@@ -673,4 +1540,24 @@ public class VariantDatabase {
     public static Label getQualityControlLabel() {
         return qualityControlLabel;
     }
-}
\ No newline at end of file
+
+    public static Label getDomainLabel() {
+        return domainLabel;
+    }
+
+    public static Label getCompactLayoutLabel() {
+        return compactLayoutLabel;
+    }
+
+    public static Label getGenotypeBlockLabel() {
+        return genotypeBlockLabel;
+    }
+
+    public static Label getReportableLabel() {
+        return reportableLabel;
+    }
+
+    public static RelationshipType getHasGenotypeBlockRelationship() {
+        return hasGenotypeBlockRelationship;
+    }
+}
@@ -0,0 +1,167 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A class of functions for the genomic position index on variant nodes
+ * <p>
+ * Each variant node carries contigIndex (1-22, X=23, Y=24, MT=25, other contigs 0), 1-based position and end
+ * of the reference allele, and the UCSC bin of that interval. A composite index on (contigIndex, bin) serves region
+ * lookups and windowed scans, which read the bins of a window and order by position.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class VariantRegionIndex {
+
+    private static final Pattern variantIdPattern = Pattern.compile("^([^:]+):(\\d+)([^>]+)>(.+)$");
+    private static final int[] binOffsets = {512 + 64 + 8 + 1, 64 + 8 + 1, 8 + 1, 1, 0};
+    private static final int binFirstShift = 17, binNextShift = 3;
+    private static final int[] contigLengths = {0, 249250621, 243199373, 198022430, 191154276, 180915260, 171115067, 159138663, 146364022, 141213431, 135534747,
+            135006516, 133851895, 115169878, 107349540, 102531392, 90354753, 81195210, 78077248, 59128983, 63025520, 48129895, 51304566, 155270560, 59373566, 16569}; //b37 by contigIndex
+
+    public static int getContigIndex(String contig){
+        String name = contig.startsWith("chr") ? contig.substring(3) : contig;
+
+        switch (name) {
+            case "X": return 23;
+            case "Y": return 24;
+            case "M": case "MT": return 25;
+        }
+
+        if (name.length() > 2) return 0;
+
+        for (int n = 0; n < name.length(); ++n){
+            if (!Character.isDigit(name.charAt(n))) return 0;
+        }
+
+        int index = Integer.parseInt(name);
+        return index > 0 && index < 23 ? index : 0;
+    }
+
+    /**
+     * @return b37 length of an indexed contig, 0 for other contigs
+     */
+    public static int getContigLength(int contigIndex){
+        return contigLengths[contigIndex];
+    }
+
+    /**
+     * @return UCSC bin for a 1-based inclusive interval
+     */
+    public static int getBin(int start, int end){
+        int startBin = (start - 1) >> binFirstShift, endBin = (end - 1) >> binFirstShift;
+
+        for (int binOffset : binOffsets){
+            if (startBin == endBin) return binOffset + startBin;
+            startBin >>= binNextShift;
+            endBin >>= binNextShift;
+        }
+
+        throw new IllegalArgumentException("Interval " + start + "-" + end + " out of range for binning");
+    }
+
+    /**
+     * @return all UCSC bins which may contain features overlapping a 1-based inclusive interval
+     */
+    public static ArrayList<Integer> getOverlappingBins(int start, int end){
+        ArrayList<Integer> bins = new ArrayList<>();
+        int startBin = (start - 1) >> binFirstShift, endBin = (end - 1) >> binFirstShift;
+
+        for (int binOffset : binOffsets){
+            for (int bin = startBin; bin <= endBin; ++bin){
+                bins.add(binOffset + bin);
+            }
+            startBin >>= binNextShift;
+            endBin >>= binNextShift;
+        }
+
+        return bins;
+    }
+
+    public static void addPositionProperties(HashMap<String, Object> properties, GenomeVariant genomeVariant){
+        addPositionProperties(properties, genomeVariant, getContigIndex(genomeVariant.getContig()));
+    }
+
+    public static void addPositionProperties(HashMap<String, Object> properties, GenomeVariant genomeVariant, int contigIndex){
+        int end = genomeVariant.getPos() + genomeVariant.getRef().length() - 1;
+
+        properties.put("contigIndex", contigIndex);
+        properties.put("position", genomeVariant.getPos());
+        properties.put("end", end);
+        properties.put("bin", getBin(genomeVariant.getPos(), end));
+    }
+
+    /**
+     * @return variant described by a variantId (contig:posREF&gt;ALT), or null if malformed
+     */
+    public static GenomeVariant parseVariantId(String variantId){
+        Matcher matcher = variantIdPattern.matcher(variantId);
+        if (!matcher.matches()) return null;
+        return new GenomeVariant(matcher.group(1), Integer.parseInt(matcher.group(2)), matcher.group(3), matcher.group(4));
+    }
+
+    /**
+     * @return variants overlapping a 1-based inclusive region ordered by position
+     */
+    public static ArrayList<Node> findVariantsInRegion(final GraphDatabaseService graphDb, String contig, int start, int end){
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("contigIndex", getContigIndex(contig));
+        parameters.put("bins", getOverlappingBins(start, end));
+        parameters.put("start", start);
+        parameters.put("end", end);
+
+        return getVariantNodes(graphDb,
+                "UNWIND {bins} AS bin MATCH (v:Variant {contigIndex: {contigIndex}, bin: bin}) " +
+                "WHERE v.position <= {end} AND v.end >= {start} " +
+                "RETURN v ORDER BY v.position, v.variantId", parameters);
+    }
+
+    /**
+     * @return variants stored in a single bin, keyed by variantId
+     */
+    public static HashMap<String, Node> getVariantsInBin(final GraphDatabaseService graphDb, int contigIndex, int bin){
+        HashMap<String, Node> variantNodes = new HashMap<>();
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("contigIndex", contigIndex);
+        parameters.put("bin", bin);
+
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute("MATCH (v:Variant {contigIndex: {contigIndex}, bin: {bin}}) RETURN v", parameters)) {
+
+            while (result.hasNext()) {
+                Node variantNode = (Node) result.next().get("v");
+                variantNodes.put((String) variantNode.getProperty("variantId"), variantNode);
+            }
+
+            tx.success();
+        }
+
+        return variantNodes;
+    }
+
+    private static ArrayList<Node> getVariantNodes(final GraphDatabaseService graphDb, String cypherQuery, Map<String, Object> parameters){
+        ArrayList<Node> variantNodes = new ArrayList<>();
+
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(cypherQuery, parameters)) {
+
+            while (result.hasNext()) {
+                variantNodes.add((Node) result.next().get("v"));
+            }
+
+            tx.success();
+        }
+
+        return variantNodes;
+    }
+
+}
@@ -0,0 +1,106 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+
+/**
+ * An input VCF with its index, read either through htsjdk or on a thread pool
+ * <p>
+ * Tabix (.tbi) indexes are used when present, otherwise the Tribble (.idx) index.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class VcfInput implements Closeable {
+
+    private File file;
+    private VCFFileReader vcfFileReader;
+    private int threads;
+
+    public VcfInput(File file, int threads){
+        File tabixIndex = new File(file.getPath() + ".tbi");
+
+        this.file = file;
+        this.threads = threads;
+        this.vcfFileReader = new VCFFileReader(file, tabixIndex.exists() ? tabixIndex : new File(file.getPath() + ".idx"));
+    }
+
+    public VcfInput(VCFFileReader vcfFileReader){
+        this.vcfFileReader = vcfFileReader;
+        this.threads = 1;
+    }
+
+    public static boolean isIndexed(File file){
+        return new File(file.getPath() + ".tbi").exists() || new File(file.getPath() + ".idx").exists();
+    }
+
+    public VCFHeader getFileHeader(){
+        return vcfFileReader.getFileHeader();
+    }
+
+    /**
+     * @return records in file order, decoded on a thread pool when more than one thread is available
+     */
+    public CloseableIterator<VariantContext> iterator(){
+        if (file != null && threads > 1){
+            return ParallelVcfReader.forVariantContexts(file, vcfFileReader.getFileHeader(), threads);
+        }
+        return vcfFileReader.iterator();
+    }
+
+    /**
+     * @return genotype calls decoded straight from the raw lines, or from htsjdk records when no file is available
+     */
+    public CloseableIterator<GenotypeRecord> genotypeRecords(){
+        final List<String> sampleNames = vcfFileReader.getFileHeader().getGenotypeSamples();
+
+        if (file != null){
+            return new ParallelVcfReader<>(file, new GenotypeLineDecoder(sampleNames), threads);
+        }
+
+        final CloseableIterator<VariantContext> iterator = vcfFileReader.iterator();
+
+        return new CloseableIterator<GenotypeRecord>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public GenotypeRecord next() {
+                return GenotypeRecord.fromVariantContext(iterator.next(), sampleNames);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                iterator.close();
+            }
+        };
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public void close() {
+        vcfFileReader.close();
+    }
+
+}
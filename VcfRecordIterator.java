@@ -0,0 +1,18 @@
+package nhs.genetics.cardiff;
+
+import java.util.Iterator;
+
+/**
+ * An iterator over records of one or more input VCFs which reports the input of the last record returned
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public interface VcfRecordIterator<T> extends Iterator<T> {
+
+    //index into the inputs of the record last returned by next()
+    int getSource();
+
+    void close();
+}
@@ -0,0 +1,140 @@
+package nhs.genetics.cardiff;
+
+import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class for committing write batches from several imports sharing one store
+ * <p>
+ * Batches acquire locks in a fixed order, callers sorting their writes by variantId, which removes most lock cycles
+ * between writers of shared Variant nodes. Deadlocks, transient failures and two writers racing to create the same
+ * Variant which remain are retried with jittered exponential backoff by rolling back and re-running the whole batch,
+ * so batches must be re-executable and keep state created in an attempt pending until it commits. Any other
+ * constraint violation fails the batch at once.
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class WriteScheduler {
+    private static final Logger log = Logger.getLogger(WriteScheduler.class.getName());
+
+    private static final int maxAttempts = 10;
+    private static final long initialBackoffMillis = 50, maxBackoffMillis = 5000;
+
+    //the message of a uniqueness violation on Variant variantId, the only constraint concurrent imports can race on
+    private static final Pattern variantIdRace = Pattern.compile("already exists with label [`\"]?" +
+            VariantDatabase.getVariantLabel().name() + "[`\"]? and propert(y|ies) [`\"(\\[]*variantId\\b");
+
+    private GraphDatabaseService graphDb;
+    private final Random random = new Random();
+    private final AtomicLong committedBatches = new AtomicLong(), retriedBatches = new AtomicLong();
+
+    /**
+     * A unit of work which may be run more than once
+     */
+    public interface Batch {
+
+        //called inside the transaction, again after every rollback
+        void write() throws IOException;
+
+        //called once the transaction has committed
+        void committed() throws IOException;
+
+        //called when an attempt is rolled back, to discard pending state
+        void rolledBack();
+    }
+
+    public WriteScheduler(GraphDatabaseService graphDb){
+        this.graphDb = graphDb;
+    }
+
+    /**
+     * @return nanoseconds taken to commit the successful attempt, excluding its writes, failed attempts and backoff
+     */
+    public long execute(Batch batch) throws IOException {
+
+        for (int attempt = 1; ; ++attempt){
+            long commitStart;
+
+            try {
+                try (Transaction tx = graphDb.beginTx()){
+                    batch.write();
+                    tx.success();
+                    commitStart = System.nanoTime();
+                }
+            } catch (RuntimeException e){
+                batch.rolledBack();
+
+                if (!isRetryable(e) || attempt == maxAttempts){
+                    throw new IOException("Could not commit batch after " + attempt + " attempts: " + e.getMessage(), e);
+                }
+
+                long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << (attempt - 1));
+                backoff = backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+
+                log.log(Level.FINE, "Retrying batch in " + backoff + "ms after " + e.getClass().getSimpleName());
+                if (attempt == 1) retriedBatches.incrementAndGet();
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interruptedException){
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted retrying batch", interruptedException);
+                }
+
+                continue;
+            }
+
+            batch.committed();
+            committedBatches.incrementAndGet();
+            return System.nanoTime() - commitStart;
+        }
+
+    }
+
+    static boolean isRetryable(Throwable throwable){
+
+        //commit failures wrap the cause
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()){
+            if (cause instanceof DeadlockDetectedException || cause instanceof TransientFailureException){
+                return true;
+            }
+            if (cause instanceof ConstraintViolationException){
+                return isVariantIdRace(cause);
+            }
+        }
+
+        return false;
+    }
+
+    //the kernel exception carrying the details may be wrapped in turn
+    private static boolean isVariantIdRace(Throwable throwable){
+
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()){
+            if (cause.getMessage() != null && variantIdRace.matcher(cause.getMessage()).find()){
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public long getCommittedBatches() {
+        return committedBatches.get();
+    }
+
+    public long getRetriedBatches() {
+        return retriedBatches.get();
+    }
+}
@@ -17,7 +17,7 @@ if [ "$#" -ne 1 ]; then
 fi
 
 #check index is present
-if [ ! -f "$1".idx ]; then
+if [[ "$1" != *.list ]] && [ ! -f "$1".idx ] && [ ! -f "$1".tbi ]; then
 	echo VCF not indexed
 	exit
 fi
@@ -0,0 +1,82 @@
+package nhs.genetics.cardiff;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how batch sizes follow heap, garbage collection and commit latency readings
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class AdaptiveBatchControllerTest {
+
+    @Test
+    public void halvesToMinimumUnderPressure() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(1000, 150, 10000);
+
+        controller.committed(1000, 100, 0.85, 0);
+        assertEquals(500, controller.getBatchSize());
+
+        controller.committed(500, 100, 0.3, 0.2);
+        assertEquals(250, controller.getBatchSize());
+
+        controller.committed(250, 2500, 0.3, 0);
+        assertEquals(150, controller.getBatchSize());
+
+        controller.committed(150, 2500, 0.85, 0.2);
+        assertEquals(150, controller.getBatchSize());
+    }
+
+    @Test
+    public void growsFullFastBatchesUpToMaximum() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(1000, 100, 1400);
+
+        controller.committed(1000, 100, 0.3, 0);
+        assertEquals(1250, controller.getBatchSize());
+
+        controller.committed(1250, 100, 0.3, 0);
+        assertEquals(1400, controller.getBatchSize());
+
+        controller.committed(1400, 100, 0.3, 0);
+        assertEquals(1400, controller.getBatchSize());
+    }
+
+    @Test
+    public void holdsBetweenTargets() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(1000, 100, 10000);
+
+        //early commit
+        controller.committed(900, 100, 0.3, 0);
+        //live heap above target
+        controller.committed(1000, 100, 0.7, 0);
+        //commit over half the target latency
+        controller.committed(1000, 1500, 0.3, 0);
+
+        assertEquals(1000, controller.getBatchSize());
+    }
+
+    @Test
+    public void commitsEarlyOnTightHeap() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(1000, 150, 10000);
+
+        assertTrue(controller.shouldCommit(1000, false));
+        assertFalse(controller.shouldCommit(999, false));
+
+        //at heap checks past the minimum only
+        assertTrue(controller.shouldCommit(200, true));
+        assertFalse(controller.shouldCommit(250, true));
+        assertFalse(controller.shouldCommit(100, true));
+        assertFalse(controller.shouldCommit(200, false));
+    }
+
+    @Test
+    public void detectsTightHeap() {
+        assertTrue(AdaptiveBatchController.isHeapTight(0.85, 0.85));
+        assertTrue(AdaptiveBatchController.isHeapTight(0.5, 0.96));
+        assertFalse(AdaptiveBatchController.isHeapTight(0.5, 0.9));
+    }
+
+}
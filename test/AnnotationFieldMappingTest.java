@@ -0,0 +1,162 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.InvalidPropertiesFormatException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading annotation field mappings from TOML
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class AnnotationFieldMappingTest {
+
+    private File tomlFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tomlFile = File.createTempFile("annotation_fields", ".toml");
+    }
+
+    @After
+    public void tearDown() {
+        tomlFile.delete();
+    }
+
+    private AnnotationFieldMapping read(String toml) throws IOException {
+        try (FileWriter writer = new FileWriter(tomlFile)){
+            writer.write(toml);
+        }
+        return AnnotationFieldMapping.fromToml(tomlFile);
+    }
+
+    private static VariantContext getVariantContext(String... attributes){
+        VariantContextBuilder builder = new VariantContextBuilder("test", "1", 100, 100, Arrays.asList(Allele.create("A", true), Allele.create("C")));
+
+        for (int n = 0; n < attributes.length; n += 2){
+            builder.attribute(attributes[n], attributes[n + 1]);
+        }
+
+        return builder.make();
+    }
+
+    @Test
+    public void readsMappingBlocks() throws IOException {
+        AnnotationFieldMapping mapping = read(
+                "# header comment\n" +
+                "[[annotation]]\n" +
+                "file=\"ExAC.vcf.gz\"\n" +
+                "[[mapping]]\n" +
+                "fields=[\"exac.AC_AFR\",\n" +
+                "  \"exac.AC_NFE\"]\n" +
+                "denominators=[\"exac.AN_AFR\", \"exac.AN_NFE\"]\n" +
+                "ops=[\"ratio\", \"ratio\"]\n" +
+                "names=[\"exacAFRAf\", \"exacNFEAf\"]\n" +
+                "min_an=120\n" +
+                "[[mapping]]\n" +
+                "fields=[\"GERP\"]\n" +
+                "ops=[\"self\"]\n" +
+                "names=[\"gerp\"]\n"
+        );
+
+        assertArrayEquals(new String[]{"exacAFRAf", "exacNFEAf", "gerp"}, mapping.getNames());
+
+        HashMap<String, Object> properties = mapping.extract(getVariantContext("exac.AC_AFR", "10", "exac.AN_AFR", "200", "exac.AC_NFE", "1", "exac.AN_NFE", "100", "GERP", "2.5"));
+
+        assertEquals(0.05f, (Float) properties.get("exacAFRAf"), 1e-6);
+        assertFalse("denominator below min_an", properties.containsKey("exacNFEAf"));
+        assertEquals(2.5f, (Float) properties.get("gerp"), 1e-6);
+    }
+
+    @Test
+    public void stripsInlineComments() throws IOException {
+        AnnotationFieldMapping mapping = read(
+                "[[mapping]] # conservation\n" +
+                "fields=[\"GERP\", \"phyloP\"] # INFO fields\n" +
+                "ops=[\"self\", # first value\n" +
+                "  \"max\"]\n" +
+                "names=[\"gerp\", \"phy#loP\"]  # quoted # is kept\n" +
+                "min_an=0 # unused\n"
+        );
+
+        assertArrayEquals(new String[]{"gerp", "phy#loP"}, mapping.getNames());
+    }
+
+    @Test(expected = InvalidPropertiesFormatException.class)
+    public void rejectsUnequalArrays() throws IOException {
+        read(
+                "[[mapping]]\n" +
+                "fields=[\"GERP\", \"phyloP\"]\n" +
+                "ops=[\"self\"]\n" +
+                "names=[\"gerp\", \"phyloP\"]\n"
+        );
+    }
+
+    @Test(expected = InvalidPropertiesFormatException.class)
+    public void rejectsRatioWithoutDenominator() throws IOException {
+        read(
+                "[[mapping]]\n" +
+                "fields=[\"exac.AC_AFR\"]\n" +
+                "ops=[\"ratio\"]\n" +
+                "names=[\"exacAFRAf\"]\n"
+        );
+    }
+
+    @Test
+    public void rejectsUnknownOperation() throws IOException {
+        try {
+            read(
+                    "[[mapping]]\n" +
+                    "fields=[\"GERP\"]\n" +
+                    "ops=[\"mean\"]\n" +
+                    "names=[\"gerp\"]\n"
+            );
+            fail("expected unknown ops to be rejected");
+        } catch (InvalidPropertiesFormatException e){
+            assertTrue(e.getMessage().contains("gerp"));
+            assertTrue(e.getMessage().contains("mean"));
+        }
+    }
+
+    @Test
+    public void rejectsNonNumericMinimumAlleles() throws IOException {
+        try {
+            read(
+                    "[[mapping]]\n" +
+                    "fields=[\"exac.AC_AFR\"]\n" +
+                    "denominators=[\"exac.AN_AFR\"]\n" +
+                    "ops=[\"ratio\"]\n" +
+                    "names=[\"exacAFRAf\"]\n" +
+                    "min_an=\"many\"\n"
+            );
+            fail("expected min_an to be rejected");
+        } catch (InvalidPropertiesFormatException e){
+            assertTrue(e.getMessage().contains("min_an"));
+            assertTrue(e.getMessage().contains("many"));
+        }
+    }
+
+    @Test(expected = InvalidPropertiesFormatException.class)
+    public void rejectsBlockWithoutNames() throws IOException {
+        read(
+                "[[mapping]]\n" +
+                "fields=[\"GERP\"]\n" +
+                "ops=[\"self\"]\n"
+        );
+    }
+
+}
@@ -0,0 +1,147 @@
+package nhs.genetics.cardiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing and reading the compact annotation encoding in an embedded store
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class CompactEncodingTest {
+
+    private File directory;
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("compact").toFile();
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(new File(directory, "graph.db"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        graphDb.shutdown();
+        FileUtils.deleteRecursively(directory);
+    }
+
+    private Node addNode(Label label){
+        try (Transaction tx = graphDb.beginTx()){
+            Node node = graphDb.createNode(label);
+            tx.success();
+            return node;
+        }
+    }
+
+    private static HashMap<String, Object> scores(Object... fieldValues){
+        HashMap<String, Object> scores = new HashMap<>();
+        for (int n = 0; n < fieldValues.length; n += 2){
+            scores.put((String) fieldValues[n], fieldValues[n + 1]);
+        }
+        return scores;
+    }
+
+    @Test
+    public void roundTripsScoresAcrossLayoutExtension() throws IOException {
+        Node variantNode = addNode(VariantDatabase.getVariantLabel());
+
+        CompactEncoding compactEncoding = CompactEncoding.open(graphDb, new String[]{"gerp", "phyloP"});
+        compactEncoding.addAnnotationScores(variantNode, scores("phyloP", 1.5f));
+
+        //the unset slot is a NaN gap
+        assertNull(compactEncoding.getAnnotationScore(variantNode, "gerp"));
+        assertEquals(1.5f, compactEncoding.getAnnotationScore(variantNode, "phyloP"), 0);
+
+        //appended fields decode as missing on arrays written with the shorter layout
+        compactEncoding = CompactEncoding.open(graphDb, new String[]{"phastCons", "gerp"});
+        assertArrayEquals(new String[]{"gerp", "phyloP", "phastCons"}, compactEncoding.getAnnotationScoreFields());
+        assertNull(compactEncoding.getAnnotationScore(variantNode, "phastCons"));
+
+        //stored values are kept, gaps filled
+        compactEncoding.addAnnotationScores(variantNode, scores("phyloP", 9f, "gerp", 2f, "phastCons", 0.5f));
+
+        HashMap<String, Float> stored = CompactEncoding.open(graphDb).getAnnotationScores(variantNode);
+        assertEquals(3, stored.size());
+        assertEquals(2f, stored.get("gerp"), 0);
+        assertEquals(1.5f, stored.get("phyloP"), 0);
+        assertEquals(0.5f, stored.get("phastCons"), 0);
+    }
+
+    @Test
+    public void readsUncompressedScores() throws IOException {
+        Node variantNode = addNode(VariantDatabase.getVariantLabel());
+
+        try (Transaction tx = graphDb.beginTx()){
+            variantNode.setProperty("gerp", 3.25f);
+            tx.success();
+        }
+
+        CompactEncoding compactEncoding = CompactEncoding.open(graphDb, new String[]{"gerp"});
+        assertEquals(3.25f, compactEncoding.getAnnotationScore(variantNode, "gerp"), 0);
+    }
+
+    @Test
+    public void roundTripsDomainCodes() throws IOException {
+        Node annotationNode = addNode(VariantDatabase.getAnnotationLabel());
+        CompactEncoding compactEncoding = CompactEncoding.open(graphDb, new String[0]);
+
+        try (Transaction tx = graphDb.beginTx()){
+            int[] codes = compactEncoding.encodeDomains(Arrays.asList("PF00533", "PF12820", "PF00533"));
+            assertEquals(codes[0], codes[2]);
+            assertTrue(codes[0] != codes[1]);
+
+            annotationNode.setProperty("pfamDomain" + CompactEncoding.domainCodesSuffix, codes);
+            tx.success();
+        }
+        compactEncoding.committed();
+
+        assertArrayEquals(new String[]{"PF00533", "PF12820", "PF00533"}, CompactEncoding.open(graphDb).getDomains(annotationNode, "pfamDomain"));
+        assertEquals(0, CompactEncoding.open(graphDb).getDomains(annotationNode, "hmmPanther").length);
+    }
+
+    @Test
+    public void discardsDomainCodesOfRolledBackBatch() throws IOException {
+        CompactEncoding compactEncoding = CompactEncoding.open(graphDb, new String[0]);
+
+        try (Transaction tx = graphDb.beginTx()){
+            compactEncoding.encodeDomains(Arrays.asList("PF00533"));
+            tx.failure();
+        }
+        compactEncoding.rolledBack();
+
+        try (Transaction tx = graphDb.beginTx()){
+            compactEncoding.encodeDomains(Arrays.asList("PF00533"));
+            tx.success();
+        }
+        compactEncoding.committed();
+
+        try (Transaction tx = graphDb.beginTx()){
+            assertNotNull(graphDb.findNode(VariantDatabase.getDomainLabel(), "domainId", "PF00533"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void createsDomainConstraintOnExistingStore() throws IOException {
+        assertFalse(Neo4j.hasIndex(graphDb, VariantDatabase.getDomainLabel(), "domainId"));
+
+        CompactEncoding.open(graphDb, new String[]{"gerp"});
+
+        assertTrue(Neo4j.hasIndex(graphDb, VariantDatabase.getDomainLabel(), "domainId"));
+    }
+
+}
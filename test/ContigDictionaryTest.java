@@ -0,0 +1,106 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.junit.Test;
+import org.neo4j.graphdb.Label;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the contigIndex and labels given to variants of each contig
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ContigDictionaryTest {
+
+    private static ContigDictionary getContigDictionary(String... contigs){
+        SAMSequenceDictionary sequenceDictionary = new SAMSequenceDictionary();
+        for (String contig : contigs){
+            sequenceDictionary.addSequence(new SAMSequenceRecord(contig, 1000000));
+        }
+        return new ContigDictionary(sequenceDictionary);
+    }
+
+    private static Label[] labels(Label... labels){
+        return labels;
+    }
+
+    @Test
+    public void indexesHeaderContigs() {
+        ContigDictionary contigDictionary = getContigDictionary("1", "chr22", "X", "chrY", "MT", "chrM", "GL000192.1");
+
+        assertEquals(1, contigDictionary.getContigIndex("1"));
+        assertEquals(22, contigDictionary.getContigIndex("chr22"));
+        assertEquals(23, contigDictionary.getContigIndex("X"));
+        assertEquals(24, contigDictionary.getContigIndex("chrY"));
+        assertEquals(25, contigDictionary.getContigIndex("MT"));
+        assertEquals(25, contigDictionary.getContigIndex("chrM"));
+        assertEquals(0, contigDictionary.getContigIndex("GL000192.1"));
+    }
+
+    @Test
+    public void labelsByContig() {
+        ContigDictionary contigDictionary = getContigDictionary("chr7", "chrX", "Y", "chrMT", "M");
+
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getAutosomeLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("chr7", 100, "A", "G")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getxChromLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("chrX", 100, "A", "G")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getyChromLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("Y", 100, "A", "G")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getMtChromLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("chrMT", 100, "A", "G")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getMtChromLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("M", 100, "A", "G")));
+    }
+
+    @Test
+    public void labelsByVariantType() {
+        ContigDictionary contigDictionary = getContigDictionary("2");
+
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getAutosomeLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("2", 100, "A", "G")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getAutosomeLabel(), VariantDatabase.getIndelLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("2", 100, "A", "AT")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getAutosomeLabel(), VariantDatabase.getIndelLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("2", 100, "AT", "A")));
+
+        //multi-nucleotide substitutions are neither
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getAutosomeLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("2", 100, "AC", "GT")));
+    }
+
+    @Test
+    public void labelsUnplacedContigsWithoutContigLabel() {
+        ContigDictionary contigDictionary = getContigDictionary("hs37d5");
+
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getSnpLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("hs37d5", 100, "A", "G")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getIndelLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("hs37d5", 100, "A", "AG")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("hs37d5", 100, "AC", "GT")));
+    }
+
+    @Test
+    public void addsContigsMissingFromHeader() {
+        ContigDictionary contigDictionary = new ContigDictionary(null);
+
+        assertEquals(17, contigDictionary.getContigIndex("chr17"));
+        assertEquals(23, contigDictionary.getContigIndex("X"));
+        assertEquals(0, contigDictionary.getContigIndex("GL000220.1"));
+
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getxChromLabel(), VariantDatabase.getIndelLabel()),
+                contigDictionary.getVariantLabels(new GenomeVariant("X", 100, "A", "AT")));
+        assertArrayEquals(labels(VariantDatabase.getVariantLabel(), VariantDatabase.getSnpLabel()),
+                getContigDictionary("1").getVariantLabels(new GenomeVariant("GL000220.1", 100, "A", "G")));
+
+        //the same labels each time
+        assertSame(contigDictionary.getVariantLabels(new GenomeVariant("chr17", 100, "A", "G")),
+                contigDictionary.getVariantLabels(new GenomeVariant("chr17", 200, "C", "T")));
+    }
+
+}
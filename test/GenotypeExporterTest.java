@@ -0,0 +1,260 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip tests exporting stored genotypes to a tabix indexed VCF
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class GenotypeExporterTest {
+
+    private File directory;
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("export").toFile();
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(new File(directory, "graph.db"));
+        new VariantDatabase(new ArrayList<VcfInput>(), graphDb, null).createIndexes();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        graphDb.shutdown();
+        FileUtils.deleteRecursively(directory);
+    }
+
+    private Node addRunInfo(String analysisId){
+        try (Transaction tx = graphDb.beginTx()){
+            Node runInfoNode = graphDb.createNode(VariantDatabase.getRunInfoLabel());
+            runInfoNode.setProperty("analysisId", analysisId);
+            tx.success();
+            return runInfoNode;
+        }
+    }
+
+    private Node addVariant(String contig, int position, String ref, String alt){
+        GenomeVariant genomeVariant = new GenomeVariant(contig, position, ref, alt);
+        HashMap<String, Object> properties = new HashMap<>();
+        VariantRegionIndex.addPositionProperties(properties, genomeVariant);
+
+        try (Transaction tx = graphDb.beginTx()){
+            Node variantNode = graphDb.findNode(VariantDatabase.getVariantLabel(), "variantId", genomeVariant.toString());
+
+            if (variantNode == null){
+                variantNode = graphDb.createNode(VariantDatabase.getVariantLabel());
+                variantNode.setProperty("variantId", genomeVariant.toString());
+                for (Map.Entry<String, Object> property : properties.entrySet()){
+                    variantNode.setProperty(property.getKey(), property.getValue());
+                }
+            }
+
+            tx.success();
+            return variantNode;
+        }
+    }
+
+    private void addGenotype(Node runInfoNode, String contig, int position, String ref, String alt, boolean hom, int quality){
+        Node variantNode = addVariant(contig, position, ref, alt);
+
+        try (Transaction tx = graphDb.beginTx()){
+            Relationship relationship = runInfoNode.createRelationshipTo(variantNode, hom ? VariantDatabase.getHasHomVariantRelationship() : VariantDatabase.getHasHetVariantRelationship());
+            relationship.setProperty("quality", quality);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void exportsAllContigsInOneIndexedFile() throws IOException {
+        Node first = addRunInfo("sample1_run1");
+        Node second = addRunInfo("sample2_run1");
+
+        addGenotype(first, "2", 5000, "A", "G", false, 60);
+        addGenotype(first, "1", 2000000, "C", "T", true, 99);
+        addGenotype(second, "1", 2000000, "C", "T", false, 40);
+        addGenotype(first, "1", 100, "G", "GA", false, 30);
+        addGenotype(second, "1", 249250700, "T", "C", false, 50); //beyond the b37 length of 1
+        addGenotype(first, "MT", 16000, "A", "G", true, 99);
+        addGenotype(first, "hs37d5", 300, "A", "T", false, 20);
+        addGenotype(second, "GL000191.1", 1000, "C", "A", false, 20);
+        addGenotype(second, "GL000191.1", 500, "G", "C", false, 20);
+
+        File outputFile = new File(directory, "genotypes.vcf.gz");
+        new GenotypeExporter(graphDb).export(outputFile, 2);
+
+        //a single EOF block terminates the file
+        byte[] bytes = Files.readAllBytes(outputFile.toPath());
+        byte[] eofBlock = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+        int eofBlocks = 0;
+        for (int n = 0; n + eofBlock.length <= bytes.length; ++n){
+            if (Arrays.equals(Arrays.copyOfRange(bytes, n, n + eofBlock.length), eofBlock)) eofBlocks++;
+        }
+        assertEquals(1, eofBlocks);
+        assertArrayEquals(eofBlock, Arrays.copyOfRange(bytes, bytes.length - eofBlock.length, bytes.length));
+
+        try (VCFFileReader vcfFileReader = new VCFFileReader(outputFile, true)){
+            assertEquals(Arrays.asList("sample1_run1", "sample2_run1"), vcfFileReader.getFileHeader().getGenotypeSamples());
+
+            ArrayList<String> exported = new ArrayList<>();
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.iterator()){
+                while (iterator.hasNext()){
+                    VariantContext variantContext = iterator.next();
+                    exported.add(variantContext.getContig() + ":" + variantContext.getStart());
+                }
+            }
+
+            assertEquals(Arrays.asList("1:100", "1:2000000", "1:249250700", "2:5000", "MT:16000", "GL000191.1:500", "GL000191.1:1000", "hs37d5:300"), exported);
+
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query("1", 1999000, 2001000)){
+                VariantContext variantContext = iterator.next();
+                assertTrue(variantContext.getGenotype("sample1_run1").isHomVar());
+                assertEquals(99, variantContext.getGenotype("sample1_run1").getGQ());
+                assertTrue(variantContext.getGenotype("sample2_run1").isHet());
+                assertFalse(iterator.hasNext());
+            }
+
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query("1", 249250600, 249250800)){
+                assertEquals(249250700, iterator.next().getStart());
+            }
+
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query("GL000191.1", 1, 2000)){
+                assertEquals(500, iterator.next().getStart());
+                assertEquals(1000, iterator.next().getStart());
+                assertFalse(iterator.hasNext());
+            }
+
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query("hs37d5", 1, 1000)){
+                assertTrue(iterator.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void exportsEachNameOfSharedContigIndexContiguously() throws IOException {
+        Node runInfoNode = addRunInfo("sample1_run1");
+        ArrayList<String> expected = new ArrayList<>();
+
+        //chr1 and 1 share contigIndex 1, interleaved by position
+        addGenotype(runInfoNode, "chr1", 150, "A", "G", false, 30);
+        addGenotype(runInfoNode, "1", 100, "C", "T", false, 30);
+        addGenotype(runInfoNode, "chr1", 1500000, "G", "A", false, 30);
+        addGenotype(runInfoNode, "1", 2500000, "T", "C", false, 30);
+        addGenotype(runInfoNode, "chr1", 50, "C", "G", false, 30);
+        expected.addAll(Arrays.asList("1:100", "1:2500000", "chr1:50", "chr1:150", "chr1:1500000"));
+
+        //many unplaced contigs, added in reverse name order with positions across windows
+        for (int n = 40; n > 0; --n){
+            String contig = String.format("GL%06d.1", n);
+            addGenotype(runInfoNode, contig, 1200000 + n, "A", "T", false, 20);
+            addGenotype(runInfoNode, contig, n, "G", "C", false, 20);
+        }
+        for (int n = 1; n <= 40; ++n){
+            String contig = String.format("GL%06d.1", n);
+            expected.add(contig + ":" + n);
+            expected.add(contig + ":" + (1200000 + n));
+        }
+
+        File outputFile = new File(directory, "genotypes.vcf.gz");
+        new GenotypeExporter(graphDb).export(outputFile, 3);
+
+        try (VCFFileReader vcfFileReader = new VCFFileReader(outputFile, true)){
+            ArrayList<String> exported = new ArrayList<>();
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.iterator()){
+                while (iterator.hasNext()){
+                    VariantContext variantContext = iterator.next();
+                    exported.add(variantContext.getContig() + ":" + variantContext.getStart());
+                }
+            }
+
+            assertEquals(expected, exported);
+            assertEquals(42, vcfFileReader.getFileHeader().getContigLines().size());
+
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query("chr1", 1, 2000000)){
+                assertEquals(50, iterator.next().getStart());
+                assertEquals(150, iterator.next().getStart());
+                assertEquals(1500000, iterator.next().getStart());
+                assertFalse(iterator.hasNext());
+            }
+
+            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query("GL000017.1", 1, 2000000)){
+                assertEquals(17, iterator.next().getStart());
+                assertEquals(1200017, iterator.next().getStart());
+                assertFalse(iterator.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void mergesPackedGenotypes() throws IOException {
+        Node packed = addRunInfo("sample1_run1");
+        Node related = addRunInfo("sample2_run1");
+
+        Node reportableNode = addVariant("1", 100, "A", "G");
+        Node packedOnlyNode = addVariant("1", 200, "C", "T");
+        addGenotype(related, "1", 300, "G", "A", false, 40);
+
+        PackedGenotypeStore packedGenotypeStore = new PackedGenotypeStore(graphDb);
+        PackedGenotypeStore.createIndex(graphDb);
+
+        try (Transaction tx = graphDb.beginTx()){
+            packedGenotypeStore.add(packed, reportableNode, (short) 70, false);
+            packedGenotypeStore.add(packed, packedOnlyNode, (short) 99, true);
+            packedGenotypeStore.flush();
+            tx.success();
+        }
+
+        //related as well as packed
+        PackedGenotypeStore.markReportable(graphDb, reportableNode);
+
+        File outputFile = new File(directory, "genotypes.vcf.gz");
+        new GenotypeExporter(graphDb).export(outputFile, 2);
+
+        try (VCFFileReader vcfFileReader = new VCFFileReader(outputFile, true);
+             CloseableIterator<VariantContext> iterator = vcfFileReader.query("1", 1, 1000)){
+
+            VariantContext variantContext = iterator.next();
+            assertEquals(100, variantContext.getStart());
+            assertTrue(variantContext.getGenotype("sample1_run1").isHet());
+            assertEquals(70, variantContext.getGenotype("sample1_run1").getGQ());
+            assertTrue(variantContext.getGenotype("sample2_run1").isNoCall());
+
+            variantContext = iterator.next();
+            assertEquals(200, variantContext.getStart());
+            assertTrue(variantContext.getGenotype("sample1_run1").isHomVar());
+            assertEquals(99, variantContext.getGenotype("sample1_run1").getGQ());
+
+            variantContext = iterator.next();
+            assertEquals(300, variantContext.getStart());
+            assertTrue(variantContext.getGenotype("sample1_run1").isNoCall());
+            assertTrue(variantContext.getGenotype("sample2_run1").isHet());
+
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+}
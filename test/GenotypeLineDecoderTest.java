@@ -0,0 +1,144 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the genotype line decoder against htsjdk's VCFCodec
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class GenotypeLineDecoderTest {
+
+    private static final List<String> sampleNames = Arrays.asList("sample1", "sample2", "sample3", "sample4");
+    private static final String header =
+            "##fileformat=VCFv4.1\n" +
+            "##FILTER=<ID=LowQual,Description=\"Low quality\">\n" +
+            "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+            "##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allelic depths\">\n" +
+            "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">\n" +
+            "##FORMAT=<ID=FT,Number=1,Type=String,Description=\"Genotype filter\">\n" +
+            "##contig=<ID=1,length=249250621>\n" +
+            "##contig=<ID=X,length=155270560>\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\tsample2\tsample3\tsample4\n";
+    private static final String[] lines = {
+            "1\t100\t.\tA\tC\t50\tPASS\t.\tGT:GQ\t0/1:99\t1/1:99.0\t./.:.\t0/0:30",
+            "1\t200\trs1\tA\tC,G\t.\t.\tDP=10\tGT:AD:GQ:FT\t1/2:3,4,5:20:PASS\t0|1:1,1,0:12:LowGQ\t.:.:.:.\t0/0:5,0,0:40:PASS",
+            "1\t300\t.\tG\tGTT\t.\tPASS\t.\tGT:GQ\t1/.:3\t./1:7\t1/1\t0/1:1e1",
+            "1\t400\t.\tA\tT\t.\tLowQual\t.\tGT:GQ\t0/1:99\t0/1:99\t0/1:99\t0/1:99",
+            "1\t500\t.\tA\t.\t.\tPASS\t.\tGT:GQ\t0/0:99\t0/0:99\t0/0:99\t0/0:99",
+            "X\t600\t.\tCAG\tC\t.\tPASS\t.\tGT:GQ\t1:50\t0:50\t.:10\t1/1:5"
+    };
+
+    private File vcfFile;
+
+    @Before
+    public void setUp() throws IOException {
+        vcfFile = File.createTempFile("decoder", ".vcf");
+
+        try (FileWriter writer = new FileWriter(vcfFile)){
+            writer.write(header);
+            for (String line : lines){
+                writer.write(line + "\n");
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        vcfFile.delete();
+    }
+
+    private static void assertEquivalent(GenotypeRecord expected, GenotypeRecord actual){
+        String locus = expected.getContig() + ":" + expected.getStart();
+
+        assertEquals(locus, expected.getContig(), actual.getContig());
+        assertEquals(locus, expected.getStart(), actual.getStart());
+        assertEquals(locus, expected.isRejected(), actual.isRejected());
+        if (expected.isRejected()) return;
+
+        assertEquals(locus, expected.getRef(), actual.getRef());
+        assertArrayEquals(expected.getAlts(), actual.getAlts());
+        assertEquals(locus, expected.getSampleCount(), actual.getSampleCount());
+
+        for (int sample = 0; sample < expected.getSampleCount(); ++sample){
+            String genotype = locus + " " + expected.getSampleName(sample);
+
+            assertEquals(genotype, expected.getPloidy(sample), actual.getPloidy(sample));
+            assertEquals(genotype, expected.getGenotypeString(sample), actual.getGenotypeString(sample));
+            assertEquals(genotype, expected.isNoCall(sample), actual.isNoCall(sample));
+            assertEquals(genotype, expected.isMixed(sample), actual.isMixed(sample));
+            assertEquals(genotype, expected.isHomRef(sample), actual.isHomRef(sample));
+            assertEquals(genotype, expected.isHom(sample), actual.isHom(sample));
+            assertEquals(genotype, expected.isHet(sample), actual.isHet(sample));
+            assertEquals(genotype, expected.isHetNonRef(sample), actual.isHetNonRef(sample));
+            assertEquals(genotype, expected.isFiltered(sample), actual.isFiltered(sample));
+            assertEquals(genotype, expected.getGQ(sample), actual.getGQ(sample));
+        }
+    }
+
+    @Test
+    public void matchesHtsjdk() {
+        GenotypeLineDecoder genotypeLineDecoder = new GenotypeLineDecoder(sampleNames);
+        int n = 0;
+
+        try (VCFFileReader vcfFileReader = new VCFFileReader(vcfFile, false);
+             CloseableIterator<VariantContext> iterator = vcfFileReader.iterator()){
+            assertEquals(sampleNames, vcfFileReader.getFileHeader().getGenotypeSamples());
+
+            while (iterator.hasNext()){
+                GenotypeRecord expected = GenotypeRecord.fromVariantContext(iterator.next(), sampleNames);
+                assertEquivalent(expected, genotypeLineDecoder.decode(lines[n++]));
+            }
+        }
+
+        assertEquals(lines.length, n);
+    }
+
+    @Test
+    public void roundsNonIntegerGenotypeQualities() {
+        GenotypeRecord genotypeRecord = new GenotypeLineDecoder(sampleNames).decode(lines[0]);
+
+        assertEquals(99, genotypeRecord.getGQ(0));
+        assertEquals(99, genotypeRecord.getGQ(1));
+        assertEquals(-1, genotypeRecord.getGQ(2));
+        assertEquals(30, genotypeRecord.getGQ(3));
+        assertEquals(10, new GenotypeLineDecoder(sampleNames).decode(lines[2]).getGQ(3));
+    }
+
+    @Test
+    public void keepsEmptyGenotypeForThePloidyCheck() {
+        GenotypeRecord genotypeRecord = new GenotypeLineDecoder(Arrays.asList("sample1", "sample2"))
+                .decode("1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t:20\t0/1:5");
+
+        assertEquals(0, genotypeRecord.getPloidy(0));
+        assertFalse(genotypeRecord.isNoCall(0));
+        assertFalse(genotypeRecord.isHomRef(0));
+        assertFalse(genotypeRecord.isHet(0));
+        assertEquals(20, genotypeRecord.getGQ(0));
+    }
+
+    @Test
+    public void rejectsFilteredAndNonVariantLoci() {
+        GenotypeLineDecoder genotypeLineDecoder = new GenotypeLineDecoder(sampleNames);
+
+        assertTrue(genotypeLineDecoder.decode(lines[3]).isRejected());
+        assertTrue(genotypeLineDecoder.decode(lines[4]).isRejected());
+        assertFalse(genotypeLineDecoder.decode(lines[5]).isRejected());
+    }
+
+}
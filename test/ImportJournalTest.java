@@ -0,0 +1,120 @@
+package nhs.genetics.cardiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests resuming from an import journal
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ImportJournalTest {
+
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = File.createTempFile("import", ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    @Test
+    public void resumesFromLastCommit() throws IOException {
+        ImportJournal journal = new ImportJournal(journalFile);
+        journal.open();
+        journal.addAnalysis("sample1_run1");
+        journal.addVariant(new GenomeVariant("1", 100, "A", "C"));
+        journal.commitBatch(5000, "1", 12345);
+        journal.addVariant(new GenomeVariant("2", 200, "G", "GT"));
+        journal.sync();
+        journal.close();
+
+        ImportJournal resumed = new ImportJournal(journalFile);
+        resumed.load();
+
+        assertTrue(resumed.getAnalysisIds().contains("sample1_run1"));
+        assertEquals(1, resumed.getCommittedBatches());
+        assertEquals(5000, resumed.getCommittedRecords());
+        assertEquals("1", resumed.getLastContig());
+        assertEquals(12345, resumed.getLastPosition());
+
+        //variants after the last commit are re-applied
+        assertEquals(2, resumed.getVariants().size());
+        assertArrayEquals(new String[]{"2", "200", "G", "GT"}, resumed.getVariants().get(1));
+    }
+
+    @Test
+    public void ignoresPartiallyWrittenTrailingLine() throws IOException {
+        ImportJournal journal = new ImportJournal(journalFile);
+        journal.open();
+        journal.addAnalysis("sample1_run1");
+        journal.commitBatch(5000, "1", 12345);
+        journal.close();
+
+        //complete field count but the position is cut short
+        try (FileWriter writer = new FileWriter(journalFile, true)){
+            writer.write("COMMIT\t2\t10000\t1\t45");
+        }
+
+        ImportJournal resumed = new ImportJournal(journalFile);
+        resumed.load();
+
+        assertEquals(1, resumed.getCommittedBatches());
+        assertEquals(5000, resumed.getCommittedRecords());
+        assertEquals(12345, resumed.getLastPosition());
+    }
+
+    @Test
+    public void continuesCountingAfterResume() throws IOException {
+        ImportJournal journal = new ImportJournal(journalFile);
+        journal.open();
+        journal.commitBatch(5000, "1", 100);
+        journal.close();
+
+        ImportJournal resumed = new ImportJournal(journalFile);
+        resumed.load();
+        resumed.open();
+        resumed.commitBatch(10000, "2", 200);
+        resumed.close();
+
+        ImportJournal reloaded = new ImportJournal(journalFile);
+        reloaded.load();
+
+        assertEquals(2, reloaded.getCommittedBatches());
+        assertEquals(10000, reloaded.getCommittedRecords());
+        assertEquals("2", reloaded.getLastContig());
+    }
+
+    @Test
+    public void keepsReplacedVariants() throws IOException {
+        ImportJournal journal = new ImportJournal(journalFile);
+        journal.open();
+        journal.addReplacedVariant("1:100A>C");
+        journal.addReplacedVariant("2:200G>GT");
+        journal.sync();
+        journal.addAnalysis("sample1_run1");
+        journal.close();
+
+        ImportJournal resumed = new ImportJournal(journalFile);
+        resumed.load();
+
+        assertEquals(2, resumed.getReplacedVariants().size());
+        assertEquals("1:100A>C", resumed.getReplacedVariants().get(0));
+        assertEquals("2:200G>GT", resumed.getReplacedVariants().get(1));
+        assertEquals(0, resumed.getCommittedBatches());
+    }
+
+}
@@ -0,0 +1,161 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Locatable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests merge order across inputs
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class MergedVcfIteratorTest {
+
+    private static class Record implements Locatable {
+        private final String contig;
+        private final int start;
+
+        private Record(String contig, int start){
+            this.contig = contig;
+            this.start = start;
+        }
+
+        @Override
+        public String getContig() {
+            return contig;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return start;
+        }
+    }
+
+    private static class RecordIterator implements CloseableIterator<Record> {
+        private final Iterator<Record> iterator;
+
+        private RecordIterator(Record... records){
+            this.iterator = Arrays.asList(records).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static SAMSequenceDictionary getDictionary(String... contigs){
+        ArrayList<SAMSequenceRecord> sequenceRecords = new ArrayList<>();
+
+        for (String contig : contigs){
+            sequenceRecords.add(new SAMSequenceRecord(contig, 1000000));
+        }
+
+        return new SAMSequenceDictionary(sequenceRecords);
+    }
+
+    private static List<String> merge(SAMSequenceDictionary sequenceDictionary, RecordIterator... inputs){
+        ArrayList<String> merged = new ArrayList<>();
+
+        try (MergedVcfIterator<Record> iterator = new MergedVcfIterator<>(Arrays.asList(inputs), sequenceDictionary)){
+            while (iterator.hasNext()){
+                Record record = iterator.next();
+                merged.add(iterator.getSource() + ":" + record.getContig() + ":" + record.getStart());
+            }
+        }
+
+        return merged;
+    }
+
+    @Test
+    public void ordersByPositionThenInput() {
+        List<String> merged = merge(
+                getDictionary("1", "2"),
+                new RecordIterator(new Record("1", 200), new Record("2", 50)),
+                new RecordIterator(new Record("1", 100), new Record("1", 200), new Record("2", 10))
+        );
+
+        assertEquals(Arrays.asList("1:1:100", "0:1:200", "1:1:200", "1:2:10", "0:2:50"), merged);
+    }
+
+    @Test
+    public void ordersContigsMissingFromTheFirstDictionary() {
+        SAMSequenceDictionary sequenceDictionary = MergedVcfIterator.mergeSequenceDictionaries(Arrays.asList(
+                getDictionary("1", "2", "X"),
+                getDictionary("1", "2", "GL000191.1", "X", "hs37d5")
+        ));
+
+        assertEquals(5, sequenceDictionary.size());
+        assertEquals("GL000191.1", sequenceDictionary.getSequence(3).getSequenceName());
+        assertEquals("hs37d5", sequenceDictionary.getSequence(4).getSequenceName());
+
+        List<String> merged = merge(
+                sequenceDictionary,
+                new RecordIterator(new Record("2", 10), new Record("X", 5)),
+                new RecordIterator(new Record("1", 10), new Record("X", 1), new Record("GL000191.1", 50), new Record("hs37d5", 1))
+        );
+
+        assertEquals(Arrays.asList("1:1:10", "0:2:10", "1:X:1", "0:X:5", "1:GL000191.1:50", "1:hs37d5:1"), merged);
+    }
+
+    @Test
+    public void ordersUnknownContigsAfterTheDictionary() {
+        List<String> merged = merge(
+                getDictionary("1"),
+                new RecordIterator(new Record("1", 10), new Record("2", 1), new Record("MT", 1)),
+                new RecordIterator(new Record("X", 5), new Record("decoy", 1))
+        );
+
+        assertEquals(Arrays.asList("0:1:10", "0:2:1", "1:X:5", "0:MT:1", "1:decoy:1"), merged);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsInputSortedInAConflictingContigOrder() {
+        merge(
+                MergedVcfIterator.mergeSequenceDictionaries(Arrays.asList(getDictionary("1", "2"), getDictionary("2", "1"))),
+                new RecordIterator(new Record("1", 10), new Record("2", 10)),
+                new RecordIterator(new Record("2", 5), new Record("1", 5))
+        );
+    }
+
+    @Test
+    public void passesSingleInputThroughInItsOwnOrder() {
+        List<String> merged = merge(
+                getDictionary("1", "2"),
+                new RecordIterator(new Record("2", 5), new Record("1", 5))
+        );
+
+        assertEquals(Arrays.asList("0:2:5", "0:1:5"), merged);
+    }
+
+}
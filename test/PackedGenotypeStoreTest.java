@@ -0,0 +1,224 @@
+package nhs.genetics.cardiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing, compacting and reading packed genotype blocks in an embedded store
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class PackedGenotypeStoreTest {
+
+    private static final long bucketSize = 1L << 20;
+
+    private File directory;
+    private GraphDatabaseService graphDb;
+    private PackedGenotypeStore packedGenotypeStore;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("packed").toFile();
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(new File(directory, "graph.db"));
+        new VariantDatabase(new ArrayList<VcfInput>(), graphDb, null).createIndexes();
+        PackedGenotypeStore.createIndex(graphDb);
+        packedGenotypeStore = new PackedGenotypeStore(graphDb);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        graphDb.shutdown();
+        FileUtils.deleteRecursively(directory);
+    }
+
+    private Node addNode(Label label){
+        try (Transaction tx = graphDb.beginTx()){
+            Node node = graphDb.createNode(label);
+            tx.success();
+            return node;
+        }
+    }
+
+    //stands in for a variant node with any id, packing only reads the id
+    private static Node variantNode(final long id){
+        return (Node) Proxy.newProxyInstance(PackedGenotypeStoreTest.class.getClassLoader(), new Class<?>[]{Node.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getId")) return id;
+                if (method.getName().equals("hashCode")) return (int) id;
+                if (method.getName().equals("equals")) return proxy == args[0];
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    //one committed batch, as the import writes it
+    private void addBatch(Node runInfoNode, long firstVariantNodeId, int genotypes){
+        try (Transaction tx = graphDb.beginTx()){
+            for (long variantNodeId = firstVariantNodeId; variantNodeId < firstVariantNodeId + genotypes; ++variantNodeId){
+                packedGenotypeStore.add(runInfoNode, variantNode(variantNodeId), (short) (variantNodeId % 100), variantNodeId % 2 == 0);
+            }
+            packedGenotypeStore.flush();
+            tx.success();
+        }
+    }
+
+    private ArrayList<Integer> getBlockSizes(Node runInfoNode){
+        ArrayList<Integer> blockSizes = new ArrayList<>();
+
+        try (Transaction tx = graphDb.beginTx()){
+            for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasGenotypeBlockRelationship())){
+                blockSizes.add(((long[]) relationship.getEndNode().getProperty("variantNodeIds")).length);
+            }
+            tx.success();
+        }
+
+        return blockSizes;
+    }
+
+    @Test
+    public void compactsBatchesIntoFullBlocks() {
+        Node runInfoNode = addNode(VariantDatabase.getRunInfoLabel());
+
+        //batches out of order, the last overlapping the first
+        addBatch(runInfoNode, 3000, 3000);
+        addBatch(runInfoNode, 0, 3000);
+        addBatch(runInfoNode, 6000, 3000);
+        addBatch(runInfoNode, 8000, 1000);
+        assertEquals(4, getBlockSizes(runInfoNode).size());
+
+        packedGenotypeStore.compact(runInfoNode);
+
+        HashSet<Integer> blockSizes = new HashSet<>(getBlockSizes(runInfoNode));
+        assertEquals(2, blockSizes.size());
+        assertTrue(blockSizes.contains(8192));
+        assertTrue(blockSizes.contains(9000 - 8192));
+
+        ArrayList<PackedGenotypeStore.PackedGenotype> packedGenotypes = PackedGenotypeStore.getGenotypes(graphDb, runInfoNode);
+        assertEquals(9000, packedGenotypes.size());
+        for (int n = 0; n < packedGenotypes.size(); ++n){
+            assertEquals(n, packedGenotypes.get(n).getVariantNodeId());
+            assertEquals(n % 100, packedGenotypes.get(n).getQuality());
+            assertEquals(n % 2 == 0, packedGenotypes.get(n).isHom());
+        }
+
+        //already full
+        packedGenotypeStore.compact(runInfoNode);
+        assertEquals(2, getBlockSizes(runInfoNode).size());
+    }
+
+    @Test
+    public void findsCarriersEitherSideOfBucketBoundary() {
+        Node first = addNode(VariantDatabase.getRunInfoLabel());
+        Node second = addNode(VariantDatabase.getRunInfoLabel());
+
+        addBatch(first, bucketSize - 2, 4);
+        addBatch(second, bucketSize, 1);
+
+        //blocks never cross a bucket
+        assertEquals(2, getBlockSizes(first).size());
+
+        assertEquals(1, PackedGenotypeStore.getCarriers(graphDb, bucketSize - 1).size());
+        assertEquals(first.getId(), PackedGenotypeStore.getCarriers(graphDb, bucketSize - 1).get(0).getRunInfoNodeId());
+
+        ArrayList<PackedGenotypeStore.PackedGenotype> carriers = PackedGenotypeStore.getCarriers(graphDb, bucketSize);
+        assertEquals(2, carriers.size());
+        HashSet<Long> runInfoNodeIds = new HashSet<>();
+        for (PackedGenotypeStore.PackedGenotype carrier : carriers){
+            runInfoNodeIds.add(carrier.getRunInfoNodeId());
+            assertTrue(carrier.isHom());
+        }
+        assertTrue(runInfoNodeIds.contains(first.getId()));
+        assertTrue(runInfoNodeIds.contains(second.getId()));
+
+        assertEquals(0, PackedGenotypeStore.getCarriers(graphDb, bucketSize + 2).size());
+        assertEquals(0, PackedGenotypeStore.getCarriers(graphDb, 2 * bucketSize + 1).size());
+    }
+
+    @Test
+    public void deletesBlocksInBatches() {
+        Node runInfoNode = addNode(VariantDatabase.getRunInfoLabel());
+        addBatch(runInfoNode, 0, 10);
+        addBatch(runInfoNode, 100, 20);
+
+        ArrayList<Long> deleted;
+        try (Transaction tx = graphDb.beginTx()){
+            deleted = PackedGenotypeStore.deleteBlocks(graphDb, runInfoNode, 1);
+            tx.success();
+        }
+
+        //whole blocks only
+        assertTrue(deleted.size() == 10 || deleted.size() == 20);
+        assertTrue(PackedGenotypeStore.hasBlocks(graphDb, runInfoNode));
+        assertEquals(30 - deleted.size(), PackedGenotypeStore.getGenotypes(graphDb, runInfoNode).size());
+
+        try (Transaction tx = graphDb.beginTx()){
+            deleted.addAll(PackedGenotypeStore.deleteBlocks(graphDb, runInfoNode, 1000));
+            tx.success();
+        }
+
+        assertEquals(30, new HashSet<>(deleted).size());
+        assertFalse(PackedGenotypeStore.hasBlocks(graphDb, runInfoNode));
+        assertEquals(0L, Neo4j.runCypherQuery(graphDb, "MATCH (b:" + VariantDatabase.getGenotypeBlockLabel().name() + ") RETURN count(b) AS blocks").get(0).get("blocks"));
+    }
+
+    @Test
+    public void relatesCarriersOfReportableVariant() {
+        Node het = addNode(VariantDatabase.getRunInfoLabel());
+        Node hom = addNode(VariantDatabase.getRunInfoLabel());
+        Node variantNode = addNode(VariantDatabase.getVariantLabel());
+        Node otherNode = addNode(VariantDatabase.getVariantLabel());
+
+        try (Transaction tx = graphDb.beginTx()){
+            packedGenotypeStore.add(het, variantNode, (short) 30, false);
+            packedGenotypeStore.add(het, otherNode, (short) 40, false);
+            packedGenotypeStore.add(hom, variantNode, (short) 99, true);
+            packedGenotypeStore.flush();
+            tx.success();
+        }
+
+        PackedGenotypeStore.markReportable(graphDb, variantNode);
+        PackedGenotypeStore.markReportable(graphDb, variantNode);
+
+        try (Transaction tx = graphDb.beginTx()){
+            assertTrue(variantNode.hasLabel(VariantDatabase.getReportableLabel()));
+            assertFalse(otherNode.hasLabel(VariantDatabase.getReportableLabel()));
+
+            //once per carrier, however often marked
+            int relationships = 0;
+            for (Relationship relationship : variantNode.getRelationships(Direction.INCOMING)){
+                relationships++;
+                if (relationship.getStartNode().equals(het)){
+                    assertEquals(VariantDatabase.getHasHetVariantRelationship().name(), relationship.getType().name());
+                    assertEquals(30, ((Number) relationship.getProperty("quality")).intValue());
+                } else {
+                    assertEquals(hom, relationship.getStartNode());
+                    assertEquals(VariantDatabase.getHasHomVariantRelationship().name(), relationship.getType().name());
+                    assertEquals(99, ((Number) relationship.getProperty("quality")).intValue());
+                }
+            }
+            assertEquals(2, relationships);
+            assertFalse(otherNode.getRelationships(Direction.INCOMING).iterator().hasNext());
+
+            tx.success();
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package nhs.genetics.cardiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading VCF lines in order on a thread pool
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ParallelVcfReaderTest {
+
+    private static final ParallelVcfReader.LineDecoder<String> lineDecoder = new ParallelVcfReader.LineDecoder<String>() {
+        @Override
+        public String decode(String line) {
+            return line;
+        }
+    };
+
+    private File vcfFile;
+
+    @Before
+    public void setUp() throws IOException {
+        vcfFile = File.createTempFile("parallel", ".vcf.gz");
+    }
+
+    @After
+    public void tearDown() {
+        vcfFile.delete();
+    }
+
+    private static List<String> getLines(int count){
+        ArrayList<String> lines = new ArrayList<>();
+
+        for (int n = 1; n <= count; ++n){
+            lines.add("1\t" + n + "\t.\tA\tC\t.\tPASS\t.\tGT\t0/1");
+        }
+
+        return lines;
+    }
+
+    private static String getText(List<String> lines){
+        StringBuilder text = new StringBuilder("##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample\n");
+
+        for (String line : lines){
+            text.append(line).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    //BGZF block of up to 64kb, an empty block is the EOF marker
+    private static byte[] getBgzfBlock(byte[] data, int offset, int length){
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] compressed = new byte[length + 1024];
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, offset, length);
+
+        ByteBuffer block = ByteBuffer.allocate(18 + compressedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(new byte[]{31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255});
+        block.putShort((short) 6).put((byte) 66).put((byte) 67).putShort((short) 2).putShort((short) (block.capacity() - 1));
+        block.put(compressed, 0, compressedLength);
+        block.putInt((int) crc32.getValue()).putInt(length);
+
+        return block.array();
+    }
+
+    private void writeBgzf(String text, int blockLength, boolean eofBlock) throws IOException {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+        try (FileOutputStream outputStream = new FileOutputStream(vcfFile)){
+            for (int offset = 0; offset < data.length; offset += blockLength){
+                outputStream.write(getBgzfBlock(data, offset, Math.min(blockLength, data.length - offset)));
+            }
+            if (eofBlock) outputStream.write(getBgzfBlock(data, 0, 0));
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(vcfFile, "rw")){
+            randomAccessFile.setLength(length);
+        }
+    }
+
+    private List<String> readAll(int threads){
+        ArrayList<String> records = new ArrayList<>();
+
+        try (ParallelVcfReader<String> reader = new ParallelVcfReader<>(vcfFile, lineDecoder, threads)){
+            while (reader.hasNext()){
+                records.add(reader.next());
+            }
+        }
+
+        return records;
+    }
+
+    @Test(timeout = 10000)
+    public void readsBgzfBlocksInOrder() throws IOException {
+        List<String> lines = getLines(20000);
+
+        //lines span block boundaries
+        writeBgzf(getText(lines), 1000, true);
+
+        assertEquals(lines, readAll(4));
+    }
+
+    @Test(timeout = 10000)
+    public void readsPlainText() throws IOException {
+        List<String> lines = getLines(5000);
+        File textFile = File.createTempFile("parallel", ".vcf");
+
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(textFile), StandardCharsets.UTF_8)){
+                writer.write(getText(lines));
+            }
+
+            ArrayList<String> records = new ArrayList<>();
+            try (ParallelVcfReader<String> reader = new ParallelVcfReader<>(textFile, lineDecoder, 2)){
+                while (reader.hasNext()) records.add(reader.next());
+            }
+
+            assertEquals(lines, records);
+        } finally {
+            textFile.delete();
+        }
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void failsOnTruncatedBlock() throws IOException {
+        writeBgzf(getText(getLines(2000)), 1000, false);
+
+        //cut inside the compressed data of the last block
+        truncate(vcfFile.length() - 100);
+
+        readAll(4);
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void failsOnTruncatedBlockHeader() throws IOException {
+        writeBgzf(getText(getLines(2000)), 1000, true);
+
+        //keep only part of the EOF block header
+        truncate(vcfFile.length() - 20);
+
+        readAll(4);
+    }
+
+    @Test(timeout = 10000)
+    public void returnsRecordsBeforeTruncation() throws IOException {
+        List<String> lines = getLines(2000);
+        writeBgzf(getText(lines), 1000, false);
+        truncate(vcfFile.length() - 100);
+
+        ArrayList<String> records = new ArrayList<>();
+
+        try (ParallelVcfReader<String> reader = new ParallelVcfReader<>(vcfFile, lineDecoder, 4)){
+            while (reader.hasNext()){
+                records.add(reader.next());
+            }
+            fail("Truncated file read to the end");
+        } catch (IllegalStateException e){
+            assertTrue(records.size() > 0);
+            assertEquals(lines.subList(0, records.size()), records);
+        }
+    }
+
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void failsOnDecoderError() throws IOException {
+        writeBgzf(getText(getLines(100)), 1000, true);
+
+        try (ParallelVcfReader<String> reader = new ParallelVcfReader<>(vcfFile, new ParallelVcfReader.LineDecoder<String>() {
+            @Override
+            public String decode(String line) {
+                if (line.startsWith("1\t50\t")) throw new IllegalArgumentException("Malformed record");
+                return line;
+            }
+        }, 2)){
+            while (reader.hasNext()) reader.next();
+        }
+    }
+
+    @Test
+    public void splitsLinesAcrossBlocks() throws IOException {
+        writeBgzf("#header\nabc\ndef\nghi", 3, true);
+        assertEquals(Arrays.asList("abc", "def", "ghi"), readAll(2));
+    }
+
+}
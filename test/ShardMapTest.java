@@ -0,0 +1,115 @@
+package nhs.genetics.cardiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests assigning contigs to shards and storing the assignment
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ShardMapTest {
+
+    private static final String[] contigs = {"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13",
+            "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y", "MT"};
+
+    private File dbPath;
+
+    @Before
+    public void setUp() throws IOException {
+        dbPath = Files.createTempDirectory("shards").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        new File(dbPath, ShardMap.shardMapFile).delete();
+        dbPath.delete();
+    }
+
+    @Test
+    public void balancesContigLengths() {
+        ShardMap shardMap = ShardMap.create(4);
+        long[] shardLengths = new long[4];
+
+        for (String contig : contigs){
+            int shard = shardMap.getShard(contig);
+            assertTrue(shard >= 0 && shard < 4);
+            shardLengths[shard] += VariantRegionIndex.getContigLength(VariantRegionIndex.getContigIndex(contig));
+        }
+
+        long min = Long.MAX_VALUE, max = 0;
+        for (long shardLength : shardLengths){
+            min = Math.min(min, shardLength);
+            max = Math.max(max, shardLength);
+        }
+
+        //greedy placement keeps shards within one chromosome 1 of each other
+        assertTrue(max - min <= VariantRegionIndex.getContigLength(1));
+        assertEquals(4, shardMap.getShardCount());
+    }
+
+    @Test
+    public void placesUnplacedContigsInFirstShard() {
+        ShardMap shardMap = ShardMap.create(3);
+
+        assertEquals(0, shardMap.getShard("GL000192.1"));
+        assertEquals(shardMap.getShard("1"), shardMap.getShard("chr1"));
+    }
+
+    @Test
+    public void roundTripsThroughShardMapFile() throws IOException {
+        ShardMap shardMap = ShardMap.create(3);
+
+        assertFalse(ShardMap.exists(dbPath));
+        shardMap.save(dbPath);
+        assertTrue(ShardMap.exists(dbPath));
+
+        ShardMap loaded = ShardMap.load(dbPath);
+
+        assertEquals(3, loaded.getShardCount());
+        for (String contig : contigs){
+            assertEquals(shardMap.getShard(contig), loaded.getShard(contig));
+        }
+        assertEquals(new File(dbPath, "shard2"), loaded.getShardPath(dbPath, 2));
+    }
+
+    @Test(expected = InvalidPropertiesFormatException.class)
+    public void rejectsShardOutOfRange() throws IOException {
+        ShardMap.create(2).save(dbPath);
+
+        Properties properties = new Properties();
+        properties.setProperty("shards", "2");
+        for (int contigIndex = 0; contigIndex <= 25; ++contigIndex){
+            properties.setProperty("contigIndex." + contigIndex, contigIndex == 7 ? "2" : "0");
+        }
+        try (FileOutputStream fileOutputStream = new FileOutputStream(new File(dbPath, ShardMap.shardMapFile))){
+            properties.store(fileOutputStream, null);
+        }
+
+        ShardMap.load(dbPath);
+    }
+
+    @Test(expected = InvalidPropertiesFormatException.class)
+    public void rejectsMissingContig() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("shards", "2");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(new File(dbPath, ShardMap.shardMapFile))){
+            properties.store(fileOutputStream, null);
+        }
+
+        ShardMap.load(dbPath);
+    }
+
+}
@@ -0,0 +1,134 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests routing imports to and federating lookups over a two shard database
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class ShardedVariantDatabaseTest {
+
+    private static final String header =
+            "##fileformat=VCFv4.1\n" +
+            "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+            "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">\n" +
+            "##contig=<ID=1,length=249250621>\n" +
+            "##contig=<ID=2,length=243199373>\n" +
+            "##SAMPLE=<ID=sample1,Tissue=Blood,WorklistId=K1,SeqId=run1,Assay=TruSight,PipelineName=Germline,PipelineVersion=1,RemoteBamFilePath=/bam,RemoteVcfFilePath=/vcf>\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n";
+
+    private File directory;
+    private ShardMap shardMap;
+    private ShardedVariantDatabase shardedVariantDatabase;
+    private VcfInput vcfInput;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sharded").toFile();
+        File vcfFile = new File(directory, "input.vcf");
+
+        try (FileWriter writer = new FileWriter(vcfFile)){
+            writer.write(header);
+            writer.write("1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t0/1:99\n");
+            writer.write("1\t200\t.\tG\tGT\t.\tPASS\t.\tGT:GQ\t1/1:60\n");
+            writer.write("2\t500\t.\tA\tG\t.\tPASS\t.\tGT:GQ\t0/1:40\n");
+        }
+
+        File dbPath = new File(directory, "graph.db");
+        shardMap = ShardMap.create(2);
+        shardMap.save(dbPath);
+
+        vcfInput = new VcfInput(new VCFFileReader(vcfFile, false));
+        shardedVariantDatabase = new ShardedVariantDatabase(Collections.singletonList(vcfInput), dbPath, shardMap, null);
+        shardedVariantDatabase.startDatabase();
+        shardedVariantDatabase.createIndexes();
+        shardedVariantDatabase.addSampleAndRunInfoNodes();
+        shardedVariantDatabase.importVariants();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        shardedVariantDatabase.shutdownDatabase();
+        vcfInput.close();
+        FileUtils.deleteRecursively(directory);
+    }
+
+    private static long count(GraphDatabaseService graphDb, String query){
+        try (Transaction tx = graphDb.beginTx(); Result result = graphDb.execute(query)){
+            long count = (Long) result.next().get("count");
+            tx.success();
+            return count;
+        }
+    }
+
+    @Test
+    public void routesRecordsToTheirContigShard() {
+        assertTrue(shardMap.getShard("1") != shardMap.getShard("2"));
+
+        GraphDatabaseService firstShard = shardedVariantDatabase.getShardDatabase("1");
+        GraphDatabaseService secondShard = shardedVariantDatabase.getShardDatabase("2");
+
+        assertEquals(2, count(firstShard, "MATCH (v:Variant) RETURN count(v) AS count"));
+        assertEquals(1, count(secondShard, "MATCH (v:Variant) RETURN count(v) AS count"));
+        assertEquals(0, count(firstShard, "MATCH (v:Variant {variantId: '2:500A>G'}) RETURN count(v) AS count"));
+    }
+
+    @Test
+    public void replicatesAnalysesToEveryShard() {
+        for (String contig : new String[]{"1", "2"}){
+            GraphDatabaseService graphDb = shardedVariantDatabase.getShardDatabase(contig);
+            assertEquals(1, count(graphDb, "MATCH (:Sample {sampleId: 'sample1'})-->(r:RunInfo {analysisId: 'K1_sample1_run1'}) RETURN count(r) AS count"));
+        }
+    }
+
+    @Test
+    public void findsVariantsOnTheirShard() {
+        Map<String, Object> variant = shardedVariantDatabase.findVariant("2:500A>G");
+        assertNotNull(variant);
+        assertEquals(500, ((Number) variant.get("position")).intValue());
+
+        assertNotNull(shardedVariantDatabase.findVariant("1:200G>GT"));
+        assertNull(shardedVariantDatabase.findVariant("2:100A>C"));
+        assertNull(shardedVariantDatabase.findVariant("malformed"));
+
+        ArrayList<Map<String, Object>> region = shardedVariantDatabase.findVariantsInRegion("1", 1, 1000);
+        assertEquals(2, region.size());
+        assertEquals("1:100A>C", region.get(0).get("variantId"));
+        assertEquals("1:200G>GT", region.get(1).get("variantId"));
+
+        assertEquals(0, shardedVariantDatabase.findVariantsInRegion("2", 1, 400).size());
+    }
+
+    @Test
+    public void federatesGenotypesAcrossShards() throws IOException {
+        HashMap<String, String> genotypes = new HashMap<>();
+
+        for (Map<String, Object> genotype : shardedVariantDatabase.getGenotypes("K1_sample1_run1")){
+            genotypes.put((String) genotype.get("variantId"), genotype.get("genotype") + ":" + genotype.get("quality"));
+        }
+
+        assertEquals(3, genotypes.size());
+        assertEquals(VariantDatabase.getHasHetVariantRelationship().name() + ":99", genotypes.get("1:100A>C"));
+        assertEquals(VariantDatabase.getHasHomVariantRelationship().name() + ":60", genotypes.get("1:200G>GT"));
+        assertEquals(VariantDatabase.getHasHetVariantRelationship().name() + ":40", genotypes.get("2:500A>G"));
+    }
+
+}
@@ -0,0 +1,253 @@
+package nhs.genetics.cardiff;
+
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests importing and replacing analyses in an embedded store
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class VariantDatabaseTest {
+
+    private static final String header =
+            "##fileformat=VCFv4.1\n" +
+            "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+            "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">\n" +
+            "##contig=<ID=1,length=249250621>\n" +
+            "##contig=<ID=2,length=243199373>\n" +
+            "##SAMPLE=<ID=sample1,Tissue=Blood,WorklistId=K1,SeqId=run1,Assay=TruSight,PipelineName=Germline,PipelineVersion=1,RemoteBamFilePath=/bam,RemoteVcfFilePath=/vcf>\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n";
+
+    private File directory;
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("variants").toFile();
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(new File(directory, "graph.db"));
+        new VariantDatabase(new ArrayList<VcfInput>(), graphDb, null).createIndexes();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        graphDb.shutdown();
+        FileUtils.deleteRecursively(directory);
+    }
+
+    private void importVcf(String name, boolean replaceAnalyses, String... records) throws IOException {
+        importVcf(name, replaceAnalyses, false, records);
+    }
+
+    private void importVcf(String name, boolean replaceAnalyses, boolean deltaImport, String... records) throws IOException {
+        importVcf(name, replaceAnalyses, deltaImport, null, records);
+    }
+
+    private void importVcf(String name, boolean replaceAnalyses, boolean deltaImport, ImportJournal importJournal, String... records) throws IOException {
+        File vcfFile = new File(directory, name);
+
+        try (FileWriter writer = new FileWriter(vcfFile)){
+            writer.write(header);
+            for (String record : records){
+                writer.write(record + "\n");
+            }
+        }
+
+        try (VcfInput vcfInput = new VcfInput(new VCFFileReader(vcfFile, false))){
+            VariantDatabase variantDatabase = new VariantDatabase(Collections.singletonList(vcfInput), graphDb, importJournal);
+            variantDatabase.setReplaceAnalyses(replaceAnalyses);
+            variantDatabase.setDeltaImport(deltaImport);
+            variantDatabase.addSampleAndRunInfoNodes();
+            variantDatabase.importVariants();
+        }
+    }
+
+    private Node getVariant(String variantId){
+        try (Transaction tx = graphDb.beginTx()){
+            Node variantNode = graphDb.findNode(VariantDatabase.getVariantLabel(), "variantId", variantId);
+            tx.success();
+            return variantNode;
+        }
+    }
+
+    //annotation as written by importAnnotations
+    private void annotate(String variantId){
+        try (Transaction tx = graphDb.beginTx()){
+            Node variantNode = graphDb.findNode(VariantDatabase.getVariantLabel(), "variantId", variantId);
+            Node symbolNode = graphDb.findNode(VariantDatabase.getSymbolLabel(), "symbolId", "BRCA1");
+            Node featureNode = graphDb.findNode(VariantDatabase.getFeatureLabel(), "featureId", "ENST00000357654");
+
+            if (symbolNode == null){
+                symbolNode = graphDb.createNode(VariantDatabase.getSymbolLabel());
+                symbolNode.setProperty("symbolId", "BRCA1");
+                featureNode = graphDb.createNode(VariantDatabase.getFeatureLabel());
+                featureNode.setProperty("featureId", "ENST00000357654");
+                symbolNode.createRelationshipTo(featureNode, VariantDatabase.getHasProteinCodingBiotypeRelationship());
+            }
+
+            Node annotationNode = graphDb.createNode(VariantDatabase.getAnnotationLabel());
+            annotationNode.setProperty("hgvsc", variantId);
+
+            variantNode.createRelationshipTo(symbolNode, VariantDatabase.getInSymbolRelationship());
+            variantNode.createRelationshipTo(annotationNode, RelationshipType.withName("HAS_MISSENSE_VARIANT_CONSEQUENCE"));
+            annotationNode.createRelationshipTo(featureNode, VariantDatabase.getInFeatureRelationship());
+
+            tx.success();
+        }
+    }
+
+    private void assess(String variantId){
+        try (Transaction tx = graphDb.beginTx()){
+            Node variantNode = graphDb.findNode(VariantDatabase.getVariantLabel(), "variantId", variantId);
+            Node pathogenicityNode = graphDb.createNode(VariantDatabase.getVariantPathogenicityLabel());
+            pathogenicityNode.setProperty("classification", 5);
+            variantNode.createRelationshipTo(pathogenicityNode, VariantDatabase.getHasUserEventRelationship());
+            tx.success();
+        }
+    }
+
+    private long count(String query){
+        try (Transaction tx = graphDb.beginTx(); Result result = graphDb.execute(query)){
+            long count = (Long) result.next().get("count");
+            tx.success();
+            return count;
+        }
+    }
+
+    @Test
+    public void replacesAnalysisWithAssessedVariant() throws IOException {
+        importVcf("first.vcf", false,
+                "1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "1\t200\t.\tG\tT\t.\tPASS\t.\tGT:GQ\t1/1:99",
+                "1\t300\t.\tC\tG\t.\tPASS\t.\tGT:GQ\t0/1:99");
+
+        annotate("1:100A>C");
+        annotate("1:200G>T");
+        annotate("1:300C>G");
+        assess("1:200G>T");
+
+        long keptVariantNodeId = getVariant("1:100A>C").getId();
+
+        importVcf("second.vcf", true,
+                "1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t1/1:99",
+                "1\t400\t.\tT\tA\t.\tPASS\t.\tGT:GQ\t0/1:99");
+
+        assertEquals(1, count("MATCH (r:RunInfo) RETURN count(r) AS count"));
+
+        //carried again, node and annotation kept rather than recreated
+        assertEquals(keptVariantNodeId, getVariant("1:100A>C").getId());
+        assertEquals(1, count("MATCH (:Variant {variantId: '1:100A>C'})-[:HAS_MISSENSE_VARIANT_CONSEQUENCE]->(:Annotation) RETURN count(*) AS count"));
+        assertEquals(1, count("MATCH (:RunInfo)-[:HAS_HOM_VARIANT]->(:Variant {variantId: '1:100A>C'}) RETURN count(*) AS count"));
+        assertEquals(0, count("MATCH (:RunInfo)-[:HAS_HET_VARIANT]->(:Variant {variantId: '1:100A>C'}) RETURN count(*) AS count"));
+
+        //assessed variant kept with its annotation, genotype gone
+        assertNotNull(getVariant("1:200G>T"));
+        assertEquals(0, count("MATCH (:RunInfo)-->(:Variant {variantId: '1:200G>T'}) RETURN count(*) AS count"));
+        assertEquals(1, count("MATCH (:Variant {variantId: '1:200G>T'})-[:HAS_MISSENSE_VARIANT_CONSEQUENCE]->(:Annotation)-[:IN_FEATURE]->(:Feature) RETURN count(*) AS count"));
+        assertEquals(1, count("MATCH (:Variant {variantId: '1:200G>T'})-[:HAS_USER_EVENT]->(:VariantPathogenicity) RETURN count(*) AS count"));
+
+        //orphan deleted with its own annotation only
+        assertNull(getVariant("1:300C>G"));
+        assertEquals(0, count("MATCH (a:Annotation {hgvsc: '1:300C>G'}) RETURN count(a) AS count"));
+        assertEquals(1, count("MATCH (:Symbol {symbolId: 'BRCA1'})-[:HAS_PROTEIN_CODING_BIOTYPE]->(:Feature {featureId: 'ENST00000357654'}) RETURN count(*) AS count"));
+        assertEquals(2, count("MATCH (:Variant)-[:IN_SYMBOL]->(:Symbol {symbolId: 'BRCA1'}) RETURN count(*) AS count"));
+
+        assertEquals(1, count("MATCH (:RunInfo)-[:HAS_HET_VARIANT]->(:Variant {variantId: '1:400T>A'}) RETURN count(*) AS count"));
+    }
+
+    @Test
+    public void keepsAnnotationReferencedElsewhere() throws IOException {
+        importVcf("first.vcf", false, "1\t300\t.\tC\tG\t.\tPASS\t.\tGT:GQ\t0/1:99");
+        annotate("1:300C>G");
+
+        try (Transaction tx = graphDb.beginTx()){
+            Node annotationNode = graphDb.findNode(VariantDatabase.getAnnotationLabel(), "hgvsc", "1:300C>G");
+            Node userNode = graphDb.createNode(VariantDatabase.getUserLabel());
+            userNode.createRelationshipTo(annotationNode, VariantDatabase.getAddedByRelationship());
+            tx.success();
+        }
+
+        importVcf("second.vcf", true, "1\t400\t.\tT\tA\t.\tPASS\t.\tGT:GQ\t0/1:99");
+
+        assertNull(getVariant("1:300C>G"));
+        assertEquals(1, count("MATCH (:User)-->(a:Annotation {hgvsc: '1:300C>G'}) RETURN count(a) AS count"));
+    }
+
+    @Test
+    public void deletesJournalledOrphansOnResume() throws IOException {
+        importVcf("first.vcf", false,
+                "1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "1\t300\t.\tC\tG\t.\tPASS\t.\tGT:GQ\t0/1:99");
+
+        //a replace interrupted after its genotypes were deleted, before the orphans were checked
+        try (Transaction tx = graphDb.beginTx()){
+            Node runInfoNode = graphDb.findNode(VariantDatabase.getRunInfoLabel(), "analysisId", "K1_sample1_run1");
+            ArrayList<Relationship> relationships = new ArrayList<>();
+            for (Relationship relationship : runInfoNode.getRelationships(Direction.OUTGOING, VariantDatabase.getHasHetVariantRelationship())){
+                relationships.add(relationship);
+            }
+            for (Relationship relationship : relationships){
+                relationship.delete();
+            }
+            tx.success();
+        }
+
+        File journalFile = new File(directory, "second.vcf.journal");
+        try (FileWriter writer = new FileWriter(journalFile)){
+            writer.write("REPLACED\t1:100A>C\nREPLACED\t1:300C>G\nANALYSIS\tK1_sample1_run1\n");
+        }
+
+        ImportJournal importJournal = new ImportJournal(journalFile);
+        importJournal.load();
+        importJournal.open();
+        importVcf("second.vcf", true, false, importJournal, "1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t1/1:99");
+        importJournal.close();
+
+        assertNotNull(getVariant("1:100A>C"));
+        assertEquals(1, count("MATCH (:RunInfo)-[:HAS_HOM_VARIANT]->(:Variant {variantId: '1:100A>C'}) RETURN count(*) AS count"));
+        assertNull(getVariant("1:300C>G"));
+    }
+
+    @Test
+    public void appliesDeltaAcrossWindowsAndContigs() throws IOException {
+        importVcf("first.vcf", false,
+                "1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "1\t1500000\t.\tG\tT\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "1\t3500000\t.\tC\tG\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "1\t249250700\t.\tT\tA\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "2\t500\t.\tA\tG\t.\tPASS\t.\tGT:GQ\t1/1:99");
+
+        long unchangedGenotypes = count("MATCH (:RunInfo)-[g:HAS_HET_VARIANT]->(:Variant {variantId: '1:100A>C'}) RETURN id(g) AS count");
+
+        //zygosity changed, one genotype gone on each side of a window boundary, one added and contig 2 absent
+        importVcf("delta.vcf", false, true,
+                "1\t100\t.\tA\tC\t.\tPASS\t.\tGT:GQ\t0/1:99",
+                "1\t1500000\t.\tG\tT\t.\tPASS\t.\tGT:GQ\t1/1:50",
+                "1\t2500000\t.\tA\tT\t.\tPASS\t.\tGT:GQ\t0/1:99");
+
+        assertEquals(unchangedGenotypes, count("MATCH (:RunInfo)-[g:HAS_HET_VARIANT]->(:Variant {variantId: '1:100A>C'}) RETURN id(g) AS count"));
+        assertEquals(1, count("MATCH (:RunInfo)-[g:HAS_HOM_VARIANT {quality: 50}]->(:Variant {variantId: '1:1500000G>T'}) RETURN count(g) AS count"));
+        assertEquals(1, count("MATCH (:RunInfo)-[g:HAS_HET_VARIANT]->(:Variant {variantId: '1:2500000A>T'}) RETURN count(g) AS count"));
+        assertEquals(0, count("MATCH (:RunInfo)-[g]->(:Variant {variantId: '1:3500000C>G'}) RETURN count(g) AS count"));
+        assertEquals(0, count("MATCH (:RunInfo)-[g]->(:Variant {variantId: '1:249250700T>A'}) RETURN count(g) AS count"));
+        assertEquals(0, count("MATCH (:RunInfo)-[g]->(:Variant {variantId: '2:500A>G'}) RETURN count(g) AS count"));
+        assertEquals(3, count("MATCH (:RunInfo)-[g]->(:Variant) RETURN count(g) AS count"));
+    }
+
+}
@@ -0,0 +1,168 @@
+package nhs.genetics.cardiff;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests which write batch failures the scheduler retries
+ *
+ * @author  agent
+ * @version 1.0
+ * @since   2026-10-18
+ */
+public class WriteSchedulerTest {
+
+    private static final String variantIdRace = "Node(12) already exists with label `Variant` and property `variantId` = '1:100A>C'";
+
+    private ArrayList<String> transactions;
+    private WriteScheduler writeScheduler;
+
+    //runs batches in fake transactions recording how each one ended
+    @Before
+    public void setUp() {
+        transactions = new ArrayList<>();
+
+        final InvocationHandler transactionHandler = new InvocationHandler() {
+            private boolean success;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("success")) success = true;
+                if (method.getName().equals("close")) {
+                    transactions.add(success ? "commit" : "rollback");
+                    success = false;
+                }
+                return null;
+            }
+        };
+
+        GraphDatabaseService graphDb = (GraphDatabaseService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{GraphDatabaseService.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("beginTx")) {
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Transaction.class}, transactionHandler);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        writeScheduler = new WriteScheduler(graphDb);
+    }
+
+    @Test
+    public void retriesVariantIdRace() throws IOException {
+        FailingBatch batch = new FailingBatch(new ConstraintViolationException(variantIdRace), 1);
+
+        writeScheduler.execute(batch);
+
+        assertEquals(2, batch.writes);
+        assertEquals(1, batch.rollbacks);
+        assertEquals(1, batch.commits);
+        assertEquals("commit", transactions.get(transactions.size() - 1));
+        assertEquals(1, writeScheduler.getRetriedBatches());
+        assertEquals(1, writeScheduler.getCommittedBatches());
+    }
+
+    @Test
+    public void timesOnlySuccessfulCommit() throws IOException {
+        FailingBatch batch = new FailingBatch(new ConstraintViolationException(variantIdRace), 1);
+
+        long start = System.nanoTime();
+        long commitNanos = writeScheduler.execute(batch);
+
+        //the retry backs off for at least 25ms, which the commit time must leave out
+        assertTrue(System.nanoTime() - start >= 25000000L);
+        assertTrue(commitNanos >= 0 && commitNanos < 25000000L);
+    }
+
+    @Test
+    public void retriesWrappedDeadlock() throws IOException {
+        FailingBatch batch = new FailingBatch(new RuntimeException("commit failed", new DeadlockDetectedException("lock cycle")), 2);
+
+        writeScheduler.execute(batch);
+
+        assertEquals(3, batch.writes);
+        assertEquals(2, batch.rollbacks);
+        assertEquals(1, batch.commits);
+    }
+
+    @Test
+    public void failsOtherConstraintViolationsAtOnce() {
+        FailingBatch batch = new FailingBatch(new ConstraintViolationException("Node(3) already exists with label `Annotation` and property `annotationId` = 'x'"), 1);
+
+        try {
+            writeScheduler.execute(batch);
+            fail("expected the batch to fail");
+        } catch (IOException e){
+            assertTrue(e.getCause() instanceof ConstraintViolationException);
+        }
+
+        assertEquals(1, batch.writes);
+        assertEquals(1, batch.rollbacks);
+        assertEquals(0, batch.commits);
+        assertEquals(0, writeScheduler.getRetriedBatches());
+    }
+
+    @Test
+    public void failsNonSchemaErrorsAtOnce() {
+        FailingBatch batch = new FailingBatch(new IllegalStateException("broken"), 1);
+
+        try {
+            writeScheduler.execute(batch);
+            fail("expected the batch to fail");
+        } catch (IOException e){
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(1, batch.writes);
+        assertEquals(0, batch.commits);
+    }
+
+    @Test
+    public void matchesVariantIdRaceOnly() {
+        assertTrue(WriteScheduler.isRetryable(new ConstraintViolationException(variantIdRace)));
+        assertTrue(WriteScheduler.isRetryable(new ConstraintViolationException("commit failed", new RuntimeException(variantIdRace))));
+        assertFalse(WriteScheduler.isRetryable(new ConstraintViolationException("Node(12) already exists with label `VariantSet` and property `variantId` = 'x'")));
+        assertFalse(WriteScheduler.isRetryable(new ConstraintViolationException("Node(12) already exists with label `Variant` and property `variantIdentifier` = 'x'")));
+        assertFalse(WriteScheduler.isRetryable(new ConstraintViolationException("Node(12) still has relationships")));
+    }
+
+    private static class FailingBatch implements WriteScheduler.Batch {
+        private final RuntimeException failure;
+        private final int failures;
+        private int writes, commits, rollbacks;
+
+        private FailingBatch(RuntimeException failure, int failures){
+            this.failure = failure;
+            this.failures = failures;
+        }
+
+        @Override
+        public void write() {
+            if (++writes <= failures) throw failure;
+        }
+
+        @Override
+        public void committed() {
+            ++commits;
+        }
+
+        @Override
+        public void rolledBack() {
+            ++rollbacks;
+        }
+    }
+
+}